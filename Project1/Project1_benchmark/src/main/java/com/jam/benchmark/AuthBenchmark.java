@@ -0,0 +1,72 @@
+package com.jam.benchmark;
+
+import com.jam.data.UserRepository;
+import com.jam.model.User;
+import com.jam.model.UserType;
+import com.jam.service.AuthService;
+import com.jam.service.CredentialCache;
+import com.jam.service.TokenService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the authentication every API request goes through,
+ * with the credential cache warm and with every lookup missing it,
+ * with an API key and with signed tokens of an employee and of a
+ * manager. Tokens are verified in memory and, like API keys, take
+ * the user from the credential cache when it is there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthBenchmark {
+    @Param({"true", "false"})
+    private boolean cached;
+
+    private AuthService authService;
+    private String apikey;
+    private String token;
+    private String managerToken;
+
+    @Setup
+    public void setup() {
+        Map<Long, User> users = new HashMap<>();
+        for (long id = 1; id <= 1000; id++) {
+            User user = new User("User " + id, "password" + id, "user" + id + "@example.com",
+                    id % 10 == 0 ? UserType.MANAGER : UserType.EMPLOYEE);
+            user.setId(id);
+            user.setApikey("apikey" + id);
+            users.put(id, user);
+        }
+        // A zero time to live makes every lookup miss the cache
+        CredentialCache cache = new CredentialCache(10000, cached ? Duration.ofHours(1) : Duration.ZERO);
+        TokenService tokenService = new TokenService("secret", Duration.ofHours(1));
+        authService = new AuthService(InMemoryRepository.of(UserRepository.class, users), cache, tokenService);
+        apikey = "apikey500";
+        token = "Bearer " + tokenService.issue(users.get(500L)).getToken();
+        managerToken = "Bearer " + tokenService.issue(users.get(510L)).getToken();
+    }
+
+    @Benchmark
+    public ResponseEntity<User> authenticateUser() {
+        return authService.authenticateUser(500L, apikey);
+    }
+
+    @Benchmark
+    public ResponseEntity<User> authenticateToken() {
+        return authService.authenticateUser(500L, token);
+    }
+
+    @Benchmark
+    public ResponseEntity<User> authenticateManagerToken() {
+        return authService.authenticateManager(510L, managerToken);
+    }
+}
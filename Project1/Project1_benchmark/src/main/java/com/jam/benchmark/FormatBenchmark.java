@@ -0,0 +1,122 @@
+package com.jam.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jam.config.BinaryFormatConfig;
+import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementView;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the response formats of reimbursement lists: JSON as sent
+ * today, JSON gzipped as it is sent above the compression threshold, and
+ * Smile and CBOR as sent to clients that accept them. The mappers are the
+ * ones the application configures, and the payload size of each format is
+ * reported next to its times as the bytes counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+    private static final TypeReference<List<Reimbursement>> REIMBURSEMENTS = new TypeReference<List<Reimbursement>>() {
+    };
+
+    @Param({"json", "json-gzip", "smile", "cbor"})
+    private String format;
+
+    @Param({"100", "1000"})
+    private int size;
+
+    private ConfigurableApplicationContext context;
+    private ObjectMapper mapper;
+    private boolean gzip;
+    private List<ReimbursementView> views;
+    private byte[] payload;
+
+    /**
+     * The size of the payload each benchmark writes or reads.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+        public long bytes;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        // Only the Jackson configuration of the application, without its database or web server
+        context = new SpringApplicationBuilder(JacksonAutoConfiguration.class, BinaryFormatConfig.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .logStartupInfo(false)
+                .run();
+        if (format.equals("smile")) {
+            mapper = context.getBean(MappingJackson2SmileHttpMessageConverter.class).getObjectMapper();
+        } else if (format.equals("cbor")) {
+            mapper = context.getBean(MappingJackson2CborHttpMessageConverter.class).getObjectMapper();
+        } else {
+            mapper = context.getBean(ObjectMapper.class);
+        }
+        gzip = format.equals("json-gzip");
+        views = new ArrayList<>();
+        LocalDate start = LocalDate.of(2022, 1, 1);
+        for (int i = 0; i < size; i++) {
+            LocalDate requestdate = start.plusDays(i % 365);
+            views.add(new ReimbursementView((long) i, requestdate, "Expense number " + i,
+                    BigDecimal.valueOf(1000 + i * 37L, 2), i % 3 == 0, i % 2 == 0 ? requestdate.plusDays(3) : null, 0));
+        }
+        payload = serialize();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] serializeViews(PayloadSize payloadSize) throws IOException {
+        byte[] serialized = serialize();
+        payloadSize.bytes = serialized.length;
+        return serialized;
+    }
+
+    @Benchmark
+    public List<Reimbursement> deserializeReimbursements(PayloadSize payloadSize) throws IOException {
+        payloadSize.bytes = payload.length;
+        try (InputStream in = gzip ? new GZIPInputStream(new ByteArrayInputStream(payload))
+                : new ByteArrayInputStream(payload)) {
+            return mapper.readValue(in, REIMBURSEMENTS);
+        }
+    }
+
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes) {
+            mapper.writeValue(out, views);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,46 @@
+package com.jam.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Creates Spring Data repositories backed by a map, so that the services
+ * can be benchmarked without a database. Only the lookups and saves the
+ * benchmarked paths use are supported.
+ */
+public final class InMemoryRepository {
+    private InMemoryRepository() {
+    }
+
+    /**
+     * Creates a repository backed by a map.
+     * @param type The repository interface.
+     * @param entities The entities of the repository, by id.
+     * @param <R> The type of the repository.
+     * @return The repository.
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> R of(Class<R> type, Map<Long, ?> entities) {
+        return (R) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "findById":
+                    return Optional.ofNullable(entities.get(args[0]));
+                case "getById":
+                    return entities.get(args[0]);
+                case "existsById":
+                    return entities.containsKey(args[0]);
+                case "save":
+                    return args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "InMemoryRepository<" + type.getSimpleName() + ">";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package com.jam.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementView;
+import com.jam.model.User;
+import com.jam.model.UserType;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the JSON serialization of reimbursement lists, with their
+ * MM/dd/yyyy dates and BigDecimal amounts, as entities and as views.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    @Param({"10", "100", "1000"})
+    private int size;
+
+    private ObjectMapper mapper;
+    private List<Reimbursement> reimbursements;
+    private List<ReimbursementView> views;
+
+    @Setup
+    public void setup() {
+        mapper = Jackson2ObjectMapperBuilder.json().build();
+        User user = new User("John Smith", "password1", "test1@gmail.com", UserType.EMPLOYEE);
+        user.setId(1L);
+        reimbursements = new ArrayList<>();
+        views = new ArrayList<>();
+        LocalDate start = LocalDate.of(2022, 1, 1);
+        for (int i = 0; i < size; i++) {
+            Reimbursement r = new Reimbursement(start.plusDays(i % 365), "Expense number " + i,
+                    BigDecimal.valueOf(1000 + i * 37L, 2), user);
+            r.setId((long) i);
+            r.setApproved(i % 3 == 0);
+            reimbursements.add(r);
+            views.add(new ReimbursementView(r.getId(), r.getRequestdate(), r.getDescription(), r.getAmount(),
+                    r.isApproved(), r.getResolvedate(), r.getVersion()));
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeReimbursements() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(reimbursements);
+    }
+
+    @Benchmark
+    public byte[] serializeViews() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(views);
+    }
+}
@@ -0,0 +1,80 @@
+package com.jam.benchmark;
+
+import com.jam.model.Mail;
+import com.jam.service.EmailService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the MIME message of an email in the email API,
+ * with a mail sender that drops the message instead of sending it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MailBenchmark {
+    private EmailService emailService;
+    private Mail mail;
+    private Mail mailWithCopies;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        emailService = new EmailService();
+        Field mailSender = EmailService.class.getDeclaredField("mailSender");
+        mailSender.setAccessible(true);
+        mailSender.set(emailService, new DroppingMailSender());
+        Field meterRegistry = EmailService.class.getDeclaredField("meterRegistry");
+        meterRegistry.setAccessible(true);
+        meterRegistry.set(emailService, new SimpleMeterRegistry());
+
+        mail = new Mail();
+        mail.setRecipient("test1@gmail.com");
+        mail.setSubject("Reimbursement request approved");
+        mail.setMessage("Your reimbursement request has been approved.\nDetails:\nID:1\n" +
+                "Description: For eating\nAmount: $50.20");
+        mailWithCopies = new Mail();
+        mailWithCopies.setRecipient(mail.getRecipient());
+        mailWithCopies.setSubject(mail.getSubject());
+        mailWithCopies.setMessage(mail.getMessage());
+        mailWithCopies.setCc(new String[]{"cc1@gmail.com", "cc2@gmail.com", "cc3@gmail.com"});
+        mailWithCopies.setBcc(new String[]{"bcc1@gmail.com", "bcc2@gmail.com"});
+    }
+
+    @Benchmark
+    public MimeMessage sendMail() throws MessagingException, UnsupportedEncodingException {
+        return emailService.sendMail(mail);
+    }
+
+    @Benchmark
+    public MimeMessage sendMailWithCopies() throws MessagingException, UnsupportedEncodingException {
+        return emailService.sendMail(mailWithCopies);
+    }
+
+    /**
+     * A mail sender that prepares messages the same way as
+     * {@link JavaMailSender} but never connects to a server.
+     */
+    private static class DroppingMailSender extends JavaMailSenderImpl {
+        @Override
+        protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) {
+            for (MimeMessage mimeMessage : mimeMessages) {
+                try {
+                    mimeMessage.saveChanges();
+                } catch (MessagingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}
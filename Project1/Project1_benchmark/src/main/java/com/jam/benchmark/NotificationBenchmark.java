@@ -0,0 +1,91 @@
+package com.jam.benchmark;
+
+import com.jam.data.OutboxRepository;
+import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementSummary;
+import com.jam.model.User;
+import com.jam.model.UserType;
+import com.jam.service.NotificationService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the notification emails of approvals, the
+ * single and batch bodies that used to be built in the controller.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationBenchmark {
+    private NotificationService notificationService;
+    private User user;
+    private Reimbursement reimbursement;
+    private List<ReimbursementSummary> batch;
+
+    @Setup
+    public void setup() {
+        notificationService = new NotificationService(
+                InMemoryRepository.of(OutboxRepository.class, Collections.emptyMap()), Duration.ZERO);
+        user = new User("John Smith", "password1", "test1@gmail.com", UserType.EMPLOYEE);
+        user.setId(1L);
+        user.setNotify(true);
+        reimbursement = new Reimbursement(LocalDate.of(2022, 5, 1), "For eating", BigDecimal.valueOf(5020, 2), user);
+        reimbursement.setId(1L);
+        batch = new ArrayList<>();
+        for (long id = 1; id <= 50; id++) {
+            batch.add(summary(id, "Expense number " + id, BigDecimal.valueOf(1000 + id * 37, 2)));
+        }
+    }
+
+    @Benchmark
+    public void reimbursementApproved() {
+        notificationService.reimbursementApproved(reimbursement);
+    }
+
+    @Benchmark
+    public void reimbursementsApproved() {
+        notificationService.reimbursementsApproved(user, batch);
+    }
+
+    private static ReimbursementSummary summary(Long id, String description, BigDecimal amount) {
+        return new ReimbursementSummary() {
+            public Long getId() {
+                return id;
+            }
+
+            public Long getUserid() {
+                return 1L;
+            }
+
+            public LocalDate getRequestdate() {
+                return null;
+            }
+
+            public String getDescription() {
+                return description;
+            }
+
+            public BigDecimal getAmount() {
+                return amount;
+            }
+
+            public Boolean getApproved() {
+                return false;
+            }
+
+            public LocalDate getResolvedate() {
+                return null;
+            }
+        };
+    }
+}
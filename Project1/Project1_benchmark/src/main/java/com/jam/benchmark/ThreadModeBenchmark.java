@@ -0,0 +1,72 @@
+package com.jam.benchmark;
+
+import com.jam.config.VirtualThreads;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Tomcat's default pool of 200 platform threads with a virtual
+ * thread per task when a burst of requests arrives at once, each blocking
+ * for 10ms as a request waiting on the database or the SMTP server does.
+ * The virtual mode needs Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModeBenchmark {
+    private static final int PLATFORM_THREADS = 200;
+    private static final long BLOCKING_MILLIS = 10;
+
+    @Param({"platform", "virtual"})
+    private String mode;
+
+    @Param({"1000", "10000"})
+    private int concurrency;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        if (mode.equals("virtual")) {
+            executor = VirtualThreads.executor("benchmark-");
+            if (executor == null) {
+                throw new IllegalStateException("Virtual threads need Java 21 or later");
+            }
+        } else {
+            executor = Executors.newFixedThreadPool(PLATFORM_THREADS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int burst() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> requests = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            int request = i;
+            requests.add(executor.submit(() -> {
+                Thread.sleep(BLOCKING_MILLIS);
+                return request;
+            }));
+        }
+        int done = 0;
+        for (Future<Integer> request : requests) {
+            request.get();
+            done++;
+        }
+        return done;
+    }
+}
@@ -0,0 +1,82 @@
+package com.jam.benchmark.load;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the email API during load tests. It accepts every email
+ * posted to /api/email the way the email API does, optionally after a delay
+ * to mimic a slow SMTP server, and only counts them.
+ */
+public class EmailStub implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final AtomicLong received = new AtomicLong();
+
+    /**
+     * Starts the stand-in.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param latency How long to take to accept each email.
+     * @throws IOException If the port could not be bound.
+     */
+    public EmailStub(int port, Duration latency) throws IOException {
+        this.latencyMillis = latency.toMillis();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.executor = Executors.newFixedThreadPool(4);
+        server.createContext("/api/email", this::accept);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    private void accept(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            StreamUtils.drain(body);
+        }
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if ("POST".equals(exchange.getRequestMethod())) {
+            received.incrementAndGet();
+            exchange.sendResponseHeaders(202, -1);
+        } else {
+            exchange.sendResponseHeaders(405, -1);
+        }
+        exchange.close();
+    }
+
+    /**
+     * Gets the URL the reimbursement API should send its emails to.
+     * @return The URL of the stand-in.
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/api/email";
+    }
+
+    /**
+     * Gets the number of emails accepted so far.
+     * @return The number of emails.
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,207 @@
+package com.jam.benchmark.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sends the requests of the load test to the reimbursement API over
+ * HTTP, as the users it creates when seeding the API.
+ */
+public class LoadClient {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    private final String baseUrl;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<Account> employees = new ArrayList<>();
+    private final List<Account> managers = new ArrayList<>();
+    private final Queue<Long> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a client of the reimbursement API.
+     * @param baseUrl The URL the API is served at, such as http://localhost:8080.
+     */
+    public LoadClient(String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    /**
+     * Checks whether the API is up and answering requests.
+     * @return True if the API answered.
+     */
+    public boolean isUp() {
+        try {
+            return request("GET", "/api/user", null, null).getStatus() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the employees and managers the load test sends its requests as.
+     * @param employeeCount The number of employees to create.
+     * @param managerCount The number of managers to create.
+     * @throws IOException If a user could not be created.
+     */
+    public void seed(int employeeCount, int managerCount) throws IOException {
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        for (int i = 0; i < employeeCount; i++) {
+            employees.add(createUser("loadtest-" + run + "-employee-" + i, "EMPLOYEE"));
+        }
+        for (int i = 0; i < managerCount; i++) {
+            managers.add(createUser("loadtest-" + run + "-manager-" + i, "MANAGER"));
+        }
+    }
+
+    private Account createUser(String name, String usertype) throws IOException {
+        Map<String, Object> user = new HashMap<>();
+        user.put("name", name);
+        user.put("password", "loadtest");
+        user.put("email", name + "@example.com");
+        user.put("usertype", usertype);
+        Response response = request("POST", "/api/user", null, user);
+        if (response.getStatus() != 201) {
+            throw new IOException("Could not create user " + name + ": HTTP " + response.getStatus());
+        }
+        JsonNode created = mapper.readTree(response.getBody());
+        return new Account(created.get("id").asLong(), created.get("apikey").asText());
+    }
+
+    /**
+     * Sends the request of an operation as a random employee or manager.
+     * Approving submits a request instead when there is nothing pending
+     * to approve yet, so that is what the returned operation is.
+     * @param operation The operation to send.
+     * @param random The source of the users and request contents.
+     * @return The operation that was sent and the HTTP status it got.
+     * @throws IOException If the API could not be reached.
+     */
+    public Result perform(Operation operation, Random random) throws IOException {
+        Account employee = employees.get(random.nextInt(employees.size()));
+        Account manager = managers.get(random.nextInt(managers.size()));
+        switch (operation) {
+            case LIST:
+                return new Result(operation, request("GET", "/api/reimbursement/" + employee.getId(),
+                        employee.getApikey(), null).getStatus());
+            case ALL:
+                return new Result(operation, request("GET", "/api/reimbursement/all/" + manager.getId(),
+                        manager.getApikey(), null).getStatus());
+            case USERS:
+                return new Result(operation, request("GET", "/api/user", null, null).getStatus());
+            case APPROVE:
+                Long id = pending.poll();
+                if (id != null) {
+                    Map<String, Object> status = new HashMap<>();
+                    status.put("status", "approve");
+                    status.put("managerid", manager.getId());
+                    return new Result(operation, request("PUT", "/api/reimbursement/" + id,
+                            manager.getApikey(), status).getStatus());
+                }
+                return submit(employee, random);
+            default:
+                return submit(employee, random);
+        }
+    }
+
+    private Result submit(Account employee, Random random) throws IOException {
+        Map<String, Object> reimbursement = new HashMap<>();
+        reimbursement.put("requestdate", LocalDate.now().minusDays(random.nextInt(90)).format(DATE_FORMAT));
+        reimbursement.put("description", "Load test expense");
+        reimbursement.put("amount", BigDecimal.valueOf(100 + random.nextInt(100000), 2));
+        Response response = request("POST", "/api/reimbursement/" + employee.getId(),
+                employee.getApikey(), reimbursement);
+        if (response.getStatus() == 201) {
+            pending.add(mapper.readTree(response.getBody()).get("id").asLong());
+        }
+        return new Result(Operation.SUBMIT, response.getStatus());
+    }
+
+    private Response request(String method, String path, String apikey, Object body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestProperty("Accept", "application/json");
+        if (apikey != null) {
+            connection.setRequestProperty("Authorization", apikey);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                mapper.writeValue(out, body);
+            }
+        }
+        int status = connection.getResponseCode();
+        // The body is always read to the end so the connection can be kept alive
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        byte[] bytes = new byte[0];
+        if (in != null) {
+            try (InputStream stream = in) {
+                bytes = StreamUtils.copyToByteArray(stream);
+            }
+        }
+        return new Response(status, bytes);
+    }
+
+    /**
+     * A user the load test sends requests as.
+     */
+    @Getter
+    private static class Account {
+        private final long id;
+        private final String apikey;
+
+        private Account(long id, String apikey) {
+            this.id = id;
+            this.apikey = apikey;
+        }
+    }
+
+    @Getter
+    private static class Response {
+        private final int status;
+        private final byte[] body;
+
+        private Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * The operation a request was sent for and the HTTP status it got.
+     */
+    @Getter
+    public static class Result {
+        private final Operation operation;
+        private final int status;
+
+        private Result(Operation operation, int status) {
+            this.operation = operation;
+            this.status = status;
+        }
+
+        public boolean isSuccessful() {
+            return status >= 200 && status < 400;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jam.benchmark.load;
+
+import lombok.Getter;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The options of a load test, read from the command line as
+ * --name value pairs.
+ */
+@Getter
+public class LoadOptions {
+    private String url = "http://localhost:8080";
+    private File app;
+    private List<String> appArgs = new ArrayList<>();
+    private int threads = 16;
+    private Duration warmup = Duration.ofSeconds(10);
+    private Duration duration = Duration.ofSeconds(60);
+    private double rate;
+    private int employees = 50;
+    private int managers = 5;
+    private int emailPort = 8025;
+    private Duration emailLatency = Duration.ZERO;
+    private Map<Operation, Integer> mix = parseMix("submit=3,list=4,all=1,approve=2,users=0");
+    private File report = new File("loadtest-report");
+
+    /**
+     * Reads the options of a load test from the command line.
+     * @param args The command line arguments.
+     * @return The options, with the defaults for those not given.
+     * @throws IllegalArgumentException If an option is unknown or its value is not valid.
+     */
+    public static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--url":
+                    options.url = value;
+                    break;
+                case "--app":
+                    options.app = new File(value);
+                    break;
+                case "--app-args":
+                    options.appArgs = Arrays.asList(value.trim().split("\\s+"));
+                    break;
+                case "--threads":
+                    options.threads = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    options.warmup = DurationStyle.detectAndParse(value);
+                    break;
+                case "--duration":
+                    options.duration = DurationStyle.detectAndParse(value);
+                    break;
+                case "--rate":
+                    options.rate = Double.parseDouble(value);
+                    break;
+                case "--employees":
+                    options.employees = Integer.parseInt(value);
+                    break;
+                case "--managers":
+                    options.managers = Integer.parseInt(value);
+                    break;
+                case "--email-port":
+                    options.emailPort = Integer.parseInt(value);
+                    break;
+                case "--email-latency":
+                    options.emailLatency = DurationStyle.detectAndParse(value);
+                    break;
+                case "--mix":
+                    options.mix = parseMix(value);
+                    break;
+                case "--report":
+                    options.report = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (options.threads < 1 || options.employees < 1 || options.managers < 1) {
+            throw new IllegalArgumentException("There must be at least one thread, employee and manager");
+        }
+        return options;
+    }
+
+    /**
+     * Reads the weights of the operations, such as submit=3,list=4,approve=2.
+     * Operations that are not given are not sent.
+     * @param value The weights of the operations.
+     * @return The weight of every operation.
+     */
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            mix.put(operation, 0);
+        }
+        for (String entry : value.split(",")) {
+            String[] weight = entry.trim().split("=");
+            if (weight.length != 2) {
+                throw new IllegalArgumentException("Not a weight: " + entry);
+            }
+            mix.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("The mix has no operations: " + value);
+        }
+        return mix;
+    }
+}
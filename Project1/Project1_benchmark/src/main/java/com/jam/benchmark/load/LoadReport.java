@@ -0,0 +1,98 @@
+package com.jam.benchmark.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * The throughput and latency histograms of each operation sent during a
+ * load test. Latencies are recorded in microseconds and reported in
+ * milliseconds.
+ */
+public class LoadReport {
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final Duration elapsed;
+    private final Map<Operation, Histogram> latencies;
+    private final Map<Operation, Long> errors;
+    private final long emails;
+
+    /**
+     * Creates the report of a load test.
+     * @param elapsed How long the requests were sent for.
+     * @param latencies The latencies of the successful requests of each operation.
+     * @param errors The number of failed requests of each operation.
+     * @param emails The number of emails the email stand-in accepted, or -1 if it was not used.
+     */
+    public LoadReport(Duration elapsed, Map<Operation, Histogram> latencies, Map<Operation, Long> errors, long emails) {
+        this.elapsed = elapsed;
+        this.latencies = latencies;
+        this.errors = errors;
+        this.emails = emails;
+    }
+
+    /**
+     * Prints the count, errors, throughput and latency percentiles of each operation.
+     * @param out The stream to print to.
+     */
+    public void print(PrintStream out) {
+        double seconds = elapsed.toNanos() / 1e9;
+        out.printf("%-8s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "op", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram total = new Histogram(3);
+        long totalErrors = 0;
+        for (Map.Entry<Operation, Histogram> entry : latencies.entrySet()) {
+            long failed = errors.getOrDefault(entry.getKey(), 0L);
+            if (entry.getValue().getTotalCount() + failed == 0) {
+                continue;
+            }
+            print(out, entry.getKey().name().toLowerCase(), entry.getValue(), failed, seconds);
+            total.add(entry.getValue());
+            totalErrors += failed;
+        }
+        print(out, "total", total, totalErrors, seconds);
+        if (emails >= 0) {
+            out.println("Emails accepted by the stand-in: " + emails);
+        }
+    }
+
+    private void print(PrintStream out, String name, Histogram histogram, long failed, double seconds) {
+        out.printf("%-8s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                name, histogram.getTotalCount(), failed, (histogram.getTotalCount() + failed) / seconds,
+                millis(histogram, 50), millis(histogram, 90), millis(histogram, 99), millis(histogram, 99.9),
+                histogram.getMaxValue() / MICROS_PER_MILLI);
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / MICROS_PER_MILLI;
+    }
+
+    /**
+     * Writes the summary to summary.txt and the full latency distribution of
+     * each operation to an .hgrm file, which the HdrHistogram plotter can chart.
+     * @param directory The directory to write the report to.
+     * @throws IOException If the report could not be written.
+     */
+    public void write(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        try (PrintStream out = new PrintStream(new FileOutputStream(new File(directory, "summary.txt")), false, "UTF-8")) {
+            print(out);
+        }
+        for (Map.Entry<Operation, Histogram> entry : latencies.entrySet()) {
+            if (entry.getValue().getTotalCount() == 0) {
+                continue;
+            }
+            File file = new File(directory, entry.getKey().name().toLowerCase() + ".hgrm");
+            try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+                entry.getValue().outputPercentileDistribution(out, MICROS_PER_MILLI);
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.jam.benchmark.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mix of submit, list and approve traffic at the reimbursement API
+ * from a number of threads and reports the throughput and latency percentiles
+ * of each kind of request.
+ *
+ * <p>With --app the API jar is started in its own JVM on the loadtest profile,
+ * which runs it on an in-memory database, and its emails go to a stand-in for
+ * the email API. --app-args passes more arguments to it, such as
+ * --threads.virtual=true. Otherwise the requests go to the API at --url.</p>
+ *
+ * <p>By default each thread sends its next request as soon as the last one is
+ * answered. With --rate the threads instead send requests on a fixed schedule,
+ * and latencies are measured from when each request was due so that a stalled
+ * API is not hidden by the requests it held back.</p>
+ */
+public class LoadTest {
+    private static final Duration STARTUP_TIMEOUT = Duration.ofMinutes(2);
+
+    private final LoadOptions options;
+    private final LoadClient client;
+    private final Operation[] schedule;
+
+    private LoadTest(LoadOptions options, LoadClient client) {
+        this.options = options;
+        this.client = client;
+        List<Operation> operations = new ArrayList<>();
+        options.getMix().forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                operations.add(operation);
+            }
+        });
+        this.schedule = operations.toArray(new Operation[0]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Options: --app <jar> | --url <url>, --app-args, --threads, --warmup, --duration, --rate,"
+                    + " --mix submit=3,list=4,all=1,approve=2,users=0, --employees, --managers,"
+                    + " --email-port, --email-latency, --report <directory>");
+            System.exit(2);
+            return;
+        }
+        if (!options.getReport().isDirectory() && !options.getReport().mkdirs()) {
+            throw new IOException("Could not create " + options.getReport());
+        }
+        System.setProperty("http.maxConnections", Integer.toString(options.getThreads()));
+
+        Process app = null;
+        try (EmailStub emailStub = new EmailStub(options.getApp() != null ? 0 : options.getEmailPort(),
+                options.getEmailLatency())) {
+            String url = options.getUrl();
+            if (options.getApp() != null) {
+                int port = freePort();
+                url = "http://localhost:" + port;
+                app = startApp(options.getApp(), port, emailStub.getUrl(), options.getAppArgs(),
+                        new File(options.getReport(), "app.log"));
+            }
+            LoadClient client = new LoadClient(url);
+            awaitUp(client, app);
+            System.out.println("Load testing " + url + ", emails go to " + emailStub.getUrl());
+            client.seed(options.getEmployees(), options.getManagers());
+
+            LoadTest test = new LoadTest(options, client);
+            System.out.println("Warming up for " + options.getWarmup().getSeconds() + "s");
+            test.run(options.getWarmup());
+            System.out.println("Measuring for " + options.getDuration().getSeconds() + "s with "
+                    + options.getThreads() + " threads");
+            long emailsBefore = emailStub.getReceived();
+            Measurement measurement = test.run(options.getDuration());
+            LoadReport report = new LoadReport(measurement.elapsed, measurement.latencies, measurement.errors,
+                    emailStub.getReceived() - emailsBefore);
+            report.print(System.out);
+            report.write(options.getReport());
+            System.out.println("Report written to " + options.getReport());
+        } finally {
+            if (app != null) {
+                app.destroy();
+                if (!app.waitFor(30, TimeUnit.SECONDS)) {
+                    app.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Process startApp(File jar, int port, String emailUrl, List<String> args, File log)
+            throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-jar", jar.getAbsolutePath(),
+                "--spring.profiles.active=loadtest",
+                "--server.port=" + port,
+                "--management.server.port=0",
+                "--email-api.url=" + emailUrl));
+        command.addAll(args);
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+    }
+
+    private static void awaitUp(LoadClient client, Process app) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (!client.isUp()) {
+            if (app != null && !app.isAlive()) {
+                throw new IOException("The API exited with status " + app.exitValue() + ", see app.log");
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("The API did not come up within " + STARTUP_TIMEOUT.getSeconds() + "s");
+            }
+            Thread.sleep(500);
+        }
+    }
+
+    /**
+     * Sends requests from every thread for the given time.
+     * @param length How long to send requests for.
+     * @return The latencies and errors of each operation.
+     * @throws InterruptedException If interrupted while waiting for the threads.
+     */
+    private Measurement run(Duration length) throws InterruptedException {
+        Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+        Map<Operation, LongAdder> failures = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new Recorder(3));
+            failures.put(operation, new LongAdder());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+        long start = System.nanoTime();
+        long deadline = start + length.toNanos();
+        // Each thread gets an equal share of the rate
+        long interval = options.getRate() > 0 ? (long) (options.getThreads() * 1e9 / options.getRate()) : 0;
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < options.getThreads(); i++) {
+            workers.add(executor.submit(() -> {
+                Random random = ThreadLocalRandom.current();
+                long due = System.nanoTime() + (interval > 0 ? random.nextInt((int) Math.min(interval, Integer.MAX_VALUE)) : 0);
+                while (System.nanoTime() < deadline) {
+                    long sent;
+                    if (interval > 0) {
+                        LockSupport.parkNanos(due - System.nanoTime());
+                        sent = due;
+                        due += interval;
+                    } else {
+                        sent = System.nanoTime();
+                    }
+                    Operation operation = schedule[random.nextInt(schedule.length)];
+                    try {
+                        LoadClient.Result result = client.perform(operation, random);
+                        long micros = (System.nanoTime() - sent) / 1000;
+                        if (result.isSuccessful()) {
+                            recorders.get(result.getOperation()).recordValue(micros);
+                        } else {
+                            failures.get(result.getOperation()).increment();
+                        }
+                    } catch (IOException e) {
+                        failures.get(operation).increment();
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+        executor.awaitTermination(length.getSeconds() + 60, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        for (Future<?> worker : workers) {
+            worker.cancel(true);
+        }
+
+        Measurement measurement = new Measurement(Duration.ofNanos(elapsed));
+        recorders.forEach((operation, recorder) -> measurement.latencies.put(operation, recorder.getIntervalHistogram()));
+        failures.forEach((operation, count) -> measurement.errors.put(operation, count.sum()));
+        return measurement;
+    }
+
+    private static class Measurement {
+        private final Duration elapsed;
+        private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+
+        private Measurement(Duration elapsed) {
+            this.elapsed = elapsed;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.jam.benchmark.load;
+
+/**
+ * The requests the load test sends to the reimbursement API.
+ */
+public enum Operation {
+    /**
+     * An employee submits a reimbursement request.
+     */
+    SUBMIT,
+    /**
+     * An employee lists their reimbursement requests.
+     */
+    LIST,
+    /**
+     * A manager lists every reimbursement request.
+     */
+    ALL,
+    /**
+     * A manager approves a pending reimbursement request.
+     */
+    APPROVE,
+    /**
+     * Anyone lists the users.
+     */
+    USERS
+}
@@ -0,0 +1,51 @@
+package com.jam.config;
+
+import com.jam.service.PooledJavaMailSender;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.Properties;
+
+/**
+ * Configures the mail sender of the email service.
+ */
+@Configuration
+@EnableConfigurationProperties(MailProperties.class)
+public class MailConfig {
+    /**
+     * Creates a mail sender that reuses its SMTP connections,
+     * configured from the spring.mail properties.
+     * @param properties The spring.mail properties.
+     * @return The pooled mail sender.
+     */
+    @Bean
+    public PooledJavaMailSender mailSender(MailProperties properties,
+                                           @Value("${mail.pool.max-total:4}") int maxTotal,
+                                           @Value("${mail.pool.max-messages-per-connection:100}") int maxMessages,
+                                           @Value("${mail.pool.max-idle:60s}") Duration maxIdle,
+                                           @Value("${mail.pool.validate-after:5s}") Duration validateAfter,
+                                           @Value("${mail.pool.borrow-timeout:10s}") Duration borrowTimeout) {
+        PooledJavaMailSender sender = new PooledJavaMailSender(maxTotal, maxMessages,
+                maxIdle, validateAfter, borrowTimeout);
+        sender.setHost(properties.getHost());
+        if (properties.getPort() != null) {
+            sender.setPort(properties.getPort());
+        }
+        sender.setUsername(properties.getUsername());
+        sender.setPassword(properties.getPassword());
+        sender.setProtocol(properties.getProtocol());
+        if (properties.getDefaultEncoding() != null) {
+            sender.setDefaultEncoding(properties.getDefaultEncoding().name());
+        }
+        if (!properties.getProperties().isEmpty()) {
+            Properties javaMailProperties = new Properties();
+            javaMailProperties.putAll(properties.getProperties());
+            sender.setJavaMailProperties(javaMailProperties);
+        }
+        return sender;
+    }
+}
@@ -0,0 +1,93 @@
+package com.jam.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs API requests on virtual threads when threads.virtual is set, so that
+ * requests waiting on the SMTP server park a cheap virtual thread instead of
+ * holding one of Tomcat's worker threads. The mail queue picks the same
+ * setting up for its workers. Without a Java runtime that has virtual
+ * threads the API keeps its usual thread pools.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "threads.virtual", havingValue = "true")
+public class MailThreadConfig implements DisposableBean {
+    private final ExecutorService requestExecutor = virtualExecutor("http-virtual-");
+
+    public MailThreadConfig() {
+        if (requestExecutor == null) {
+            log.warn("[THREADS] Virtual threads need Java 21 or later, running on platform threads on Java "
+                    + System.getProperty("java.version") + ".");
+        } else {
+            log.info("[THREADS] Running requests and queued emails on virtual threads.");
+        }
+    }
+
+    /**
+     * Creates a factory of virtual threads when the Java runtime has them (Java 21 and
+     * later). The API is still compiled for Java 8, so they are looked up reflectively.
+     * @param prefix The prefix of the thread names, followed by a counter.
+     * @return The thread factory, or null if the runtime has no virtual threads.
+     */
+    private static ThreadFactory virtualFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates an executor that runs every task on a new virtual thread.
+     * @param prefix The prefix of the thread names, followed by a counter.
+     * @return The executor, or null if the runtime has no virtual threads.
+     */
+    public static ExecutorService virtualExecutor(String prefix) {
+        ThreadFactory factory = virtualFactory(prefix);
+        if (factory == null) {
+            return null;
+        }
+        try {
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hands every request Tomcat accepts to a new virtual thread
+     * instead of a thread of its worker pool.
+     * @return The customizer of the Tomcat protocol handler.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        return protocolHandler -> {
+            if (requestExecutor != null) {
+                protocolHandler.setExecutor(requestExecutor);
+            }
+        };
+    }
+
+    @Override
+    public void destroy() {
+        if (requestExecutor != null) {
+            requestExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.jam.config;
+
+import com.jam.service.PooledJavaMailSender;
+import com.jam.service.SmtpTransportPool;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the state of the SMTP connection pool as metrics.
+ */
+@Configuration
+public class SmtpMetricsConfig {
+    /**
+     * Binds the SMTP connection pool metrics: connections opened and
+     * closed, idle connections and the time spent on handshakes.
+     * @param mailSender The pooled mail sender.
+     * @return The binder of the pool metrics.
+     */
+    @Bean
+    public MeterBinder smtpPoolMetrics(PooledJavaMailSender mailSender) {
+        SmtpTransportPool pool = mailSender.getPool();
+        return registry -> {
+            FunctionCounter.builder("email.smtp.connections.opened", pool, SmtpTransportPool::getConnectionsOpened)
+                    .description("SMTP connections opened")
+                    .register(registry);
+            FunctionCounter.builder("email.smtp.connections.closed", pool, SmtpTransportPool::getConnectionsClosed)
+                    .description("SMTP connections closed")
+                    .register(registry);
+            Gauge.builder("email.smtp.connections.idle", pool, SmtpTransportPool::getIdle)
+                    .description("SMTP connections waiting in the pool")
+                    .register(registry);
+            FunctionTimer.builder("email.smtp.handshake", pool, SmtpTransportPool::getConnectionsOpened,
+                            SmtpTransportPool::getHandshakeNanos, TimeUnit.NANOSECONDS)
+                    .description("Time spent connecting and authenticating to the SMTP server")
+                    .register(registry);
+        };
+    }
+}
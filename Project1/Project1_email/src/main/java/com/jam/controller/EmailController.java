@@ -1,7 +1,10 @@
 package com.jam.controller;
 
+import com.jam.model.Delivery;
 import com.jam.model.Mail;
 import com.jam.service.EmailService;
+import com.jam.service.MailQueue;
+import com.jam.service.PooledJavaMailSender;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -9,6 +12,10 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+
 /**
  * API controller for the email service.
  */
@@ -18,23 +25,50 @@ import org.springframework.web.multipart.MultipartFile;
 public class EmailController {
     @Autowired
     private EmailService emailService;
+    @Autowired
+    private PooledJavaMailSender mailSender;
+    @Autowired
+    private MailQueue mailQueue;
 
     /**
-     * Sends a mail message to an email.
+     * Queues a mail message to be sent to an email. The message is
+     * written to the durable send queue before it is accepted.
      * @param mail The contents of the mail.
+     * @return The response carrying the delivery state of the queued mail.
      */
     @PostMapping
-    public ResponseEntity<Void> sendMail(@RequestBody Mail mail) {
+    public ResponseEntity<Delivery> sendMail(@RequestBody Mail mail) {
         try {
-            emailService.sendMail(mail);
-            return ResponseEntity.ok().build();
-        } catch (Exception e) {
+            Delivery delivery = mailQueue.enqueue(mail);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/email/" + delivery.getId()))
+                    .body(delivery);
+        } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            log.error("[POST] Failed to queue email: " + e.getMessage());
+            return ResponseEntity.status(503).build();
         }
     }
 
     /**
-     * Sends a mail with file attachments to an email.
+     * Gets the delivery state of a queued mail.
+     * @param id The id of the queued mail.
+     * @return The response carrying the delivery state, or a not found status if the mail is unknown.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<Delivery> getDelivery(@PathVariable Long id) {
+        log.info("[GET] Getting the delivery state of email " + id + ".");
+        Delivery delivery = mailQueue.getDelivery(id);
+        if (delivery == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(delivery);
+    }
+
+    /**
+     * Sends a mail with file attachments to an email. Mails with
+     * attachments are sent right away rather than queued.
      * @param mail The contents of the mail.
      * @param files The file attachments of the mail.
      */
@@ -50,4 +84,14 @@ public class EmailController {
             return ResponseEntity.badRequest().build();
         }
     }
+
+    /**
+     * Gets the statistics of the SMTP connection pool.
+     * @return The connections opened and closed, handshake times and messages sent per connection.
+     */
+    @GetMapping("/pool")
+    public ResponseEntity<Map<String, Object>> getPoolStats() {
+        log.info("[GET] Getting SMTP connection pool statistics.");
+        return ResponseEntity.ok(mailSender.getPool().getStats());
+    }
 }
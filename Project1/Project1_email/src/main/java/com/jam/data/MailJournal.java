@@ -0,0 +1,266 @@
+package com.jam.data;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of queued emails, written to memory-mapped
+ * segment files. Each record is laid out as its length, a CRC32 checksum,
+ * the record type, the message id and a payload. Segments are deleted oldest
+ * first, once every message enqueued in them has been delivered or
+ * dead-lettered, as a later segment may hold the only record that a
+ * message of an older one was delivered. Each
+ * segment starts with the highest message id journaled before it, and the
+ * next segment is created before the previous one is deleted, so the
+ * highest id survives even when every message has been delivered.
+ */
+@Slf4j
+public class MailJournal implements Closeable {
+    private static final long MAGIC = 0x4d61696c4a726e6cL;
+    private static final int SEGMENT_HEADER = 8 + 8;
+    private static final int HEADER = 4 + 4;
+    private static final int BODY_HEADER = 1 + 8;
+
+    /**
+     * The types of records in the journal.
+     */
+    public enum RecordType {
+        ENQUEUED, FAILED, DELIVERED, DEAD
+    }
+
+    /**
+     * Receives the records of the journal when it is replayed.
+     */
+    public interface Replayer {
+        void record(RecordType type, long id, byte[] payload);
+    }
+
+    private final Path dir;
+    private final int segmentSize;
+    private final Map<Long, Long> segmentOf = new HashMap<>();
+    private final TreeMap<Long, Integer> liveCounts = new TreeMap<>();
+    private long segment;
+    private long lastId;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    public MailJournal(Path dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * Replays every record in the existing segments in the order they were
+     * written, starts a new segment to append to and deletes the oldest
+     * segments with no undelivered messages left.
+     * @param replayer The receiver of the records.
+     * @throws IOException If a segment could not be read.
+     */
+    public synchronized void replay(Replayer replayer) throws IOException {
+        for (Map.Entry<Long, Path> entry : listSegments().entrySet()) {
+            segment = entry.getKey();
+            liveCounts.put(segment, 0);
+            try (FileChannel in = FileChannel.open(entry.getValue(), StandardOpenOption.READ)) {
+                MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                // Segments written before the header was added start with a record
+                if (data.remaining() >= SEGMENT_HEADER && data.getLong(0) == MAGIC) {
+                    lastId = Math.max(lastId, data.getLong(8));
+                    data.position(SEGMENT_HEADER);
+                }
+                while (data.remaining() >= HEADER) {
+                    int length = data.getInt();
+                    int checksum = data.getInt();
+                    if (length < BODY_HEADER || length > data.remaining()) {
+                        break;
+                    }
+                    byte[] body = new byte[length];
+                    data.get(body);
+                    if (checksum != checksum(body)) {
+                        log.warn("[JOURNAL] Stopped replaying " + entry.getValue() + " at a torn record.");
+                        break;
+                    }
+                    RecordType type = RecordType.values()[body[0]];
+                    long id = readLong(body);
+                    byte[] payload = new byte[length - BODY_HEADER];
+                    System.arraycopy(body, BODY_HEADER, payload, 0, payload.length);
+                    track(type, id);
+                    replayer.record(type, id, payload);
+                }
+            } catch (BufferUnderflowException e) {
+                log.warn("[JOURNAL] Stopped replaying " + entry.getValue() + " at a truncated record.");
+            }
+        }
+        roll(segment + 1);
+    }
+
+    /**
+     * Appends a record to the journal, moving on to a new
+     * segment when the current one is full.
+     * @param type The type of the record.
+     * @param id The id of the message the record is about.
+     * @param payload The contents of the record.
+     * @param force Whether to flush the record to disk before returning.
+     * @throws IOException If the record could not be written.
+     */
+    public synchronized void append(RecordType type, long id, byte[] payload, boolean force) throws IOException {
+        int length = BODY_HEADER + payload.length;
+        if (SEGMENT_HEADER + HEADER + length > segmentSize) {
+            throw new IllegalArgumentException("The message is larger than a journal segment.");
+        }
+        if (buffer == null) {
+            throw new IOException("The journal is closed.");
+        }
+        if (buffer.remaining() < HEADER + length) {
+            buffer.force();
+            roll(segment + 1);
+        }
+        byte[] body = new byte[length];
+        body[0] = (byte) type.ordinal();
+        writeLong(body, id);
+        System.arraycopy(payload, 0, body, BODY_HEADER, payload.length);
+        buffer.putInt(length);
+        buffer.putInt(checksum(body));
+        buffer.put(body);
+        if (force) {
+            buffer.force();
+        }
+        track(type, id);
+    }
+
+    /**
+     * Gets the highest message id that was ever journaled, including
+     * in the segments that have since been deleted.
+     * @return The highest message id, or 0 if none was journaled.
+     */
+    public synchronized long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Flushes the current segment and closes the journal.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Counts the undelivered messages of each segment, deleting the
+     * oldest segments once they are finished and no longer appended to.
+     * @param type The type of the record.
+     * @param id The id of the message the record is about.
+     */
+    private void track(RecordType type, long id) throws IOException {
+        lastId = Math.max(lastId, id);
+        if (type == RecordType.ENQUEUED) {
+            segmentOf.put(id, segment);
+            liveCounts.merge(segment, 1, Integer::sum);
+        } else if (type == RecordType.DELIVERED || type == RecordType.DEAD) {
+            Long enqueuedIn = segmentOf.remove(id);
+            if (enqueuedIn != null) {
+                int live = liveCounts.merge(enqueuedIn, -1, Integer::sum);
+                if (live == 0 && buffer != null) {
+                    compact();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts appending to a new segment, headed by the highest message id so far,
+     * and then deletes the oldest segments that have no undelivered messages.
+     * @param next The number of the new segment.
+     */
+    private void roll(long next) throws IOException {
+        FileChannel previous = channel;
+        segment = next;
+        liveCounts.putIfAbsent(segment, 0);
+        channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putLong(MAGIC);
+        buffer.putLong(lastId);
+        buffer.force();
+        if (previous != null) {
+            previous.close();
+        }
+        compact();
+    }
+
+    /**
+     * Deletes the finished segments at the head of the journal, stopping at the
+     * first one that still has undelivered messages. A finished segment after
+     * it may hold the only DELIVERED or DEAD records of those messages.
+     */
+    private void compact() throws IOException {
+        while (!liveCounts.isEmpty()) {
+            Map.Entry<Long, Integer> oldest = liveCounts.firstEntry();
+            if (oldest.getKey() == segment || oldest.getValue() > 0) {
+                return;
+            }
+            delete(oldest.getKey());
+        }
+    }
+
+    private void delete(long finished) throws IOException {
+        liveCounts.remove(finished);
+        Files.deleteIfExists(segmentPath(finished));
+    }
+
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "journal-*.log")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(8, name.length() - 4)), file);
+            }
+        }
+        return segments;
+    }
+
+    private Path segmentPath(long number) {
+        return dir.resolve(String.format("journal-%010d.log", number));
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    private static long readLong(byte[] body) {
+        long value = 0;
+        for (int i = 1; i < BODY_HEADER; i++) {
+            value = (value << 8) | (body[i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeLong(byte[] body, long value) {
+        for (int i = BODY_HEADER - 1; i >= 1; i--) {
+            body[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
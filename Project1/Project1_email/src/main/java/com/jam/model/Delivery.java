@@ -0,0 +1,25 @@
+package com.jam.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The delivery state of an email accepted by the queue.
+ */
+@Getter
+@Setter
+public class Delivery {
+    private long id;
+    private String recipient;
+    private volatile MailStatus status = MailStatus.QUEUED;
+    private volatile int attempts;
+    private volatile String lasterror;
+
+    public Delivery() {
+    }
+
+    public Delivery(long id, String recipient) {
+        this.id = id;
+        this.recipient = recipient;
+    }
+}
@@ -0,0 +1,8 @@
+package com.jam.model;
+
+/**
+ * The delivery status of a queued email.
+ */
+public enum MailStatus {
+    QUEUED, DELIVERED, DEAD
+}
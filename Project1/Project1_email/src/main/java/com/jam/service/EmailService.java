@@ -1,6 +1,8 @@
 package com.jam.service;
 
 import com.jam.model.Mail;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mail.javamail.JavaMailSender;
@@ -20,9 +22,12 @@ import java.io.UnsupportedEncodingException;
 public class EmailService {
     @Autowired
     private JavaMailSender mailSender;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     /**
-     * Sends an email to the specified email account.
+     * Sends an email to the specified email account. Each email is timed
+     * as email.smtp.send and each failure is counted in email.smtp.send.failures.
      * @param mail The mail object representing the contents of the email.
      * @return The mail object that was sent to the specified email address.
      */
@@ -44,7 +49,17 @@ public class EmailService {
                 helper.addAttachment("attachment", f);
             }
         }
-        mailSender.send(msg);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
+        try {
+            mailSender.send(msg);
+            outcome = "success";
+        } catch (RuntimeException e) {
+            meterRegistry.counter("email.smtp.send.failures", "exception", e.getClass().getSimpleName()).increment();
+            throw e;
+        } finally {
+            sample.stop(meterRegistry.timer("email.smtp.send", "outcome", outcome));
+        }
         log.info("[POST] Email has been sent out to " + mail.getRecipient() + ".");
         return msg;
     }
@@ -0,0 +1,294 @@
+package com.jam.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jam.config.MailThreadConfig;
+import com.jam.data.MailJournal;
+import com.jam.model.Delivery;
+import com.jam.model.Mail;
+import com.jam.model.MailStatus;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A durable queue of emails waiting to be sent. Emails are written
+ * to a journal before they are accepted and are then sent by a pool
+ * of workers, retrying with backoff until they are delivered or
+ * moved to the dead letter file. With virtual threads every attempt
+ * runs on a virtual thread of its own. Either way no more attempts
+ * are sent at once than the SMTP connection pool has connections, so
+ * that a burst of emails waits its turn rather than timing out on the
+ * pool and using up attempts while the SMTP server is healthy.
+ */
+@Slf4j
+@Service
+public class MailQueue implements DisposableBean {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final EmailService emailService;
+    private final ObjectMapper mapper;
+    private final MailJournal journal;
+    private final Path deadLetters;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService retries;
+    private final Semaphore sending;
+    private final int maxAttempts;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final Map<Long, Mail> pending = new ConcurrentHashMap<>();
+    private final Map<Long, Delivery> queued = new ConcurrentHashMap<>();
+    private final Map<Long, Delivery> finished;
+
+    public MailQueue(EmailService emailService, ObjectMapper mapper, MeterRegistry meterRegistry,
+                     @Value("${email-queue.dir:${java.io.tmpdir}/email-queue}") String dir,
+                     @Value("${email-queue.segment-size:16777216}") int segmentSize,
+                     @Value("${email-queue.workers:4}") int workerCount,
+                     @Value("${email-queue.max-attempts:10}") int maxAttempts,
+                     @Value("${email-queue.backoff:10s}") Duration backoff,
+                     @Value("${email-queue.max-backoff:1h}") Duration maxBackoff,
+                     @Value("${email-queue.status-retention:10000}") int statusRetention,
+                     @Value("${mail.pool.max-total:4}") int maxConnections,
+                     @Value("${threads.virtual:false}") boolean virtualThreads) throws IOException {
+        this.emailService = emailService;
+        this.mapper = mapper;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.sending = new Semaphore(maxConnections, true);
+        this.deadLetters = Paths.get(dir, "dead-letters.ndjson");
+        this.finished = Collections.synchronizedMap(new LinkedHashMap<Long, Delivery>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Delivery> eldest) {
+                return size() > statusRetention;
+            }
+        });
+        AtomicInteger threads = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "email-queue-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        ExecutorService virtualWorkers = virtualThreads ? MailThreadConfig.virtualExecutor("email-queue-") : null;
+        if (virtualWorkers != null) {
+            // The scheduler only hands retries that are due over to a new virtual thread
+            this.workers = virtualWorkers;
+            this.retries = Executors.newSingleThreadScheduledExecutor(factory);
+        } else {
+            ScheduledExecutorService pool = Executors.newScheduledThreadPool(workerCount, factory);
+            this.workers = pool;
+            this.retries = pool;
+        }
+        this.journal = new MailJournal(Paths.get(dir), segmentSize);
+        journal.replay(this::recover);
+        nextId.set(journal.getLastId() + 1);
+        if (!pending.isEmpty()) {
+            log.info("[QUEUE] Recovered " + pending.size() + " undelivered emails from the journal.");
+        }
+        for (Long id : pending.keySet()) {
+            workers.execute(() -> attempt(id));
+        }
+        Gauge.builder("email.queue.size", this, MailQueue::size)
+                .description("Emails waiting to be sent")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Writes an email to the journal and queues it to be sent.
+     * @param mail The contents of the email.
+     * @return The delivery state of the queued email.
+     * @throws IOException If the email could not be written to the journal.
+     */
+    public Delivery enqueue(Mail mail) throws IOException {
+        if (mail.getRecipient() == null) {
+            throw new IllegalArgumentException("The email has no recipient.");
+        }
+        long id = nextId.getAndIncrement();
+        journal.append(MailJournal.RecordType.ENQUEUED, id, toPayload(mail), true);
+        Delivery delivery = new Delivery(id, mail.getRecipient());
+        pending.put(id, mail);
+        queued.put(id, delivery);
+        workers.execute(() -> attempt(id));
+        log.info("[POST] Email " + id + " to " + mail.getRecipient() + " has been queued.");
+        return delivery;
+    }
+
+    /**
+     * Gets the delivery state of an email.
+     * @param id The id of the email.
+     * @return The delivery state, or null if the email is unknown or its status is no longer kept.
+     */
+    public Delivery getDelivery(long id) {
+        Delivery delivery = queued.get(id);
+        return delivery != null ? delivery : finished.get(id);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        retries.shutdownNow();
+        workers.shutdownNow();
+        journal.close();
+    }
+
+    /**
+     * Tries to send a queued email once, waiting for one of the SMTP
+     * connections first, and schedules a retry or moves it to the dead
+     * letter file if it fails.
+     * @param id The id of the email.
+     */
+    private void attempt(long id) {
+        Mail mail = pending.get(id);
+        Delivery delivery = queued.get(id);
+        if (mail == null || delivery == null) {
+            return;
+        }
+        try {
+            sending.acquire();
+        } catch (InterruptedException e) {
+            // Shutting down, the email is sent again from the journal after a restart
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            emailService.sendMail(mail);
+            delivery.setAttempts(delivery.getAttempts() + 1);
+            finish(id, delivery, MailStatus.DELIVERED, MailJournal.RecordType.DELIVERED);
+        } catch (Exception e) {
+            String error = String.valueOf(e.getMessage());
+            delivery.setAttempts(delivery.getAttempts() + 1);
+            delivery.setLasterror(error.length() > 255 ? error.substring(0, 255) : error);
+            try {
+                if (delivery.getAttempts() >= maxAttempts) {
+                    writeDeadLetter(id, mail, delivery);
+                    finish(id, delivery, MailStatus.DEAD, MailJournal.RecordType.DEAD);
+                    log.error("[QUEUE] Email " + id + " was dead-lettered after "
+                            + delivery.getAttempts() + " attempts: " + error);
+                    return;
+                }
+                journal.append(MailJournal.RecordType.FAILED, id,
+                        delivery.getLasterror().getBytes(StandardCharsets.UTF_8), false);
+            } catch (IOException io) {
+                log.error("[QUEUE] Failed to journal email " + id + ": " + io.getMessage());
+            }
+            long delay = backoffMillis(delivery.getAttempts());
+            log.warn("[QUEUE] Failed to send email " + id + ", retrying in " + delay + "ms: " + error);
+            retries.schedule(() -> workers.execute(() -> attempt(id)), delay, TimeUnit.MILLISECONDS);
+        } finally {
+            sending.release();
+        }
+    }
+
+    /**
+     * Records the final status of an email.
+     * @param id The id of the email.
+     * @param delivery The delivery state of the email.
+     * @param status The final status.
+     * @param type The journal record of the final status.
+     */
+    private void finish(long id, Delivery delivery, MailStatus status, MailJournal.RecordType type) {
+        delivery.setStatus(status);
+        finished.put(id, delivery);
+        queued.remove(id);
+        pending.remove(id);
+        try {
+            journal.append(type, id, EMPTY, false);
+        } catch (IOException e) {
+            log.error("[QUEUE] Failed to journal email " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the queue from a journal record.
+     * @param type The type of the record.
+     * @param id The id of the email.
+     * @param payload The contents of the record.
+     */
+    private void recover(MailJournal.RecordType type, long id, byte[] payload) {
+        switch (type) {
+            case ENQUEUED:
+                try {
+                    Mail mail = mapper.readValue(payload, Mail.class);
+                    pending.put(id, mail);
+                    queued.put(id, new Delivery(id, mail.getRecipient()));
+                } catch (IOException e) {
+                    log.error("[QUEUE] Skipped unreadable email " + id + " in the journal.");
+                }
+                break;
+            case FAILED:
+                Delivery delivery = queued.get(id);
+                if (delivery != null) {
+                    delivery.setAttempts(delivery.getAttempts() + 1);
+                    delivery.setLasterror(new String(payload, StandardCharsets.UTF_8));
+                }
+                break;
+            default:
+                pending.remove(id);
+                Delivery done = queued.remove(id);
+                if (done != null) {
+                    done.setStatus(type == MailJournal.RecordType.DEAD ? MailStatus.DEAD : MailStatus.DELIVERED);
+                    finished.put(id, done);
+                }
+        }
+    }
+
+    /**
+     * Appends an email that could not be delivered to the dead letter file.
+     * @param id The id of the email.
+     * @param mail The contents of the email.
+     * @param delivery The delivery state of the email.
+     */
+    private void writeDeadLetter(long id, Mail mail, Delivery delivery) throws IOException {
+        ObjectNode letter = mapper.createObjectNode();
+        letter.put("id", id);
+        letter.put("attempts", delivery.getAttempts());
+        letter.put("lasterror", delivery.getLasterror());
+        letter.set("mail", mapper.readTree(toPayload(mail)));
+        byte[] line = (mapper.writeValueAsString(letter) + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (deadLetters) {
+            Files.write(deadLetters, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private byte[] toPayload(Mail mail) throws IOException {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("recipient", mail.getRecipient());
+        node.put("subject", mail.getSubject());
+        node.put("message", mail.getMessage());
+        node.set("cc", mapper.valueToTree(mail.getCc()));
+        node.set("bcc", mapper.valueToTree(mail.getBcc()));
+        return mapper.writeValueAsBytes(node);
+    }
+
+    private long backoffMillis(int attempts) {
+        long delay = backoff.toMillis() << Math.min(attempts - 1, 30);
+        return Math.min(delay, maxBackoff.toMillis());
+    }
+}
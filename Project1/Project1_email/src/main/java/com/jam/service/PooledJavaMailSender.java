@@ -0,0 +1,98 @@
+package com.jam.service;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.time.Duration;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A mail sender that keeps its SMTP connections open between sends,
+ * borrowing them from a {@link SmtpTransportPool} instead of connecting
+ * and authenticating again for every email.
+ */
+public class PooledJavaMailSender extends JavaMailSenderImpl implements DisposableBean {
+    private final SmtpTransportPool pool;
+
+    public PooledJavaMailSender(int maxTotal, int maxMessagesPerConnection,
+                                Duration maxIdle, Duration validateAfter, Duration borrowTimeout) {
+        this.pool = new SmtpTransportPool(this::connectTransport, maxTotal, maxMessagesPerConnection,
+                maxIdle, validateAfter, borrowTimeout);
+    }
+
+    public SmtpTransportPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sends the messages over a pooled connection. A connection that fails
+     * while sending is closed rather than given back to the pool.
+     * @param mimeMessages The messages to send.
+     * @param originalMessages The messages they were created from, used to report failures.
+     */
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        SmtpTransportPool.PooledTransport pooled;
+        try {
+            pooled = pool.borrow();
+        } catch (AuthenticationFailedException e) {
+            throw new MailAuthenticationException(e);
+        } catch (MessagingException e) {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                Object original = (originalMessages != null ? originalMessages[i] : mimeMessages[i]);
+                failedMessages.put(original, e);
+            }
+            throw new MailSendException("Mail server connection failed", e, failedMessages);
+        }
+
+        boolean broken = false;
+        for (int i = 0; i < mimeMessages.length; i++) {
+            MimeMessage mimeMessage = mimeMessages[i];
+            try {
+                if (mimeMessage.getSentDate() == null) {
+                    mimeMessage.setSentDate(new Date());
+                }
+                String messageId = mimeMessage.getMessageID();
+                mimeMessage.saveChanges();
+                if (messageId != null) {
+                    // Preserve an explicitly specified message id
+                    mimeMessage.setHeader("Message-ID", messageId);
+                }
+                Address[] addresses = mimeMessage.getAllRecipients();
+                pooled.getTransport().sendMessage(mimeMessage, (addresses != null ? addresses : new Address[0]));
+                pooled.sent();
+            } catch (MessagingException e) {
+                Object original = (originalMessages != null ? originalMessages[i] : mimeMessage);
+                failedMessages.put(original, e);
+                if (!pooled.getTransport().isConnected()) {
+                    broken = true;
+                    break;
+                }
+            }
+        }
+        if (broken) {
+            pool.invalidate(pooled);
+        } else {
+            pool.release(pooled);
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pool.close();
+    }
+}
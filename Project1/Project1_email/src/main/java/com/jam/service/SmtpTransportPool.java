@@ -0,0 +1,243 @@
+package com.jam.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of connected and authenticated SMTP transports, so that
+ * emails sent close together share connections instead of each
+ * paying for a new TCP, TLS and AUTH handshake.
+ */
+@Slf4j
+public class SmtpTransportPool {
+    /**
+     * Opens a new connected transport.
+     */
+    public interface Connector {
+        Transport connect() throws MessagingException;
+    }
+
+    /**
+     * A transport in the pool along with its usage.
+     */
+    public static class PooledTransport {
+        private final Transport transport;
+        private long lastUsed;
+        private long messages;
+
+        private PooledTransport(Transport transport) {
+            this.transport = transport;
+            this.lastUsed = System.nanoTime();
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * Records that a message has been sent over the transport.
+         */
+        public void sent() {
+            messages++;
+        }
+    }
+
+    private final Connector connector;
+    private final int maxMessagesPerConnection;
+    private final long maxIdleNanos;
+    private final long validateAfterNanos;
+    private final long borrowTimeoutNanos;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionsClosed = new AtomicLong();
+    private final AtomicLong handshakeNanos = new AtomicLong();
+    private final AtomicLong maxHandshakeNanos = new AtomicLong();
+    private final AtomicLong messagesOnClosedConnections = new AtomicLong();
+
+    public SmtpTransportPool(Connector connector, int maxTotal, int maxMessagesPerConnection,
+                             Duration maxIdle, Duration validateAfter, Duration borrowTimeout) {
+        this.connector = connector;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.maxIdleNanos = maxIdle.toNanos();
+        this.validateAfterNanos = validateAfter.toNanos();
+        this.borrowTimeoutNanos = borrowTimeout.toNanos();
+        this.permits = new Semaphore(maxTotal, true);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "smtp-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(maxIdle.toMillis() / 2, 1000);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connected transport from the pool, reusing an idle one when it
+     * is still healthy and connecting a new one otherwise.
+     * @return The borrowed transport, which must be given back with release or invalidate.
+     * @throws MessagingException If no transport could be connected in time.
+     */
+    public PooledTransport borrow() throws MessagingException {
+        if (closed) {
+            throw new MessagingException("The SMTP transport pool is closed.");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new MessagingException("Timed out waiting for an SMTP connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection.", e);
+        }
+        try {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                long idleFor = System.nanoTime() - pooled.lastUsed;
+                if (idleFor > maxIdleNanos) {
+                    close(pooled);
+                } else if (idleFor > validateAfterNanos && !pooled.transport.isConnected()) {
+                    // isConnected sends a NOOP to the server once the connection has been idle for a while
+                    close(pooled);
+                } else {
+                    return pooled;
+                }
+            }
+            return open();
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a healthy transport back to the pool.
+     * @param pooled The borrowed transport.
+     */
+    public void release(PooledTransport pooled) {
+        pooled.lastUsed = System.nanoTime();
+        if (closed || pooled.messages >= maxMessagesPerConnection) {
+            close(pooled);
+        } else {
+            idle.offerFirst(pooled);
+        }
+        permits.release();
+    }
+
+    /**
+     * Closes a transport that failed instead of giving it back to the pool.
+     * @param pooled The borrowed transport.
+     */
+    public void invalidate(PooledTransport pooled) {
+        close(pooled);
+        permits.release();
+    }
+
+    /**
+     * Closes every idle transport and stops handing out new ones.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            close(pooled);
+        }
+    }
+
+    /**
+     * Gets the statistics of the pool.
+     * @return The connection counts, handshake times and messages sent per connection.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long opened = connectionsOpened.get();
+        long closedCount = connectionsClosed.get();
+        stats.put("connectionsOpened", opened);
+        stats.put("connectionsClosed", closedCount);
+        stats.put("idle", idle.size());
+        stats.put("averageHandshakeMillis", opened == 0 ? 0 : handshakeNanos.get() / opened / 1_000_000.0);
+        stats.put("maxHandshakeMillis", maxHandshakeNanos.get() / 1_000_000.0);
+        stats.put("averageMessagesPerConnection",
+                closedCount == 0 ? 0 : (double) messagesOnClosedConnections.get() / closedCount);
+        return stats;
+    }
+
+    public int getIdle() {
+        return idle.size();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    public long getConnectionsClosed() {
+        return connectionsClosed.get();
+    }
+
+    public long getHandshakeNanos() {
+        return handshakeNanos.get();
+    }
+
+    public long getMessagesOnClosedConnections() {
+        return messagesOnClosedConnections.get();
+    }
+
+    /**
+     * Connects a new transport and records how long the handshake took.
+     * @return The new transport.
+     * @throws MessagingException If the transport could not connect.
+     */
+    private PooledTransport open() throws MessagingException {
+        long start = System.nanoTime();
+        Transport transport = connector.connect();
+        long elapsed = System.nanoTime() - start;
+        connectionsOpened.incrementAndGet();
+        handshakeNanos.addAndGet(elapsed);
+        maxHandshakeNanos.accumulateAndGet(elapsed, Math::max);
+        log.info("[SMTP] Opened a new connection in " + elapsed / 1_000_000 + "ms.");
+        return new PooledTransport(transport);
+    }
+
+    /**
+     * Closes idle transports that have not been used for too long.
+     */
+    private void evictIdle() {
+        Iterator<PooledTransport> it = idle.descendingIterator();
+        while (it.hasNext()) {
+            PooledTransport pooled = it.next();
+            if (System.nanoTime() - pooled.lastUsed > maxIdleNanos && idle.removeLastOccurrence(pooled)) {
+                close(pooled);
+            }
+        }
+    }
+
+    /**
+     * Closes a transport and records how many messages it sent.
+     * @param pooled The transport to close.
+     */
+    private void close(PooledTransport pooled) {
+        connectionsClosed.incrementAndGet();
+        messagesOnClosedConnections.addAndGet(pooled.messages);
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            log.info("[SMTP] Failed to close connection cleanly: " + e.getMessage());
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.jam;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jam.model.MailStatus;
 import com.jam.service.EmailService;
+import com.jam.service.MailQueue;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,9 +19,10 @@ import javax.mail.internet.MimeMessage;
 import java.util.HashMap;
 import java.util.Map;
 
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+@SpringBootTest(properties = "email-queue.dir=target/email-queue-test")
 @AutoConfigureMockMvc
 public class TestEmailController {
     @Autowired
@@ -30,14 +33,16 @@ public class TestEmailController {
     private ObjectMapper mapper;
     @Autowired
     private JavaMailSender mailSender;
+    @Autowired
+    private MailQueue mailQueue;
 
     /**
-     * Tests whether the controller sends the mail
-     * message towards the email service and returns
-     * an OK status.
+     * Tests whether the controller queues the mail
+     * message for the email service and returns
+     * an accepted status.
      */
     @Test
-    public void shouldReturnOkStatus() throws Exception {
+    public void shouldReturnAcceptedStatus() throws Exception {
         MimeMessage mockMail = mailSender.createMimeMessage();
         Mockito.when(emailService.sendMail(Mockito.any())).thenReturn(mockMail);
 
@@ -49,6 +54,35 @@ public class TestEmailController {
         mockMvc.perform(MockMvcRequestBuilders.post("/api/email")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(mapper.writeValueAsString(email)))
-                .andExpect(status().isOk());
+                .andExpect(status().isAccepted());
+    }
+
+    /**
+     * Tests whether the delivery state of a queued
+     * mail message can be looked up once it is sent.
+     */
+    @Test
+    public void shouldReturnDeliveryStatus() throws Exception {
+        MimeMessage mockMail = mailSender.createMimeMessage();
+        Mockito.when(emailService.sendMail(Mockito.any())).thenReturn(mockMail);
+
+        Map<String, String> email = new HashMap<>();
+        email.put("recipient", "noreceiver@no-receive-test.com");
+        email.put("subject", "Test Email");
+        email.put("message", "Test Message");
+
+        String response = mockMvc.perform(MockMvcRequestBuilders.post("/api/email")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(email)))
+                .andExpect(status().isAccepted())
+                .andReturn().getResponse().getContentAsString();
+        long id = mapper.readTree(response).get("id").asLong();
+
+        for (int i = 0; i < 50 && mailQueue.getDelivery(id).getStatus() != MailStatus.DELIVERED; i++) {
+            Thread.sleep(100);
+        }
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/email/" + id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("DELIVERED"));
     }
 }
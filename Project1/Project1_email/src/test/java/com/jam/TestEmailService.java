@@ -1,24 +1,53 @@
 package com.jam;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
 import com.jam.model.Mail;
 import com.jam.service.EmailService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
 
 import javax.mail.internet.MimeMessage;
 
 @SpringBootTest
 public class TestEmailService {
+    private static final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+
     @Autowired
     private EmailService emailService;
     @Autowired
     private ObjectMapper mapper;
     @Autowired
     private JavaMailSender mailSender;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Sends the emails of the tests to a local SMTP server instead of the configured one.
+     */
+    @DynamicPropertySource
+    static void mailProperties(DynamicPropertyRegistry registry) {
+        greenMail.start();
+        greenMail.setUser("sender@no-receive-test.com", "password");
+        registry.add("spring.mail.host", () -> "127.0.0.1");
+        registry.add("spring.mail.port", () -> greenMail.getSmtp().getPort());
+        registry.add("spring.mail.username", () -> "sender@no-receive-test.com");
+        registry.add("spring.mail.password", () -> "password");
+        registry.add("spring.mail.properties.mail.smtp.starttls.enable", () -> "false");
+    }
+
+    @AfterAll
+    public static void close() {
+        greenMail.stop();
+    }
 
     /**
      * Tests whether the email service creates
@@ -34,4 +63,20 @@ public class TestEmailService {
         Assertions.assertEquals(msg.getSubject(), mail.getSubject(),
                 "Did not return the correct email subject line.");
     }
+
+    /**
+     * Tests whether sending an email is timed.
+     */
+    @Test
+    public void shouldTimeSentEmails() throws Exception {
+        Mail mail = new Mail();
+        mail.setMessage("Test Message");
+        mail.setRecipient("test-recevier@nonexistantwebsite123.com");
+        mail.setSubject("Test Subject");
+        long sent = meterRegistry.timer("email.smtp.send", "outcome", "success").count();
+        emailService.sendMail(mail);
+        Assertions.assertEquals(sent + 1, meterRegistry.timer("email.smtp.send", "outcome", "success").count(),
+                "Did not time the sent email.");
+        Assertions.assertTrue(greenMail.waitForIncomingEmail(5000, 1), "Did not send the email.");
+    }
 }
@@ -0,0 +1,112 @@
+package com.jam;
+
+import com.jam.data.MailJournal;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class TestMailJournal {
+    @TempDir
+    Path dir;
+
+    /**
+     * Tests whether the records of the journal are
+     * replayed in order after it is reopened.
+     */
+    @Test
+    public void shouldReplayRecords() throws Exception {
+        MailJournal journal = new MailJournal(dir, 4096);
+        journal.replay((type, id, payload) -> { });
+        journal.append(MailJournal.RecordType.ENQUEUED, 1, "first".getBytes(StandardCharsets.UTF_8), true);
+        journal.append(MailJournal.RecordType.ENQUEUED, 2, "second".getBytes(StandardCharsets.UTF_8), true);
+        journal.append(MailJournal.RecordType.DELIVERED, 1, new byte[0], true);
+        journal.close();
+
+        List<String> records = new ArrayList<>();
+        MailJournal reopened = new MailJournal(dir, 4096);
+        reopened.replay((type, id, payload) ->
+                records.add(type + ":" + id + ":" + new String(payload, StandardCharsets.UTF_8)));
+        reopened.close();
+        Assertions.assertEquals(3, records.size(), "Did not replay every record.");
+        Assertions.assertEquals("ENQUEUED:2:second", records.get(1), "Did not replay the records in order.");
+    }
+
+    /**
+     * Tests whether a full segment is deleted once
+     * every message in it has been delivered.
+     */
+    @Test
+    public void shouldDeleteFinishedSegments() throws Exception {
+        MailJournal journal = new MailJournal(dir, 256);
+        journal.replay((type, id, payload) -> { });
+        byte[] payload = new byte[150];
+        journal.append(MailJournal.RecordType.ENQUEUED, 1, payload, false);
+        journal.append(MailJournal.RecordType.ENQUEUED, 2, payload, false);
+        Assertions.assertEquals(2, Files.list(dir).count(), "Did not roll over to a new segment.");
+        journal.append(MailJournal.RecordType.DELIVERED, 1, new byte[0], false);
+        journal.close();
+        Assertions.assertEquals(1, Files.list(dir).count(), "Did not delete the finished segment.");
+    }
+
+    /**
+     * Tests whether the highest message id is remembered after
+     * every segment that held it has been delivered and deleted.
+     */
+    @Test
+    public void shouldRememberLastIdAfterCompaction() throws Exception {
+        MailJournal journal = new MailJournal(dir, 4096);
+        journal.replay((type, id, payload) -> { });
+        journal.append(MailJournal.RecordType.ENQUEUED, 7, "first".getBytes(StandardCharsets.UTF_8), true);
+        journal.append(MailJournal.RecordType.DELIVERED, 7, new byte[0], true);
+        journal.close();
+
+        for (int i = 0; i < 2; i++) {
+            MailJournal reopened = new MailJournal(dir, 4096);
+            reopened.replay((type, id, payload) -> { });
+            reopened.close();
+            Assertions.assertEquals(7, reopened.getLastId(), "Forgot the highest message id.");
+            Assertions.assertEquals(1, Files.list(dir).count(), "Did not delete the finished segments.");
+        }
+    }
+
+    /**
+     * Tests whether a finished segment holding the only record that a message of
+     * an older, unfinished segment was delivered is kept, so that the delivered
+     * message is not sent again after a restart.
+     */
+    @Test
+    public void shouldKeepDeliveriesOfOlderSegments() throws Exception {
+        MailJournal journal = new MailJournal(dir, 256);
+        journal.replay((type, id, payload) -> { });
+        byte[] payload = new byte[100];
+        journal.append(MailJournal.RecordType.ENQUEUED, 1, payload, false);
+        journal.append(MailJournal.RecordType.ENQUEUED, 2, payload, false);
+        journal.append(MailJournal.RecordType.ENQUEUED, 3, payload, false);
+        journal.append(MailJournal.RecordType.DELIVERED, 2, new byte[0], false);
+        journal.append(MailJournal.RecordType.DELIVERED, 3, new byte[0], false);
+        journal.append(MailJournal.RecordType.ENQUEUED, 4, payload, false);
+        journal.close();
+        Assertions.assertEquals(3, Files.list(dir).count(), "Deleted a segment after an unfinished one.");
+
+        Map<Long, MailJournal.RecordType> states = new TreeMap<>();
+        MailJournal reopened = new MailJournal(dir, 256);
+        reopened.replay((type, id, data) -> states.put(id, type));
+        reopened.close();
+        List<Long> undelivered = new ArrayList<>();
+        states.forEach((id, type) -> {
+            if (type == MailJournal.RecordType.ENQUEUED) {
+                undelivered.add(id);
+            }
+        });
+        Assertions.assertEquals(Arrays.asList(1L, 4L), undelivered, "Brought back a delivered message.");
+    }
+}
@@ -0,0 +1,66 @@
+package com.jam;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jam.model.Mail;
+import com.jam.model.MailStatus;
+import com.jam.service.EmailService;
+import com.jam.service.MailQueue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestMailQueue {
+    @TempDir
+    Path dir;
+
+    /**
+     * Tests whether a burst of emails is sent no more than the SMTP pool
+     * has connections at a time, on virtual threads where the runtime has
+     * them, and every email is delivered at the first attempt.
+     */
+    @Test
+    public void shouldSendNoMoreAtOnceThanPoolHasConnections() throws Exception {
+        AtomicInteger sending = new AtomicInteger();
+        AtomicInteger mostSending = new AtomicInteger();
+        EmailService emailService = Mockito.mock(EmailService.class);
+        Mockito.when(emailService.sendMail(Mockito.any())).thenAnswer(invocation -> {
+            mostSending.accumulateAndGet(sending.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            sending.decrementAndGet();
+            return null;
+        });
+        MailQueue queue = new MailQueue(emailService, new ObjectMapper(), new SimpleMeterRegistry(),
+                dir.toString(), 1 << 20, 16, 10, Duration.ofSeconds(10), Duration.ofHours(1), 1000, 2, true);
+        try {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                Mail mail = new Mail();
+                mail.setRecipient("burst" + i + "@test.com");
+                mail.setSubject("Subject");
+                mail.setMessage("Message");
+                ids.add(queue.enqueue(mail).getId());
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (queue.size() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(0, queue.size(), "Did not send every email.");
+            Assertions.assertTrue(mostSending.get() <= 2, "Sent more emails at once than the pool has connections.");
+            for (Long id : ids) {
+                Assertions.assertEquals(MailStatus.DELIVERED, queue.getDelivery(id).getStatus(),
+                        "Did not deliver the email.");
+                Assertions.assertEquals(1, queue.getDelivery(id).getAttempts(), "Used up more than one attempt.");
+            }
+        } finally {
+            queue.destroy();
+        }
+    }
+}
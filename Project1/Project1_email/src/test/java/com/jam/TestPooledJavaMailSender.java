@@ -0,0 +1,80 @@
+package com.jam;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.jam.service.PooledJavaMailSender;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.time.Duration;
+
+public class TestPooledJavaMailSender {
+    private GreenMail greenMail;
+    private PooledJavaMailSender mailSender;
+
+    @BeforeEach
+    public void init() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        mailSender = new PooledJavaMailSender(2, 100, Duration.ofSeconds(60),
+                Duration.ZERO, Duration.ofSeconds(5));
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(greenMail.getSmtp().getPort());
+    }
+
+    @AfterEach
+    public void close() {
+        mailSender.destroy();
+        greenMail.stop();
+    }
+
+    /**
+     * Tests whether emails sent one after another
+     * share a single SMTP connection.
+     */
+    @Test
+    public void shouldReuseConnection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mailSender.send(createMessage("receiver" + i + "@no-receive-test.com"));
+        }
+        Assertions.assertEquals(3, greenMail.getReceivedMessages().length,
+                "Did not deliver every email.");
+        Assertions.assertEquals(1, mailSender.getPool().getConnectionsOpened(),
+                "Did not reuse the SMTP connection.");
+    }
+
+    /**
+     * Tests whether a connection that was closed by the
+     * server is replaced instead of failing the send.
+     */
+    @Test
+    public void shouldReplaceClosedConnection() throws Exception {
+        mailSender.send(createMessage("receiver@no-receive-test.com"));
+        int port = greenMail.getSmtp().getPort();
+        greenMail.stop();
+        greenMail = new GreenMail(new ServerSetup(port, "127.0.0.1", ServerSetup.PROTOCOL_SMTP));
+        greenMail.start();
+
+        mailSender.send(createMessage("receiver@no-receive-test.com"));
+        Assertions.assertEquals(1, greenMail.getReceivedMessages().length,
+                "Did not send the email over a new connection.");
+        Assertions.assertEquals(2, mailSender.getPool().getConnectionsOpened(),
+                "Did not replace the closed SMTP connection.");
+    }
+
+    private MimeMessage createMessage(String recipient) throws MessagingException {
+        MimeMessage msg = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(msg);
+        helper.setFrom("noreply@email-api.com");
+        helper.setTo(recipient);
+        helper.setSubject("Test Subject");
+        helper.setText("Test Message");
+        return msg;
+    }
+}
@@ -0,0 +1,61 @@
+package com.jam.config;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread, so
+ * that the number of statements each API request runs can be recorded.
+ * Hibernate creates it from the hibernate.session_factory.statement_inspector
+ * property, so the count is kept in a static thread local. The statements
+ * themselves can be recorded too, so that their query plans can be checked.
+ */
+public class StatementCounter implements StatementInspector {
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+    private static final ThreadLocal<List<String>> RECORDED = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        List<String> recorded = RECORDED.get();
+        if (recorded != null) {
+            recorded.add(sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Starts recording the statements prepared on the current thread.
+     */
+    public static void record() {
+        RECORDED.set(new ArrayList<>());
+    }
+
+    /**
+     * Stops recording the statements of the current thread.
+     * @return The statements prepared since recording started, in order.
+     */
+    public static List<String> recorded() {
+        List<String> recorded = RECORDED.get();
+        RECORDED.remove();
+        return recorded == null ? Collections.emptyList() : recorded;
+    }
+
+    /**
+     * Starts counting the statements of the current thread from zero.
+     */
+    public static void reset() {
+        COUNT.get()[0] = 0;
+    }
+
+    /**
+     * Gets the number of statements prepared on the current thread since the last reset.
+     * @return The number of statements.
+     */
+    public static int count() {
+        return COUNT.get()[0];
+    }
+}
@@ -0,0 +1,71 @@
+package com.jam.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.task.TaskSchedulerCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs API requests and scheduled work, such as sending out the email
+ * outbox, on virtual threads when threads.virtual is set. Blocking on the
+ * database or the network then parks a cheap virtual thread instead of
+ * holding one of Tomcat's worker threads. Without a Java runtime that has
+ * virtual threads the API keeps its usual thread pools.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "threads.virtual", havingValue = "true")
+public class VirtualThreadConfig implements DisposableBean {
+    private final ExecutorService requestExecutor = VirtualThreads.executor("http-virtual-");
+
+    public VirtualThreadConfig() {
+        if (requestExecutor == null) {
+            log.warn("[THREADS] Virtual threads need Java 21 or later, running on platform threads on Java "
+                    + System.getProperty("java.version") + ".");
+        } else {
+            log.info("[THREADS] Running requests and scheduled work on virtual threads.");
+        }
+    }
+
+    /**
+     * Hands every request Tomcat accepts to a new virtual thread
+     * instead of a thread of its worker pool.
+     * @return The customizer of the Tomcat protocol handler.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadRequests() {
+        return protocolHandler -> {
+            if (requestExecutor != null) {
+                protocolHandler.setExecutor(requestExecutor);
+            }
+        };
+    }
+
+    /**
+     * Runs scheduled tasks on virtual threads.
+     * @return The customizer of the task scheduler.
+     */
+    @Bean
+    public TaskSchedulerCustomizer virtualThreadScheduling() {
+        return scheduler -> {
+            ThreadFactory factory = VirtualThreads.factory("scheduling-virtual-");
+            if (factory != null) {
+                scheduler.setThreadFactory(factory);
+            }
+        };
+    }
+
+    @Override
+    public void destroy() {
+        if (requestExecutor != null) {
+            requestExecutor.shutdown();
+        }
+    }
+}
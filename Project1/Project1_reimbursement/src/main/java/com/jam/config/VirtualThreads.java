@@ -0,0 +1,58 @@
+package com.jam.config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads when the Java runtime has them (Java 21 and
+ * later). The API is still compiled for Java 8, so they are looked up
+ * reflectively and the methods return null on older runtimes.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * Checks whether the Java runtime has virtual threads.
+     * @return True if virtual threads can be created.
+     */
+    public static boolean isSupported() {
+        return factory("probe-") != null;
+    }
+
+    /**
+     * Creates a factory of virtual threads named with the given prefix and a counter.
+     * @param prefix The prefix of the thread names.
+     * @return The thread factory, or null if the runtime has no virtual threads.
+     */
+    public static ThreadFactory factory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates an executor that runs every task on a new virtual thread.
+     * @param prefix The prefix of the thread names.
+     * @return The executor, or null if the runtime has no virtual threads.
+     */
+    public static ExecutorService executor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        if (factory == null) {
+            return null;
+        }
+        try {
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.jam.controller;
+
+import com.jam.model.User;
+import com.jam.service.AuthService;
+import com.jam.service.CredentialCache;
+import com.jam.service.TokenService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * API endpoint handler for authentication
+ * related requests.
+ */
+@RestController
+@Slf4j
+@RequestMapping("/api/auth")
+public class AuthController {
+    @Autowired
+    private AuthService authService;
+    @Autowired
+    private CredentialCache credentialCache;
+    @Autowired
+    private TokenService tokenService;
+
+    /**
+     * Gets the statistics of the credential cache.
+     * @param m_id The user manager issuing the API request.
+     * @param apikey The API key of the manager.
+     * @return The HTTP response containing the hit and miss counts and the size of the cache.
+     */
+    @GetMapping(value = "/cache/{id}")
+    public ResponseEntity<Map<String, Object>> getCacheStats(@PathVariable("id") Long m_id,
+                                                             @RequestHeader("Authorization") String apikey) {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", credentialCache.getHits());
+        stats.put("misses", credentialCache.getMisses());
+        stats.put("size", credentialCache.size());
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Issues a signed token for a user, which authenticates the user's
+     * following requests as "Bearer" followed by the token without any
+     * database lookup. A token can only be issued with the API key.
+     * @param userid The id of the user.
+     * @param apikey The API key of the user.
+     * @return The HTTP response containing the token and when it expires, in epoch seconds.
+     */
+    @PostMapping(value = "/token/{id}")
+    public ResponseEntity<TokenService.Token> issueToken(@PathVariable("id") Long userid,
+                                                         @RequestHeader("Authorization") String apikey) {
+        if (apikey.startsWith("Bearer ")) {
+            return ResponseEntity.status(401).build();
+        }
+        ResponseEntity<User> response = authService.authenticateUser(userid, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
+        }
+        log.info("[POST] User " + userid + " has been issued a token.");
+        return ResponseEntity.ok(tokenService.issue(response.getBody()));
+    }
+
+    /**
+     * Revokes the signed token the request is authenticated with.
+     * @param authorization Bearer followed by the token to revoke.
+     * @return The HTTP response, 204 if the token was revoked or 401 if it was not valid.
+     */
+    @DeleteMapping(value = "/token")
+    public ResponseEntity<Void> revokeToken(@RequestHeader("Authorization") String authorization) {
+        if (!authorization.startsWith("Bearer ") || !tokenService.revoke(authorization.substring(7))) {
+            return ResponseEntity.status(401).build();
+        }
+        return ResponseEntity.noContent().build();
+    }
+}
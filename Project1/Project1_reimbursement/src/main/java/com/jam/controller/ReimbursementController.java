@@ -1,22 +1,45 @@
 package com.jam.controller;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jam.model.BatchRequest;
+import com.jam.model.BatchResult;
+import com.jam.model.ExpenseSummary;
+import com.jam.model.ExportFormat;
+import com.jam.model.ImportResult;
+import com.jam.model.PendingReimbursement;
 import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementFilter;
+import com.jam.model.ReimbursementPage;
+import com.jam.model.ReimbursementView;
 import com.jam.model.User;
-import com.jam.model.UserType;
 import com.jam.service.AuthService;
-import com.jam.service.EmailService;
+import com.jam.service.ChangeVersions;
+import com.jam.service.ExpenseSummaryService;
+import com.jam.service.ExportService;
+import com.jam.service.ImportService;
+import com.jam.service.PendingIndex;
 import com.jam.service.ReimbursementService;
-import com.jam.service.UserService;
+import com.jam.service.ReportService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.persistence.EntityNotFoundException;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.net.URI;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The API endpoint handling the reimbursement service.
@@ -28,27 +51,48 @@ public class ReimbursementController {
     @Autowired
     private AuthService authService;
     @Autowired
-    private EmailService emailService;
+    private ChangeVersions changeVersions;
+    @Autowired
+    private ExpenseSummaryService expenseSummaryService;
+    @Autowired
+    private ExportService exportService;
+    @Autowired
+    private ImportService importService;
+    @Autowired
+    private PendingIndex pendingIndex;
     @Autowired
     private ReimbursementService reimbursementService;
     @Autowired
-    private UserService userService;
+    private ReportService reportService;
 
     /**
-     * Gets all the reimbursement requests of the given user.
+     * Gets a page of the reimbursement requests of the given user, newest first.
+     * The response carries an ETag of the user's change version, and a request
+     * whose If-None-Match still matches it gets a 304 without any query being run.
      * @param userid The id of the user.
+     * @param page The number of the page, starting from 0.
+     * @param size The number of reimbursement requests per page.
      * @param apikey The API key of the user.
-     * @return The HTTP response containing the list of reimbursements of the user.
+     * @param request The request, checked for a matching If-None-Match header.
+     * @return The HTTP response containing the page of reimbursements of the user.
      */
     @GetMapping(value = "/{id}")
-    private ResponseEntity<List<Reimbursement>> getReimbursementRequests(
-            @PathVariable("id") Long userid, @RequestHeader("Authorization") String apikey) {
+    private ResponseEntity<List<ReimbursementView>> getReimbursementRequests(
+            @PathVariable("id") Long userid,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "50") int size,
+            @RequestHeader("Authorization") String apikey,
+            WebRequest request) {
         ResponseEntity<User> response = authService.authenticateUser(userid, apikey);
         if (!response.hasBody()) {
             return ResponseEntity.status(response.getStatusCode()).build();
         }
+        String etag = changeVersions.userTag(userid);
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
         User user = response.getBody();
-        return ResponseEntity.ok(reimbursementService.getUserReimbursements(user));
+        return ResponseEntity.ok().eTag(etag).body(reimbursementService.getUserReimbursements(user, page, size));
     }
 
     /**
@@ -68,21 +112,18 @@ public class ReimbursementController {
             return ResponseEntity.status(response.getStatusCode()).build();
         }
         User user = response.getBody();
-        if (user.isNotify()) {
-            emailService.sendEmail(user.getEmail(),
-                    "New Reimbursement Request Created",
-                    "Your new reimbursement request is under pending review.");
-        }
         return ResponseEntity.created(URI.create("/api/reimbursement/" + userid))
                 .body(reimbursementService.submitReimbursementRequest(user, reimbursement));
     }
 
     /**
-     * Updates the status of a reimbursement request.
+     * Updates the status of a reimbursement request. Only pending requests can be
+     * approved or denied, and when the body carries the version of the request the
+     * manager last saw, the update only applies if the request is still at that version.
      * @param r_id The unique id of the reimbursement request.
-     * @param newStatus The new status and the id of the manager updating the status.
+     * @param newStatus The new status, the id of the manager updating the status and optionally the version.
      * @param apikey The API key of the manager.
-     * @return The HTTP response with the status of the update.
+     * @return The HTTP response with the status of the update, 409 if the request changed in the meantime.
      */
     @PutMapping(value = "/{id}")
     private ResponseEntity<Void> changeReimbursementStatus(
@@ -91,76 +132,275 @@ public class ReimbursementController {
             @RequestHeader("Authorization") String apikey) {
         String status = newStatus.get("status").asText();
         Long userid = newStatus.get("managerid").asLong();
-        ResponseEntity<User> response = authService.authenticateUser(userid, apikey);
+        Long version = newStatus.hasNonNull("version") ? newStatus.get("version").asLong() : null;
+        ResponseEntity<User> response = authService.authenticateManager(userid, apikey);
         if (!response.hasBody()) {
             return ResponseEntity.status(response.getStatusCode()).build();
         }
         User manager = response.getBody();
-        // Check if user is manager
-        if (!manager.getUsertype().equals(UserType.MANAGER)) {
-            return ResponseEntity.status(401).build();
-        }
 
-        Reimbursement r;
-        if (status.equals("approve")) {
-            r = reimbursementService.approveReimbursement(r_id, manager);
-            if (r.getUser().isNotify()) {
-                emailService.sendEmail(r.getUser().getEmail(),
-                        "Reimbursement request approved",
-                        "Your reimbursement request has been approved.\n" +
-                                "Details:\nID:" + r.getId() + "\nDescription: " + r.getDescription() +
-                                "\nAmount: $" + r.getAmount());
-            }
-        } else if (status.equals("deny")) {
-            r = reimbursementService.denyReimbursement(r_id, manager);
-            if (r.getUser().isNotify()) {
-                emailService.sendEmail(r.getUser().getEmail(),
-                        "Reimbursement request denied",
-                        "Your reimbursement request has been denied.\n" +
-                                "Details:\nID: " + r.getId() + "\nDescription" + r.getDescription() +
-                                "\nAmount: $" + r.getAmount());
-            }
-        } else if (status.equals("reassign")) {
-            User old = reimbursementService.getReimbursement(r_id).getUser();
-            Long newuserid = newStatus.get("userid").asLong();
-            User newUser = userService.getUserById(newuserid);
-            r = reimbursementService.reassignReimbursement(r_id, manager, newUser);
-            if (old.isNotify()) {
-                emailService.sendEmail(old.getEmail(),
-                        "Reimbursement request reassigned",
-                        "Your reimbursement request has been reassigned to " + newUser.getName() +
-                                "\nDetails:\nID: " + r.getId() + "\nDescription: " + r.getDescription() +
-                                "\nAmount: $" + r.getAmount());
-            }
-            if (newUser.isNotify()) {
-                emailService.sendEmail(newUser.getEmail(),
-                        "New reimbursement request reassigned to you",
-                        "A new reimbursement request has been reassigned to you." +
-                                "\nDetails:\nID: " + r.getId() + "\nDescription: " + r.getDescription() +
-                                "\nAmount: $" + r.getAmount());
+        try {
+            if (status.equals("approve")) {
+                reimbursementService.approveReimbursement(r_id, manager, version);
+            } else if (status.equals("deny")) {
+                reimbursementService.denyReimbursement(r_id, manager, version);
+            } else if (status.equals("reassign")) {
+                Long newuserid = newStatus.get("userid").asLong();
+                reimbursementService.reassignReimbursement(r_id, manager, newuserid, version);
             }
+        } catch (EntityNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (OptimisticLockingFailureException e) {
+            log.info("[PUT] Conflicting update of reimbursement " + r_id + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
         }
         return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
     }
 
     /**
-     * Gets all the reimbursement requests in the repository.
+     * Applies an action to a batch of reimbursement requests at once.
+     * @param m_id The user manager issuing the API request.
+     * @param batch The action, the ids of the reimbursement requests and, when reassigning, the new user id.
+     * @param apikey The API key of the manager.
+     * @return The HTTP response containing the outcome of the action for each reimbursement request.
+     */
+    @PostMapping(value = "/batch/{id}")
+    private ResponseEntity<List<BatchResult>> applyBatch(
+            @PathVariable("id") Long m_id,
+            @RequestBody BatchRequest batch,
+            @RequestHeader("Authorization") String apikey) {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
+        }
+        User manager = response.getBody();
+        try {
+            return ResponseEntity.ok(reimbursementService.applyBatch(manager, batch));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    /**
+     * Gets a page of the reimbursement requests in the repository that match
+     * the filter, which searches by description keywords, owner, request date,
+     * amount and approval status. The cursor of the next page, if any, is sent in the
+     * X-Next-Cursor header. The response carries an ETag of the global change
+     * version, and a request whose If-None-Match still matches it gets a 304
+     * without any query being run.
      * @param m_id The user manager issuing the API request.
+     * @param filter The filters and order of the listing.
+     * @param after The cursor of the previous page, or none for the first page.
+     * @param size The number of reimbursement requests per page.
      * @param apikey The API key of the manager.
-     * @return The HTTP response containing the list of all reimbursements in the repository.
+     * @param request The request, checked for a matching If-None-Match header.
+     * @return The HTTP response containing the page of reimbursements in the repository.
      */
     @GetMapping(value = "/all/{id}")
     private ResponseEntity<List<Reimbursement>> getAllReimbursementRequests(
-            @PathVariable("id") Long m_id, @RequestHeader("Authorization") String apikey) {
-        ResponseEntity<User> response = authService.authenticateUser(m_id, apikey);
+            @PathVariable("id") Long m_id, ReimbursementFilter filter,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "size", defaultValue = "50") int size,
+            @RequestHeader("Authorization") String apikey,
+            WebRequest request) {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
         if (!response.hasBody()) {
             return ResponseEntity.status(response.getStatusCode()).build();
         }
-        // Check if user is manager
+        String etag = changeVersions.globalTag();
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
         User manager = response.getBody();
-        if (!manager.getUsertype().equals(UserType.MANAGER)) {
-            return ResponseEntity.status(401).build();
+        ReimbursementPage<Reimbursement> page;
+        try {
+            page = reimbursementService.getAllReimbursements(manager, filter, after, size);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().eTag(etag);
+        if (page.getNext() != null) {
+            ok.header("X-Next-Cursor", page.getNext());
+        }
+        return ok.body(page.getReimbursements());
+    }
+
+    /**
+     * Gets a page of the reimbursement requests waiting for review, oldest first,
+     * served from the in-memory pending index. The cursor of the next page, if
+     * any, is sent in the X-Next-Cursor header.
+     * @param m_id The user manager issuing the API request.
+     * @param owner The id of the owner to list, or none for every owner.
+     * @param after The cursor of the previous page, or none for the first page.
+     * @param size The number of reimbursement requests per page.
+     * @param apikey The API key of the manager.
+     * @return The HTTP response containing the page of pending reimbursements, 503 if the index is not loaded yet.
+     */
+    @GetMapping(value = "/pending/{id}")
+    private ResponseEntity<List<PendingReimbursement>> getPendingReimbursements(
+            @PathVariable("id") Long m_id,
+            @RequestParam(value = "owner", required = false) Long owner,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "size", defaultValue = "50") int size,
+            @RequestHeader("Authorization") String apikey) {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
+        }
+        User manager = response.getBody();
+        ReimbursementPage<PendingReimbursement> page;
+        try {
+            page = reimbursementService.getPendingReimbursements(manager, owner, after, size);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+        if (page.getNext() != null) {
+            ok.header("X-Next-Cursor", page.getNext());
+        }
+        return ok.body(page.getReimbursements());
+    }
+
+    /**
+     * Reloads the pending index from the database and reports how far it had
+     * drifted, for example after a restart or a change made outside the API.
+     * @param m_id The user manager issuing the API request.
+     * @param apikey The API key of the manager.
+     * @return The HTTP response containing the number of requests indexed, missing and stale.
+     */
+    @PostMapping(value = "/pending/rebuild/{id}")
+    private ResponseEntity<Map<String, Integer>> rebuildPendingIndex(
+            @PathVariable("id") Long m_id,
+            @RequestHeader("Authorization") String apikey) {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
+        }
+        log.info("[POST] Manager " + m_id + " is rebuilding the pending index.");
+        return ResponseEntity.ok(pendingIndex.rebuild());
+    }
+
+    /**
+     * Exports every reimbursement request in the repository, streaming
+     * them to the response as they are read from the database.
+     * @param m_id The user manager issuing the API request.
+     * @param format The format of the export, either ndjson or csv.
+     * @param apikey The API key of the manager.
+     * @return The HTTP response streaming the reimbursements in the repository.
+     */
+    @GetMapping(value = "/export/{id}")
+    private ResponseEntity<StreamingResponseBody> exportReimbursements(
+            @PathVariable("id") Long m_id,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestHeader("Authorization") String apikey) {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
+        }
+        ExportFormat exportFormat;
+        try {
+            exportFormat = ExportFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        log.info("[GET] Manager " + m_id + " is exporting all reimbursements as " + exportFormat + ".");
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"reimbursements." + exportFormat.getExtension() + "\"")
+                .body(out -> exportService.exportReimbursements(exportFormat, out));
+    }
+
+    /**
+     * Gets the expense report of a month as CSV, with the totals of each
+     * employee, each department and the whole company.
+     * @param m_id The user manager issuing the API request.
+     * @param month The month of the report, as yyyy-MM.
+     * @param apikey The API key of the manager.
+     * @return The HTTP response streaming the report.
+     */
+    @GetMapping(value = "/report/{id}")
+    private ResponseEntity<StreamingResponseBody> getMonthlyReport(
+            @PathVariable("id") Long m_id,
+            @RequestParam("month") String month,
+            @RequestHeader("Authorization") String apikey) {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
+        }
+        YearMonth reportMonth;
+        try {
+            reportMonth = YearMonth.parse(month);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        log.info("[GET] Manager " + m_id + " is getting the expense report of " + reportMonth + ".");
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("text/csv"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"report-" + reportMonth + ".csv\"")
+                .body(out -> reportService.writeMonthlyReport(reportMonth, out));
+    }
+
+    /**
+     * Imports reimbursement requests in bulk from the request body, in the
+     * format of the export, parsing the body as it is uploaded. The body
+     * must be sent with a Content-Type of text/csv or application/x-ndjson
+     * so that it is not read as a form. No notifications are sent.
+     * @param m_id The user manager issuing the API request.
+     * @param format The format of the import, either ndjson or csv.
+     * @param apikey The API key of the manager.
+     * @param request The request to read the reimbursement requests from.
+     * @return The HTTP response containing the number of rows imported and the errors of the rows that were not.
+     * @throws IOException If the request body could not be read.
+     */
+    @PostMapping(value = "/import/{id}")
+    private ResponseEntity<ImportResult> importReimbursements(
+            @PathVariable("id") Long m_id,
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestHeader("Authorization") String apikey,
+            HttpServletRequest request) throws IOException {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
+        }
+        ExportFormat importFormat;
+        try {
+            importFormat = ExportFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        log.info("[POST] Manager " + m_id + " is importing reimbursements as " + importFormat + ".");
+        try {
+            return ResponseEntity.ok(importService.importReimbursements(importFormat, request.getInputStream()));
+        } catch (IllegalArgumentException e) {
+            log.info("[POST] Rejected an import: " + e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Gets the pending and approved totals of an employee, or of the
+     * whole company when no employee is given.
+     * @param m_id The user manager issuing the API request.
+     * @param userid The id of the employee, or none for the whole company.
+     * @param apikey The API key of the manager.
+     * @return The HTTP response containing the pending and approved counts and amounts.
+     */
+    @GetMapping(value = "/summary/{id}")
+    private ResponseEntity<ExpenseSummary> getExpenseSummary(
+            @PathVariable("id") Long m_id,
+            @RequestParam(value = "userid", required = false) Long userid,
+            @RequestHeader("Authorization") String apikey) {
+        ResponseEntity<User> response = authService.authenticateManager(m_id, apikey);
+        if (!response.hasBody()) {
+            return ResponseEntity.status(response.getStatusCode()).build();
         }
-        return ResponseEntity.ok(reimbursementService.getAllReimbursements(manager));
+        log.info("[GET] Manager " + m_id + " took a look at the expense summary of "
+                + (userid != null ? "user " + userid : "the company") + ".");
+        return ResponseEntity.ok(expenseSummaryService.getSummary(userid != null ? userid : ExpenseSummary.COMPANY));
     }
 }
@@ -1,6 +1,8 @@
 package com.jam.controller;
 
 import com.jam.model.User;
+import com.jam.model.UserPage;
+import com.jam.model.UserSummary;
 import com.jam.service.UserService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,12 +26,31 @@ public class UserController {
     private UserService userService;
 
     /**
-     * Gets all the users in the User repository.
-     * @return The list of users in the user repository.
+     * Gets a page of the user directory, with only the public details of the
+     * users: by id, or for a prefix search by name and then by email. The
+     * cursor the next page starts after, if any, is sent in the X-Next-Cursor
+     * header. It is the id of the last user when listing every user.
+     * @param q The prefix the name or email of the users starts with, or none for every user.
+     * @param after The cursor the page starts after, or none for the first page.
+     * @param size The number of users per page.
+     * @return The HTTP response containing the page of users, or 400 if the cursor is malformed.
      */
     @GetMapping
-    public ResponseEntity<List<User>> getAllUsers() {
-        return ResponseEntity.ok(userService.getAllUsers());
+    public ResponseEntity<List<UserSummary>> getAllUsers(
+            @RequestParam(value = "q", required = false) String q,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "size", defaultValue = "50") int size) {
+        UserPage page;
+        try {
+            page = userService.getUsers(q, after, size);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+        if (page.getNext() != null) {
+            ok.header("X-Next-Cursor", page.getNext());
+        }
+        return ok.body(page.getUsers());
     }
 
     /**
@@ -0,0 +1,63 @@
+package com.jam.data;
+
+import com.jam.model.ExpenseSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * The Spring repository containing the running totals
+ * of the reimbursement requests.
+ */
+@Repository
+public interface ExpenseSummaryRepository extends JpaRepository<ExpenseSummary, Long> {
+    /**
+     * Adds to the totals of a summary in one statement, creating the summary if it does
+     * not exist yet, so that concurrent changes to the same summary never overwrite each
+     * other and concurrent first changes never both try to insert it.
+     * @param userid The user id of the summary.
+     * @param pendingcount The change in the number of pending requests.
+     * @param pendingsum The change in the amount of pending requests.
+     * @param approvedcount The change in the number of approved requests.
+     * @param approvedsum The change in the amount of approved requests.
+     * @return The number of rows affected as reported by the database.
+     */
+    @Modifying
+    @Query(value = "insert into expense_summaries (userid, pendingcount, pendingsum, approvedcount, approvedsum) " +
+            "values (:userid, :pendingcount, :pendingsum, :approvedcount, :approvedsum) " +
+            "on duplicate key update pendingcount = pendingcount + :pendingcount, " +
+            "pendingsum = pendingsum + :pendingsum, approvedcount = approvedcount + :approvedcount, " +
+            "approvedsum = approvedsum + :approvedsum", nativeQuery = true)
+    int adjust(@Param("userid") Long userid, @Param("pendingcount") long pendingcount,
+               @Param("pendingsum") BigDecimal pendingsum, @Param("approvedcount") long approvedcount,
+               @Param("approvedsum") BigDecimal approvedsum);
+
+    /**
+     * Counts and sums the pending reimbursement requests of each user.
+     * @return The user id, count and sum of each user's pending requests.
+     */
+    @Query("select r.user.id, count(r), sum(r.amount) from Reimbursement r " +
+            "where r.approved = false and r.resolvedate is null group by r.user.id")
+    List<Object[]> sumPendingByUser();
+
+    /**
+     * Counts and sums the approved reimbursement requests of each user.
+     * @return The user id, count and sum of each user's approved requests.
+     */
+    @Query("select r.user.id, count(r), sum(r.amount) from Reimbursement r " +
+            "where r.approved = true group by r.user.id")
+    List<Object[]> sumApprovedByUser();
+
+    /**
+     * Counts and sums the archived approved reimbursement requests of each user.
+     * @return The user id, count and sum of each user's archived approved requests.
+     */
+    @Query("select a.userid, count(a), sum(a.amount) from ArchivedReimbursement a " +
+            "where a.approved = true group by a.userid")
+    List<Object[]> sumArchivedApprovedByUser();
+}
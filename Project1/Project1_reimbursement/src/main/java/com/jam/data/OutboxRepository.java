@@ -0,0 +1,118 @@
+package com.jam.data;
+
+import com.jam.model.OutboxEmail;
+import com.jam.model.OutboxStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The Spring repository containing the email
+ * notifications waiting to be sent out.
+ */
+@Repository
+public interface OutboxRepository extends JpaRepository<OutboxEmail, Long> {
+    /**
+     * Finds the emails with the given status that are due to be sent, oldest first.
+     * @param status The status of the emails.
+     * @param now The current time.
+     * @param pageable The maximum number of emails to return.
+     * @return The list of due emails.
+     */
+    List<OutboxEmail> findByStatusAndNextattemptLessThanEqualOrderByIdAsc(
+            OutboxStatus status, LocalDateTime now, Pageable pageable);
+
+    /**
+     * Finds the emails with the given status waiting for a recipient, oldest first,
+     * including those still inside their coalescing window but leaving out those
+     * waiting out the backoff of a failed attempt.
+     * @param status The status of the emails.
+     * @param recipient The recipient of the emails.
+     * @param now The current time.
+     * @param pageable The maximum number of emails to return.
+     * @return The list of emails to send to the recipient as one digest.
+     */
+    @Query("select e from OutboxEmail e where e.status = :status and e.recipient = :recipient " +
+            "and (e.attempts = 0 or e.nextattempt <= :now) order by e.id asc")
+    List<OutboxEmail> findDigest(@Param("status") OutboxStatus status, @Param("recipient") String recipient,
+                                 @Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * Puts the emails whose claim has run out back in the outbox, so that
+     * emails claimed by a dispatcher run that died are sent by a later one.
+     * @param now The current time.
+     * @return The number of emails put back.
+     */
+    @Modifying
+    @Query("update OutboxEmail e set e.status = com.jam.model.OutboxStatus.PENDING, e.claim = null, " +
+            "e.leaseuntil = null where e.status = com.jam.model.OutboxStatus.SENDING and e.leaseuntil <= :now")
+    int releaseExpired(@Param("now") LocalDateTime now);
+
+    /**
+     * Claims the emails with the given ids for a dispatcher run in one statement,
+     * provided no other run has claimed them first.
+     * @param ids The ids of the emails.
+     * @param claim The token of the dispatcher run.
+     * @param leaseuntil When the claim runs out.
+     * @return The number of emails claimed.
+     */
+    @Modifying
+    @Query("update OutboxEmail e set e.status = com.jam.model.OutboxStatus.SENDING, e.claim = :claim, " +
+            "e.leaseuntil = :leaseuntil where e.id in :ids and e.status = com.jam.model.OutboxStatus.PENDING")
+    int claim(@Param("ids") Collection<Long> ids, @Param("claim") String claim,
+              @Param("leaseuntil") LocalDateTime leaseuntil);
+
+    /**
+     * Finds the emails claimed by a dispatcher run, oldest first.
+     * @param claim The token of the dispatcher run.
+     * @return The list of claimed emails.
+     */
+    List<OutboxEmail> findByClaimOrderByIdAsc(String claim);
+
+    /**
+     * Deletes the emails with the given ids that are still claimed by a dispatcher run.
+     * @param ids The ids of the emails.
+     * @param claim The token of the dispatcher run.
+     * @return The number of emails deleted.
+     */
+    @Modifying
+    @Query("delete from OutboxEmail e where e.id in :ids and e.claim = :claim")
+    int deleteClaimed(@Param("ids") Collection<Long> ids, @Param("claim") String claim);
+
+    /**
+     * Puts the emails with the given ids that are still claimed by a dispatcher
+     * run back in the outbox as they were, without using up an attempt.
+     * @param ids The ids of the emails.
+     * @param claim The token of the dispatcher run.
+     * @return The number of emails put back.
+     */
+    @Modifying
+    @Query("update OutboxEmail e set e.status = com.jam.model.OutboxStatus.PENDING, e.claim = null, " +
+            "e.leaseuntil = null where e.id in :ids and e.claim = :claim")
+    int release(@Param("ids") Collection<Long> ids, @Param("claim") String claim);
+
+    /**
+     * Records a failed attempt at sending an email that is still claimed by
+     * a dispatcher run, releasing the claim.
+     * @param id The id of the email.
+     * @param claim The token of the dispatcher run.
+     * @param status The status of the email, failed once it has run out of attempts.
+     * @param attempts The number of failed attempts so far.
+     * @param nextattempt When to try sending the email again.
+     * @param lasterror The error the email failed with.
+     * @return The number of emails updated, 0 if the claim has run out.
+     */
+    @Modifying
+    @Query("update OutboxEmail e set e.status = :status, e.attempts = :attempts, e.nextattempt = :nextattempt, " +
+            "e.lasterror = :lasterror, e.claim = null, e.leaseuntil = null where e.id = :id and e.claim = :claim")
+    int reschedule(@Param("id") Long id, @Param("claim") String claim, @Param("status") OutboxStatus status,
+                   @Param("attempts") int attempts, @Param("nextattempt") LocalDateTime nextattempt,
+                   @Param("lasterror") String lasterror);
+}
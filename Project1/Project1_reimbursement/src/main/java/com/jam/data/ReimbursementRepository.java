@@ -1,13 +1,157 @@
 package com.jam.data;
 
+import com.jam.model.PendingReimbursement;
 import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementSummary;
+import com.jam.model.ReimbursementView;
+import com.jam.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 /**
  * The Spring repository containing all
  * the reimbursement requests in the system.
  */
 @Repository
-public interface ReimbursementRepository extends JpaRepository<Reimbursement, Long> {
+public interface ReimbursementRepository extends JpaRepository<Reimbursement, Long>, ReimbursementRepositoryCustom {
+    /**
+     * Finds a page of the reimbursement requests of a user, newest first.
+     * @param userid The id of the user who owns the reimbursement requests.
+     * @param pageable The page to find.
+     * @return The page of reimbursement requests.
+     */
+    @Query("select new com.jam.model.ReimbursementView(r.id, r.requestdate, r.description, r.amount, r.approved, " +
+            "r.resolvedate, r.version) " +
+            "from Reimbursement r where r.user.id = :userid order by r.requestdate desc, r.id desc")
+    List<ReimbursementView> findViewsByUserId(@Param("userid") Long userid, Pageable pageable);
+
+    /**
+     * Finds every reimbursement request that is still waiting for review.
+     * @return The pending reimbursement requests.
+     */
+    @Query("select new com.jam.model.PendingReimbursement(r.id, r.user.id, r.requestdate, r.description, r.amount) " +
+            "from Reimbursement r where r.approved = false and r.resolvedate is null")
+    List<PendingReimbursement> findPending();
+
+    /**
+     * Finds the details of the reimbursement requests with the given ids.
+     * @param ids The ids of the reimbursement requests.
+     * @return The details of the reimbursement requests that exist.
+     */
+    @Query("select r.id as id, r.user.id as userid, r.requestdate as requestdate, r.description as description, " +
+            "r.amount as amount, r.approved as approved, r.resolvedate as resolvedate " +
+            "from Reimbursement r where r.id in :ids")
+    List<ReimbursementSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Finds a reimbursement request along with its owner.
+     * @param id The id of the reimbursement request.
+     * @return The reimbursement request, if it exists.
+     */
+    @Query("select r from Reimbursement r left join fetch r.user where r.id = :id")
+    Optional<Reimbursement> findWithUserById(@Param("id") Long id);
+
+    /**
+     * Approves or denies a reimbursement request in one statement,
+     * provided it is still at the version it was read at.
+     * @param id The id of the reimbursement request.
+     * @param approved Whether the reimbursement request is approved.
+     * @param resolvedate The date of the approval or denial.
+     * @param version The version of the request that was read.
+     * @return The number of reimbursement requests updated, 0 if it was not at the version.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Reimbursement r set r.approved = :approved, r.resolvedate = :resolvedate, " +
+            "r.version = r.version + 1 where r.id = :id and r.version = :version")
+    int resolve(@Param("id") Long id, @Param("approved") boolean approved,
+                @Param("resolvedate") LocalDate resolvedate, @Param("version") long version);
+
+    /**
+     * Reassigns a reimbursement request to a user in one statement,
+     * provided it is still at the given version.
+     * @param id The id of the reimbursement request.
+     * @param user The new owner of the reimbursement request.
+     * @param version The version of the request the manager saw.
+     * @return The number of reimbursement requests updated, 0 if it was not at the version.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Reimbursement r set r.user = :user, r.version = r.version + 1 " +
+            "where r.id = :id and r.version = :version")
+    int reassign(@Param("id") Long id, @Param("user") User user, @Param("version") long version);
+
+    /**
+     * Approves or denies every pending reimbursement request with the given ids in one statement.
+     * @param ids The ids of the reimbursement requests.
+     * @param approved Whether the reimbursement requests are approved.
+     * @param resolvedate The date of the approval or denial.
+     * @return The number of reimbursement requests updated.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Reimbursement r set r.approved = :approved, r.resolvedate = :resolvedate, " +
+            "r.version = r.version + 1 where r.id in :ids and r.approved = false and r.resolvedate is null")
+    int resolveByIdIn(@Param("ids") Collection<Long> ids, @Param("approved") boolean approved,
+                      @Param("resolvedate") LocalDate resolvedate);
+
+    /**
+     * Reassigns every reimbursement request with the given ids to a user in one statement.
+     * @param ids The ids of the reimbursement requests.
+     * @param user The new owner of the reimbursement requests.
+     * @return The number of reimbursement requests updated.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Reimbursement r set r.user = :user, r.version = r.version + 1 where r.id in :ids")
+    int updateUserByIdIn(@Param("ids") Collection<Long> ids, @Param("user") User user);
+
+    /**
+     * Counts the reimbursement requests of a user.
+     * @param userid The id of the user who owns the reimbursement requests.
+     * @return The number of reimbursement requests.
+     */
+    long countByUserId(Long userid);
+
+    /**
+     * Finds the oldest reimbursement requests that were approved or denied before a date.
+     * @param before The date the requests must have been resolved before.
+     * @param pageable The number of ids to find.
+     * @return The ids of the reimbursement requests, oldest resolved first.
+     */
+    @Query("select r.id from Reimbursement r where r.resolvedate < :before order by r.resolvedate, r.id")
+    List<Long> findSettledBefore(@Param("before") LocalDate before, Pageable pageable);
+
+    /**
+     * Copies the reimbursement requests with the given ids into the archive in one statement.
+     * @param ids The ids of the reimbursement requests.
+     * @return The number of reimbursement requests archived.
+     */
+    @Modifying
+    @Query(value = "insert into reimbursements_archive " +
+            "(id, requestdate, description, amount, approved, resolvedate, version, user_id) " +
+            "select id, requestdate, description, amount, approved, resolvedate, version, user_id " +
+            "from reimbursements where id in :ids", nativeQuery = true)
+    int archiveByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Deletes the reimbursement requests with the given ids in one statement.
+     * @param ids The ids of the reimbursement requests.
+     * @return The number of reimbursement requests deleted.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Reimbursement r where r.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Finds the request date of the newest archived reimbursement request.
+     * @return The request date, or null if the archive is empty.
+     */
+    @Query("select max(a.requestdate) from ArchivedReimbursement a")
+    LocalDate findNewestArchivedRequestdate();
 }
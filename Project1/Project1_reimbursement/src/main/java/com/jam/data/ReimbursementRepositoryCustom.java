@@ -0,0 +1,63 @@
+package com.jam.data;
+
+import com.jam.model.ArchivedReimbursement;
+import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementCursor;
+import com.jam.model.ReimbursementFilter;
+import com.jam.model.ReimbursementView;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Queries of the reimbursement repository that
+ * are built by hand instead of derived by Spring.
+ */
+public interface ReimbursementRepositoryCustom {
+    /**
+     * Finds a page of reimbursement requests matching the filter, in the
+     * order of the filter, starting right after the given cursor.
+     * @param filter The filters and order of the listing.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param limit The maximum number of reimbursement requests to return.
+     * @return The page of reimbursement requests.
+     */
+    List<Reimbursement> findPage(ReimbursementFilter filter, ReimbursementCursor after, int limit);
+
+    /**
+     * Streams every reimbursement request in the repository in id order,
+     * reading them from a database cursor instead of loading them all.
+     * The stream must be closed and consumed inside a transaction.
+     * @param fetchSize The number of rows fetched from the database at a time.
+     * @return The stream of reimbursement requests.
+     */
+    Stream<Reimbursement> streamAll(int fetchSize);
+
+    /**
+     * Finds a page of archived reimbursement requests matching the filter, in
+     * the order of the filter, starting right after the given cursor.
+     * @param filter The filters and order of the listing.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param limit The maximum number of reimbursement requests to return.
+     * @return The page of archived reimbursement requests.
+     */
+    List<ArchivedReimbursement> findArchivedPage(ReimbursementFilter filter, ReimbursementCursor after, int limit);
+
+    /**
+     * Finds archived reimbursement requests of a user, newest first.
+     * @param userid The id of the user who owns the reimbursement requests.
+     * @param offset The number of archived requests to skip.
+     * @param limit The maximum number of reimbursement requests to return.
+     * @return The archived reimbursement requests.
+     */
+    List<ReimbursementView> findArchivedViewsByUserId(Long userid, long offset, int limit);
+
+    /**
+     * Streams every archived reimbursement request in id order,
+     * reading them from a database cursor instead of loading them all.
+     * The stream must be closed and consumed inside a transaction.
+     * @param fetchSize The number of rows fetched from the database at a time.
+     * @return The stream of archived reimbursement requests.
+     */
+    Stream<ArchivedReimbursement> streamArchived(int fetchSize);
+}
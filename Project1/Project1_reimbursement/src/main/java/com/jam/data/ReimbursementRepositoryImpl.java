@@ -0,0 +1,146 @@
+package com.jam.data;
+
+import com.jam.model.ArchivedReimbursement;
+import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementCursor;
+import com.jam.model.ReimbursementFilter;
+import com.jam.model.ReimbursementSort;
+import com.jam.model.ReimbursementTerm;
+import com.jam.model.ReimbursementView;
+import org.hibernate.annotations.QueryHints;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of the hand built queries
+ * of the reimbursement repository.
+ */
+public class ReimbursementRepositoryImpl implements ReimbursementRepositoryCustom {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<Reimbursement> findPage(ReimbursementFilter filter, ReimbursementCursor after, int limit) {
+        return findPage(Reimbursement.class, r -> r.get("user").get("id"), filter, after, limit);
+    }
+
+    @Override
+    public List<ArchivedReimbursement> findArchivedPage(ReimbursementFilter filter, ReimbursementCursor after,
+                                                        int limit) {
+        return findPage(ArchivedReimbursement.class, a -> a.get("userid"), filter, after, limit);
+    }
+
+    @Override
+    public List<ReimbursementView> findArchivedViewsByUserId(Long userid, long offset, int limit) {
+        return entityManager.createQuery("select new com.jam.model.ReimbursementView(a.id, a.requestdate, " +
+                        "a.description, a.amount, a.approved, a.resolvedate, a.version) from ArchivedReimbursement a " +
+                        "where a.userid = :userid order by a.requestdate desc, a.id desc", ReimbursementView.class)
+                .setParameter("userid", userid)
+                .setFirstResult((int) Math.min(offset, Integer.MAX_VALUE))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<Reimbursement> streamAll(int fetchSize) {
+        return entityManager.createQuery("select r from Reimbursement r order by r.id", Reimbursement.class)
+                .setHint(QueryHints.FETCH_SIZE, fetchSize)
+                .setHint(QueryHints.READ_ONLY, true)
+                .getResultStream();
+    }
+
+    @Override
+    public Stream<ArchivedReimbursement> streamArchived(int fetchSize) {
+        return entityManager.createQuery("select a from ArchivedReimbursement a order by a.id",
+                        ArchivedReimbursement.class)
+                .setHint(QueryHints.FETCH_SIZE, fetchSize)
+                .setHint(QueryHints.READ_ONLY, true)
+                .getResultStream();
+    }
+
+    /**
+     * Finds a page of the reimbursement requests of a table matching the filter,
+     * in the order of the filter, starting right after the given cursor.
+     * @param type The entity of the table, live or archived.
+     * @param owner The path to the id of the owner of a request.
+     * @param filter The filters and order of the listing.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param limit The maximum number of reimbursement requests to return.
+     * @return The page of reimbursement requests.
+     */
+    private <T> List<T> findPage(Class<T> type, Function<Root<T>, Path<Long>> owner,
+                                 ReimbursementFilter filter, ReimbursementCursor after, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(type);
+        Root<T> r = query.from(type);
+
+        List<Predicate> where = filters(cb, query, r, owner.apply(r), filter);
+        Path<Long> id = r.get("id");
+        Path<LocalDate> requestdate = r.get("requestdate");
+        if (filter.getSort() == ReimbursementSort.REQUESTDATE) {
+            // Requests without a date cannot be placed in date order
+            where.add(cb.isNotNull(requestdate));
+            if (after != null) {
+                where.add(cb.or(cb.greaterThan(requestdate, after.getRequestdate()),
+                        cb.and(cb.equal(requestdate, after.getRequestdate()), cb.greaterThan(id, after.getId()))));
+            }
+            query.orderBy(cb.asc(requestdate), cb.asc(id));
+        } else {
+            if (after != null) {
+                where.add(cb.greaterThan(id, after.getId()));
+            }
+            query.orderBy(cb.asc(id));
+        }
+        query.select(r).where(where.toArray(new Predicate[0]));
+        return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * Builds the predicates of the filters that are set.
+     * Each keyword is looked up in the term index as a prefix, so
+     * the descriptions themselves are never scanned.
+     * @param cb The criteria builder of the query.
+     * @param query The query, which keyword subqueries are added to.
+     * @param r The reimbursement root of the query.
+     * @param owner The path to the id of the owner of a request.
+     * @param filter The filters of the listing.
+     * @return The list of predicates.
+     */
+    private List<Predicate> filters(CriteriaBuilder cb, AbstractQuery<?> query, Root<?> r, Path<Long> owner,
+                                    ReimbursementFilter filter) {
+        List<Predicate> where = new ArrayList<>();
+        if (filter.getApproved() != null) {
+            where.add(cb.equal(r.get("approved"), filter.getApproved()));
+        }
+        if (filter.getFrom() != null) {
+            where.add(cb.greaterThanOrEqualTo(r.get("requestdate"), filter.getFrom()));
+        }
+        if (filter.getTo() != null) {
+            where.add(cb.lessThanOrEqualTo(r.get("requestdate"), filter.getTo()));
+        }
+        if (filter.getMin() != null) {
+            where.add(cb.greaterThanOrEqualTo(r.get("amount"), filter.getMin()));
+        }
+        if (filter.getMax() != null) {
+            where.add(cb.lessThanOrEqualTo(r.get("amount"), filter.getMax()));
+        }
+        if (filter.getOwner() != null) {
+            where.add(cb.equal(owner, filter.getOwner()));
+        }
+        for (String keyword : ReimbursementTerm.tokenize(filter.getKeywords())) {
+            Subquery<Long> matches = query.subquery(Long.class);
+            Root<ReimbursementTerm> t = matches.from(ReimbursementTerm.class);
+            // Terms are only letters and digits, so the keyword has no wildcards to escape
+            matches.select(t.get("reimbursementId")).where(cb.like(t.get("term"), keyword + "%"));
+            where.add(r.get("id").in(matches));
+        }
+        return where;
+    }
+}
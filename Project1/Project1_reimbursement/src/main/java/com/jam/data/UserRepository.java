@@ -1,14 +1,62 @@
 package com.jam.data;
 
 import com.jam.model.User;
+import com.jam.model.UserSummary;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 /**
  * The Spring repository containing all the
  * users in the system.
  */
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
+    /**
+     * Finds a page of the user directory, by id.
+     * @param after The id the page starts after.
+     * @param pageable The size of the page.
+     * @return The public details of the users.
+     */
+    @Query("select u.id as id, u.name as name, u.email as email, u.usertype as usertype, " +
+            "u.department as department from User u where u.id > :after order by u.id")
+    List<UserSummary> findSummariesAfter(@Param("after") Long after, Pageable pageable);
+
+    /**
+     * Finds a page of the users whose name starts with a prefix, in name order.
+     * The page is read as a range of the (name, id) index.
+     * @param prefix The prefix followed by %, with !, % and _ escaped by !.
+     * @param name The name of the last user of the previous page, or an empty string for the first page.
+     * @param after The id of the last user of the previous page, or 0 for the first page.
+     * @param pageable The size of the page.
+     * @return The public details of the users.
+     */
+    @Query("select u.id as id, u.name as name, u.email as email, u.usertype as usertype, " +
+            "u.department as department from User u " +
+            "where u.name like :prefix escape '!' and (u.name > :name or (u.name = :name and u.id > :after)) " +
+            "order by u.name, u.id")
+    List<UserSummary> findSummariesByNamePrefixAfter(@Param("prefix") String prefix, @Param("name") String name,
+                                                     @Param("after") Long after, Pageable pageable);
 
+    /**
+     * Finds a page of the users whose email starts with a prefix but whose name
+     * does not, in email order, so that no user is listed by both prefix searches.
+     * The page is read as a range of the (email, id) index.
+     * @param prefix The prefix followed by %, with !, % and _ escaped by !.
+     * @param email The email of the last user of the previous page, or an empty string for the first page.
+     * @param after The id of the last user of the previous page, or 0 for the first page.
+     * @param pageable The size of the page.
+     * @return The public details of the users.
+     */
+    @Query("select u.id as id, u.name as name, u.email as email, u.usertype as usertype, " +
+            "u.department as department from User u " +
+            "where u.email like :prefix escape '!' and u.name not like :prefix escape '!' " +
+            "and (u.email > :email or (u.email = :email and u.id > :after)) " +
+            "order by u.email, u.id")
+    List<UserSummary> findSummariesByEmailPrefixAfter(@Param("prefix") String prefix, @Param("email") String email,
+                                                      @Param("after") Long after, Pageable pageable);
 }
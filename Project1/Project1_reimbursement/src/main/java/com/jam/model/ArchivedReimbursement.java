@@ -0,0 +1,73 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import javax.persistence.*;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Defines a settled reimbursement request that was moved out of the
+ * reimbursements table once it got old enough, keeping the id it had there.
+ * Archived requests are never changed again.
+ */
+@Entity
+@Table(name = "reimbursements_archive", indexes = {
+        @Index(name = "idx_archive_requestdate", columnList = "requestdate, id"),
+        @Index(name = "idx_archive_user", columnList = "user_id, requestdate"),
+        @Index(name = "idx_archive_resolvedate", columnList = "resolvedate, id")
+})
+@Getter
+public class ArchivedReimbursement {
+    @Id
+    @Column(name = "id", nullable = false)
+    private Long id;
+
+    private LocalDate requestdate;
+    private String description;
+    private BigDecimal amount;
+
+    @Column(columnDefinition = "TINYINT(1) DEFAULT 0")
+    private boolean approved;
+
+    private LocalDate resolvedate;
+
+    @Column(columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private long version;
+
+    @Column(name = "user_id")
+    private Long userid;
+
+    public ArchivedReimbursement() {
+    }
+
+    public ArchivedReimbursement(Reimbursement r) {
+        this.id = r.getId();
+        this.requestdate = r.getRequestdate();
+        this.description = r.getDescription();
+        this.amount = r.getAmount();
+        this.approved = r.isApproved();
+        this.resolvedate = r.getResolvedate();
+        this.version = r.getVersion();
+        this.userid = r.getUser() == null ? null : r.getUser().getId();
+    }
+
+    /**
+     * Gets the archived request as a reimbursement request, so that it
+     * can be listed and exported alongside the requests in the table.
+     * @return The reimbursement request, with an owner that only has its id.
+     */
+    public Reimbursement toReimbursement() {
+        User user = null;
+        if (userid != null) {
+            user = new User();
+            user.setId(userid);
+        }
+        Reimbursement r = new Reimbursement(requestdate, description, amount, user);
+        r.setId(id);
+        r.setApproved(approved);
+        r.setResolvedate(resolvedate);
+        r.setVersion(version);
+        return r;
+    }
+}
@@ -0,0 +1,17 @@
+package com.jam.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * Defines the actions a manager can apply to a batch of reimbursement requests.
+ */
+public enum BatchAction {
+    APPROVE,
+    DENY,
+    REASSIGN;
+
+    @JsonCreator
+    public static BatchAction fromString(String action) {
+        return BatchAction.valueOf(action.toUpperCase());
+    }
+}
@@ -0,0 +1,19 @@
+package com.jam.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defines a batch of reimbursement requests and the
+ * action a manager wants to apply to all of them.
+ */
+@Getter
+@Setter
+public class BatchRequest {
+    private BatchAction action;
+    private List<Long> ids = new ArrayList<>();
+    private Long userid;
+}
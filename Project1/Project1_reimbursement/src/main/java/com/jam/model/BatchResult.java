@@ -0,0 +1,21 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+/**
+ * Defines the outcome of a batch action for one reimbursement request.
+ */
+@Getter
+public class BatchResult {
+    public static final String UPDATED = "updated";
+    public static final String CONFLICT = "conflict";
+    public static final String NOT_FOUND = "not_found";
+
+    private final Long id;
+    private final String status;
+
+    public BatchResult(Long id, String status) {
+        this.id = id;
+        this.status = status;
+    }
+}
@@ -0,0 +1,47 @@
+package com.jam.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.math.BigDecimal;
+
+/**
+ * Defines the running totals of the reimbursement requests of
+ * an employee, or of the whole company for the user id 0. The
+ * totals are kept up to date as requests are submitted, resolved
+ * and reassigned, so that reading them never scans the requests.
+ */
+@Entity
+@Table(name = "expense_summaries")
+@Getter
+@Setter
+public class ExpenseSummary {
+    /**
+     * The user id of the summary of the whole company.
+     */
+    public static final long COMPANY = 0L;
+
+    @Id
+    @Column(name = "userid", nullable = false)
+    private Long userid;
+
+    @Column(nullable = false)
+    private long pendingcount;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal pendingsum = BigDecimal.ZERO;
+
+    @Column(nullable = false)
+    private long approvedcount;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal approvedsum = BigDecimal.ZERO;
+
+    public ExpenseSummary() {
+    }
+
+    public ExpenseSummary(Long userid) {
+        this.userid = userid;
+    }
+}
@@ -0,0 +1,60 @@
+package com.jam.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Defines the outcome of a bulk import: how many rows were imported, how
+ * many were not, and why, for the first rows that were not.
+ */
+@Getter
+public class ImportResult {
+    private long imported;
+    private long failed;
+    private final List<RowError> errors = new ArrayList<>();
+
+    @JsonIgnore
+    private final int maxErrors;
+
+    public ImportResult(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Counts rows that were imported.
+     * @param count The number of rows.
+     */
+    public void imported(int count) {
+        imported += count;
+    }
+
+    /**
+     * Counts a row that was not imported, keeping its error
+     * until the maximum number of errors is reached.
+     * @param line The line the row starts on.
+     * @param message Why the row was not imported.
+     */
+    public void failed(long line, String message) {
+        failed++;
+        if (errors.size() < maxErrors) {
+            errors.add(new RowError(line, message));
+        }
+    }
+
+    /**
+     * Defines why a row of an import was not imported.
+     */
+    @Getter
+    public static class RowError {
+        private final long line;
+        private final String message;
+
+        public RowError(long line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+    }
+}
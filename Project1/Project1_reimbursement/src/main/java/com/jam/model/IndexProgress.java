@@ -0,0 +1,29 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import javax.persistence.*;
+
+/**
+ * Defines how far the build of an index over the existing reimbursement
+ * requests has got. The build records the last request id it indexed
+ * after every batch, so a build that stops part way carries on from there
+ * and a finished build is never run again.
+ */
+@Entity
+@Table(name = "index_progress")
+@Getter
+public class IndexProgress {
+    @Id
+    @Column(name = "name", length = 64, nullable = false)
+    private String name;
+
+    @Column(nullable = false)
+    private long lastid;
+
+    @Column(nullable = false)
+    private boolean complete;
+
+    public IndexProgress() {
+    }
+}
@@ -0,0 +1,26 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import javax.persistence.*;
+
+/**
+ * Defines the version of the reimbursement requests of a user, or of all
+ * of them under {@link ExpenseSummary#COMPANY}, bumped in the transaction
+ * of every change to them. The entity tags of the list endpoints are built
+ * from it, so a change made through any instance of the API is seen by all of them.
+ */
+@Entity
+@Table(name = "list_versions")
+@Getter
+public class ListVersion {
+    @Id
+    @Column(name = "userid", nullable = false)
+    private Long userid;
+
+    @Column(nullable = false)
+    private long version;
+
+    public ListVersion() {
+    }
+}
@@ -0,0 +1,81 @@
+package com.jam.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * Defines an email notification waiting in the outbox
+ * to be sent out to the email API.
+ */
+@Entity
+@Table(name = "email_outbox", indexes = {
+        @Index(name = "idx_outbox_status_nextattempt", columnList = "status, nextattempt"),
+        @Index(name = "idx_outbox_recipient_status_nextattempt", columnList = "recipient, status, nextattempt"),
+        @Index(name = "idx_outbox_claim", columnList = "claim")
+})
+@Getter
+@Setter
+public class OutboxEmail {
+    @Id
+    @Column(name = "id", nullable = false)
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String recipient;
+
+    @Column(nullable = false)
+    private String subject;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String body;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private OutboxStatus status = OutboxStatus.PENDING;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(nullable = false)
+    private LocalDateTime createdate;
+
+    @Column(nullable = false)
+    private LocalDateTime nextattempt;
+
+    private String lasterror;
+
+    /**
+     * The token of the dispatcher run sending the email, null unless it is {@link OutboxStatus#SENDING}.
+     */
+    @Column(length = 36)
+    private String claim;
+
+    /**
+     * When the claim of the dispatcher run sending the email runs out and another run may send it.
+     */
+    private LocalDateTime leaseuntil;
+
+    public OutboxEmail() {
+    }
+
+    /**
+     * Creates an email that is held back for a while so that other
+     * emails to the same recipient can be sent along with it.
+     * @param recipient The recipient of the email.
+     * @param subject The subject of the email.
+     * @param body The body contents of the email.
+     * @param delay How long to hold the email back.
+     */
+    public OutboxEmail(String recipient, String subject, String body, Duration delay) {
+        this.recipient = recipient;
+        this.subject = subject;
+        this.body = body;
+        this.createdate = LocalDateTime.now();
+        this.nextattempt = this.createdate.plus(delay);
+    }
+}
@@ -0,0 +1,10 @@
+package com.jam.model;
+
+/**
+ * Defines the delivery states of an email in the outbox.
+ */
+public enum OutboxStatus {
+    PENDING,
+    SENDING,
+    FAILED;
+}
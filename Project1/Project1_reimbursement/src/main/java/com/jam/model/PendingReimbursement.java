@@ -0,0 +1,39 @@
+package com.jam.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Defines a reimbursement request waiting for review,
+ * as held by the in-memory pending index.
+ */
+@Getter
+public class PendingReimbursement {
+    private final Long id;
+    private final Long userid;
+
+    @JsonFormat(pattern = "MM/dd/yyyy")
+    private final LocalDate requestdate;
+    private final String description;
+    private final BigDecimal amount;
+
+    public PendingReimbursement(Long id, Long userid, LocalDate requestdate, String description, BigDecimal amount) {
+        this.id = id;
+        this.userid = userid;
+        this.requestdate = requestdate;
+        this.description = description;
+        this.amount = amount;
+    }
+
+    /**
+     * Copies the reimbursement request with a new owner.
+     * @param newuserid The id of the new owner.
+     * @return The copy with the new owner.
+     */
+    public PendingReimbursement withUserid(Long newuserid) {
+        return new PendingReimbursement(id, newuserid, requestdate, description, amount);
+    }
+}
@@ -2,6 +2,7 @@ package com.jam.model;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.format.annotation.DateTimeFormat;
@@ -14,7 +15,12 @@ import java.time.LocalDate;
  * Defines a Reimbursement request by an employee user.
  */
 @Entity
-@Table(name = "reimbursements")
+@Table(name = "reimbursements", indexes = {
+        @Index(name = "idx_reimbursements_requestdate", columnList = "requestdate, id"),
+        @Index(name = "idx_reimbursements_approved", columnList = "approved, requestdate"),
+        @Index(name = "idx_reimbursements_user", columnList = "user_id, requestdate"),
+        @Index(name = "idx_reimbursements_resolvedate", columnList = "resolvedate, id")
+})
 @Getter
 @Setter
 public class Reimbursement {
@@ -30,8 +36,21 @@ public class Reimbursement {
     private BigDecimal amount;
 
     @Column(columnDefinition = "TINYINT(1) DEFAULT 0")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     private boolean approved;
 
+    /**
+     * The date the request was approved or denied, or null while it is pending.
+     */
+    @JsonFormat(pattern = "MM/dd/yyyy")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private LocalDate resolvedate;
+
+    @Version
+    @Column(columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private long version;
+
     @ManyToOne(cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
     @JsonIgnore
@@ -46,4 +65,13 @@ public class Reimbursement {
         this.amount = amount;
         this.user = user;
     }
+
+    /**
+     * Checks whether the request is still waiting to be approved or denied.
+     * @return True if the request is pending.
+     */
+    @JsonIgnore
+    public boolean isPending() {
+        return !approved && resolvedate == null;
+    }
 }
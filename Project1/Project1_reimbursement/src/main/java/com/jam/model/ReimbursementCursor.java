@@ -0,0 +1,49 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Base64;
+
+/**
+ * Defines the position of the last reimbursement of a
+ * page, from which the next page of a listing starts.
+ */
+@Getter
+public class ReimbursementCursor {
+    private final Long id;
+    private final LocalDate requestdate;
+
+    public ReimbursementCursor(Long id, LocalDate requestdate) {
+        this.id = id;
+        this.requestdate = requestdate;
+    }
+
+    /**
+     * Encodes the cursor into an opaque string for the API.
+     * @return The encoded cursor.
+     */
+    public String encode() {
+        String raw = id + ":" + (requestdate == null ? "" : requestdate.toString());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor given to the API.
+     * @param encoded The encoded cursor.
+     * @return The decoded cursor.
+     * @throws IllegalArgumentException If the cursor is malformed.
+     */
+    public static ReimbursementCursor decode(String encoded) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            int split = raw.indexOf(':');
+            Long id = Long.valueOf(raw.substring(0, split));
+            String date = raw.substring(split + 1);
+            return new ReimbursementCursor(id, date.isEmpty() ? null : LocalDate.parse(date));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed cursor: " + encoded, e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.jam.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Defines the filters and the order of a listing
+ * of reimbursement requests. Filters left empty
+ * match every reimbursement request.
+ */
+@Getter
+@Setter
+public class ReimbursementFilter {
+    private Boolean approved;
+
+    @DateTimeFormat(pattern = "MM/dd/yyyy")
+    private LocalDate from;
+    @DateTimeFormat(pattern = "MM/dd/yyyy")
+    private LocalDate to;
+
+    private BigDecimal min;
+    private BigDecimal max;
+
+    private Long owner;
+
+    /**
+     * Words that must all start a word of the description.
+     */
+    private String keywords;
+
+    private ReimbursementSort sort = ReimbursementSort.ID;
+}
@@ -0,0 +1,21 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Defines a page of a reimbursement listing along
+ * with the cursor of the page that follows it.
+ * @param <T> The type the reimbursements are listed as.
+ */
+@Getter
+public class ReimbursementPage<T> {
+    private final List<T> reimbursements;
+    private final String next;
+
+    public ReimbursementPage(List<T> reimbursements, String next) {
+        this.reimbursements = reimbursements;
+        this.next = next;
+    }
+}
@@ -0,0 +1,9 @@
+package com.jam.model;
+
+/**
+ * Defines the orders that reimbursement listings can be paged in.
+ */
+public enum ReimbursementSort {
+    ID,
+    REQUESTDATE;
+}
@@ -0,0 +1,32 @@
+package com.jam.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Defines the details of a reimbursement request
+ * that notifications about it are written from.
+ */
+public interface ReimbursementSummary {
+    Long getId();
+
+    Long getUserid();
+
+    LocalDate getRequestdate();
+
+    String getDescription();
+
+    BigDecimal getAmount();
+
+    Boolean getApproved();
+
+    LocalDate getResolvedate();
+
+    /**
+     * Checks whether the request is still waiting to be approved or denied.
+     * @return True if the request is pending.
+     */
+    default boolean isPending() {
+        return !Boolean.TRUE.equals(getApproved()) && getResolvedate() == null;
+    }
+}
@@ -0,0 +1,83 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Defines a word of the description of a reimbursement request. Together
+ * the terms form an inverted index of the descriptions, so that keyword
+ * searches look up the index on term instead of scanning every description.
+ */
+@Entity
+@Table(name = "reimbursement_terms", indexes = {
+        @Index(name = "idx_reimbursement_terms_term", columnList = "term, reimbursement_id")
+})
+@IdClass(ReimbursementTerm.Key.class)
+@Getter
+public class ReimbursementTerm {
+    /**
+     * The maximum length of a term, longer words are cut to it.
+     */
+    public static final int MAX_LENGTH = 64;
+
+    @Id
+    @Column(name = "term", length = MAX_LENGTH, nullable = false)
+    private String term;
+
+    @Id
+    @Column(name = "reimbursement_id", nullable = false)
+    private Long reimbursementId;
+
+    public ReimbursementTerm() {
+    }
+
+    /**
+     * Splits a description or a search into its terms: the lower case runs
+     * of letters and digits, ignoring single characters.
+     * @param text The description or search.
+     * @return The distinct terms, in the order they first appear.
+     */
+    public static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 1) {
+                terms.add(word.length() > MAX_LENGTH ? word.substring(0, MAX_LENGTH) : word);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * The primary key of a term.
+     */
+    public static class Key implements Serializable {
+        private String term;
+        private Long reimbursementId;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(term, key.term) && Objects.equals(reimbursementId, key.reimbursementId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(term, reimbursementId);
+        }
+    }
+}
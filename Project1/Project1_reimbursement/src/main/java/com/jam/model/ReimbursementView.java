@@ -0,0 +1,40 @@
+package com.jam.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Defines a read-only view of a reimbursement request, read
+ * straight from the repository without loading the entity.
+ * Serializes to the same JSON as {@link Reimbursement}.
+ */
+@Getter
+public class ReimbursementView {
+    private final Long id;
+
+    @JsonFormat(pattern = "MM/dd/yyyy")
+    private final LocalDate requestdate;
+    private final String description;
+    private final BigDecimal amount;
+
+    private final boolean approved;
+
+    @JsonFormat(pattern = "MM/dd/yyyy")
+    private final LocalDate resolvedate;
+
+    private final long version;
+
+    public ReimbursementView(Long id, LocalDate requestdate, String description, BigDecimal amount,
+                             boolean approved, LocalDate resolvedate, long version) {
+        this.id = id;
+        this.requestdate = requestdate;
+        this.description = description;
+        this.amount = amount;
+        this.approved = approved;
+        this.resolvedate = resolvedate;
+        this.version = version;
+    }
+}
@@ -0,0 +1,26 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import javax.persistence.*;
+
+/**
+ * Defines the version of the reimbursement requests of a month that is
+ * over, bumped in the transaction of every change to them. Instances of the
+ * API compare the version a cached monthly report was built at with it,
+ * so a change made through any of them is seen by all of them.
+ */
+@Entity
+@Table(name = "report_versions")
+@Getter
+public class ReportVersion {
+    @Id
+    @Column(name = "reportmonth", length = 7, nullable = false)
+    private String reportmonth;
+
+    @Column(nullable = false)
+    private long version;
+
+    public ReportVersion() {
+    }
+}
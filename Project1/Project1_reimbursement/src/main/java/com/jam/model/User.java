@@ -12,7 +12,10 @@ import java.util.List;
  * Defines a User in the application.
  */
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+        @Index(name = "idx_users_name", columnList = "name, id"),
+        @Index(name = "idx_users_email", columnList = "email, id")
+})
 @Getter
 @Setter
 public class User {
@@ -39,6 +42,11 @@ public class User {
 
     private String apikey;
 
+    /**
+     * The department the user's expenses are reported under, if any.
+     */
+    private String department;
+
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @JsonIgnore
     private List<Reimbursement> reimbursements = new ArrayList<>();
@@ -0,0 +1,57 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Defines the position of the last user of a page of a prefix search,
+ * from which the next page starts. A search lists the users whose name
+ * starts with the prefix in name order, then the others whose email
+ * does in email order, so the position is the column the search has
+ * reached along with the value and id of the last user.
+ */
+@Getter
+public class UserCursor {
+    private final boolean email;
+    private final String value;
+    private final Long id;
+
+    public UserCursor(boolean email, String value, Long id) {
+        this.email = email;
+        this.value = value;
+        this.id = id;
+    }
+
+    /**
+     * Encodes the cursor into an opaque string for the API.
+     * @return The encoded cursor.
+     */
+    public String encode() {
+        String raw = (email ? "e" : "n") + ":" + id + ":" + value;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor given to the API.
+     * @param encoded The encoded cursor.
+     * @return The decoded cursor.
+     * @throws IllegalArgumentException If the cursor is malformed.
+     */
+    public static UserCursor decode(String encoded) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            int first = raw.indexOf(':');
+            int second = raw.indexOf(':', first + 1);
+            String column = raw.substring(0, first);
+            if (!column.equals("n") && !column.equals("e")) {
+                throw new IllegalArgumentException("Unknown column " + column);
+            }
+            return new UserCursor(column.equals("e"), raw.substring(second + 1),
+                    Long.valueOf(raw.substring(first + 1, second)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed cursor: " + encoded, e);
+        }
+    }
+}
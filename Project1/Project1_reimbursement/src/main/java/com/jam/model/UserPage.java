@@ -0,0 +1,20 @@
+package com.jam.model;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Defines a page of the user directory along with
+ * the cursor that the next page starts after.
+ */
+@Getter
+public class UserPage {
+    private final List<UserSummary> users;
+    private final String next;
+
+    public UserPage(List<UserSummary> users, String next) {
+        this.users = users;
+        this.next = next;
+    }
+}
@@ -0,0 +1,17 @@
+package com.jam.model;
+
+/**
+ * Defines the public details of a user listed in the
+ * user directory, read without loading the entity.
+ */
+public interface UserSummary {
+    Long getId();
+
+    String getName();
+
+    String getEmail();
+
+    UserType getUsertype();
+
+    String getDepartment();
+}
@@ -0,0 +1,31 @@
+package com.jam.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Defers in-memory changes until the current transaction
+ * commits, so that a rollback never leaves them applied.
+ */
+final class AfterCommit {
+    private AfterCommit() {
+    }
+
+    /**
+     * Runs a change after the current transaction commits,
+     * or right away if there is no transaction.
+     * @param change The change to run.
+     */
+    static void run(Runnable change) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            change.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                change.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,106 @@
+package com.jam.service;
+
+import com.jam.data.ReimbursementRepository;
+import com.jam.model.ReimbursementSummary;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Moves settled reimbursement requests out of the reimbursements table
+ * into the archive once they are old enough, so that the table, its
+ * indexes and the buffer pool only hold recent and pending requests.
+ * Listings and exports read the archive after the table when they
+ * reach back far enough to need it.
+ */
+@Slf4j
+@Service
+public class ArchiveService {
+    private ReimbursementRepository reimbursementRepository;
+    private TransactionTemplate transactionTemplate;
+    private ChangeVersions changeVersions;
+    private final int afterMonths;
+    private final int batchSize;
+    private final int maxBatches;
+
+    public ArchiveService(ReimbursementRepository reimbursementRepository,
+                          PlatformTransactionManager transactionManager,
+                          ChangeVersions changeVersions,
+                          @Value("${archive.after-months:12}") int afterMonths,
+                          @Value("${archive.batch-size:1000}") int batchSize,
+                          @Value("${archive.max-batches:100}") int maxBatches) {
+        this.reimbursementRepository = reimbursementRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.changeVersions = changeVersions;
+        this.afterMonths = afterMonths;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+    }
+
+    /**
+     * Checks whether the archive may hold requests made on or after a date.
+     * The newest archived request date is read from the end of its index
+     * on every call, rather than kept in memory, so that requests archived
+     * by another instance are listed at once.
+     * @param from The earliest request date wanted, or null for any date.
+     * @return False if no archived request can match, so the archive need not be read.
+     */
+    public boolean mayHold(LocalDate from) {
+        LocalDate archived = reimbursementRepository.findNewestArchivedRequestdate();
+        return archived != null && (from == null || !from.isAfter(archived));
+    }
+
+    /**
+     * Archives the requests that were approved or denied more than the
+     * configured number of months ago, one batch per transaction, so that
+     * the job never holds locks on more than a batch of rows at a time. A run
+     * stops after the maximum number of batches and the next run carries on.
+     */
+    @Scheduled(cron = "${archive.cron:0 0 3 * * *}")
+    public void archiveSettled() {
+        LocalDate before = LocalDate.now().minusMonths(afterMonths);
+        long archived = 0;
+        for (int batch = 0; batch < maxBatches; batch++) {
+            int moved = archiveBatch(before);
+            archived += moved;
+            if (moved < batchSize) {
+                break;
+            }
+        }
+        if (archived > 0) {
+            log.info("[ARCHIVE] Archived " + archived + " reimbursements resolved before " + before + ".");
+        }
+    }
+
+    /**
+     * Moves one batch of settled requests into the archive.
+     * @param before The date the requests must have been resolved before.
+     * @return The number of requests archived.
+     */
+    public int archiveBatch(LocalDate before) {
+        Integer moved = transactionTemplate.execute(status -> {
+            List<Long> ids = reimbursementRepository.findSettledBefore(before, PageRequest.of(0, batchSize));
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            Set<Long> owners = new HashSet<>();
+            for (ReimbursementSummary r : reimbursementRepository.findSummariesByIdIn(ids)) {
+                owners.add(r.getUserid());
+            }
+            reimbursementRepository.archiveByIdIn(ids);
+            reimbursementRepository.deleteByIdIn(ids);
+            changeVersions.changed(owners);
+            return ids.size();
+        });
+        return moved == null ? 0 : moved;
+    }
+}
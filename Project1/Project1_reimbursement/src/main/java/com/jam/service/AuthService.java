@@ -2,9 +2,12 @@ package com.jam.service;
 
 import com.jam.data.UserRepository;
 import com.jam.model.User;
+import com.jam.model.UserType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 
+import java.util.Optional;
+
 /**
  * Controller for the authentication of
  * users using the API.
@@ -12,28 +15,99 @@ import org.springframework.stereotype.Service;
 @Service
 public class AuthService {
     private UserRepository userRepository;
+    private CredentialCache credentialCache;
+    private TokenService tokenService;
 
-    public AuthService(UserRepository userRepository) {
+    public AuthService(UserRepository userRepository, CredentialCache credentialCache, TokenService tokenService) {
         this.userRepository = userRepository;
+        this.credentialCache = credentialCache;
+        this.tokenService = tokenService;
     }
 
 
     /**
      * Authenticates a user into the API service.
      * @param userid The id of user using the service.
-     * @param apikey The API key of the user.
+     * @param apikey The API key of the user, or Bearer followed by a signed token.
      * @return The response carrying the User object if successful, otherwise, send an HTTP error status.
      */
     public ResponseEntity<User> authenticateUser(Long userid, String apikey) {
-        User user;
-        if (!userRepository.existsById(userid)) {
-            return ResponseEntity.badRequest().build();
+        return authenticate(userid, apikey, null);
+    }
+
+    /**
+     * Authenticates a manager into the API service.
+     * @param userid The id of the manager using the service.
+     * @param apikey The API key of the manager, or Bearer followed by a signed token.
+     * @return The response carrying the User object if successful, otherwise, send an HTTP error status.
+     */
+    public ResponseEntity<User> authenticateManager(Long userid, String apikey) {
+        return authenticate(userid, apikey, UserType.MANAGER);
+    }
+
+    /**
+     * Authenticates a user with a signed token, verified in memory. The
+     * token alone decides the type of the user, and the user's details are
+     * taken from the credential cache, so the repository is only read when
+     * the user is not cached.
+     * @param userid The id of user using the service.
+     * @param token The signed token of the user.
+     * @param usertype The type the user is required to be, or null for any type.
+     * @return The response carrying the User object if successful, otherwise, send an HTTP error status.
+     */
+    private ResponseEntity<User> authenticateToken(Long userid, String token, UserType usertype) {
+        TokenService.Claims claims = tokenService.verify(token);
+        if (claims == null || claims.getUserid() != userid) {
+            return ResponseEntity.status(401).build();
+        }
+        if (usertype != null && !usertype.equals(claims.getUsertype())) {
+            return ResponseEntity.status(401).build();
+        }
+        CredentialCache.Credentials credentials = credentialCache.get(userid);
+        if (credentials != null) {
+            return ResponseEntity.ok(credentials.getUser());
+        }
+        Optional<User> found = userRepository.findById(userid);
+        if (!found.isPresent()) {
+            return ResponseEntity.status(401).build();
         }
-        user = userRepository.findById(userid).get();
+        credentialCache.put(found.get());
+        return ResponseEntity.ok(found.get());
+    }
+
+    /**
+     * Authenticates a user against the credential cache, only
+     * going to the repository when the user is not cached. On a
+     * cache hit the returned user is the cached detached copy, so
+     * the repository is not read at all.
+     * @param userid The id of user using the service.
+     * @param apikey The API key of the user.
+     * @param usertype The type the user is required to be, or null for any type.
+     * @return The response carrying the User object if successful, otherwise, send an HTTP error status.
+     */
+    private ResponseEntity<User> authenticate(Long userid, String apikey, UserType usertype) {
         String[] key = apikey.split(" ");
+        if (key.length == 2 && key[0].equals("Bearer")) {
+            return authenticateToken(userid, key[1], usertype);
+        }
+        CredentialCache.Credentials credentials = credentialCache.get(userid);
+        User user;
+        if (credentials != null) {
+            user = credentials.getUser();
+        } else {
+            Optional<User> found = userRepository.findById(userid);
+            if (!found.isPresent()) {
+                return ResponseEntity.badRequest().build();
+            }
+            user = found.get();
+            credentialCache.put(user);
+        }
         if (!user.getApikey().equals(key[0])) {
             return ResponseEntity.status(401).build();
         }
+        if (usertype != null && !usertype.equals(user.getUsertype())) {
+            return ResponseEntity.status(401).build();
+        }
         return ResponseEntity.ok(user);
     }
 }
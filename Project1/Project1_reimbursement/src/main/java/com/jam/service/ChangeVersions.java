@@ -0,0 +1,86 @@
+package com.jam.service;
+
+import com.jam.model.ExpenseSummary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Counts the changes made to the reimbursement requests of each user
+ * and of the whole company, so that list endpoints can answer
+ * conditional requests without reading the requests. The versions are
+ * kept in the list_versions table and bumped in the transaction of the
+ * change, so every instance of the API tags the lists the same way.
+ * They are read in a transaction, which runs on the connection the
+ * request already holds rather than waiting on the pool for another.
+ */
+@Component
+public class ChangeVersions {
+    private static final String BUMP = "insert into list_versions (userid, version) values (?, 1)"
+            + " on duplicate key update version = version + 1";
+
+    private JdbcTemplate jdbcTemplate;
+
+    public ChangeVersions(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Gets the entity tag of the reimbursement requests of a user.
+     * @param userid The id of the user.
+     * @return The weak entity tag, quoted.
+     */
+    @Transactional(readOnly = true)
+    public String userTag(Long userid) {
+        return tag("u" + userid, version(userid));
+    }
+
+    /**
+     * Gets the entity tag of all the reimbursement requests.
+     * @return The weak entity tag, quoted.
+     */
+    @Transactional(readOnly = true)
+    public String globalTag() {
+        return tag("all", version(ExpenseSummary.COMPANY));
+    }
+
+    /**
+     * Bumps the versions of the users whose reimbursement requests changed,
+     * and the global version, in the current transaction.
+     * @param userids The ids of the users, null ids are ignored.
+     */
+    public void changed(Collection<Long> userids) {
+        Set<Long> ids = new TreeSet<>();
+        for (Long userid : userids) {
+            if (userid != null) {
+                ids.add(userid);
+            }
+        }
+        ids.add(ExpenseSummary.COMPANY);
+        // In id order, so that concurrent changes lock the rows in the same order
+        for (Long userid : ids) {
+            jdbcTemplate.update(BUMP, userid);
+        }
+    }
+
+    /**
+     * Reads the version of a user, or of all the requests.
+     * @param userid The id of the user, or {@link ExpenseSummary#COMPANY}.
+     * @return The version, 0 if it was never bumped.
+     */
+    private long version(Long userid) {
+        List<Long> version = jdbcTemplate.queryForList("select version from list_versions where userid = ?",
+                Long.class, userid);
+        return version.isEmpty() ? 0 : version.get(0);
+    }
+
+    private String tag(String scope, long version) {
+        // Weak, as the same version is sent as JSON, Smile or CBOR, compressed or not
+        return "W/\"" + scope + "-" + version + "\"";
+    }
+}
@@ -0,0 +1,97 @@
+package com.jam.service;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker around calls to a remote service. After a number of
+ * failures in a row it opens and rejects every call for a while, then lets
+ * a single trial call through: the breaker closes again if the trial
+ * succeeds, and stays open for another while if it fails.
+ */
+public class CircuitBreaker {
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * Creates a closed circuit breaker.
+     * @param failureThreshold The number of failures in a row that opens the breaker.
+     * @param openDuration How long the breaker stays open before letting a trial call through.
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Asks to make a call. Every call that is allowed must be
+     * followed by a call to onSuccess or onFailure.
+     * @return True if the call may go ahead, false if it must be rejected.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records a successful call, closing the breaker.
+     */
+    public synchronized void onSuccess() {
+        failures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records a failed call, opening the breaker if it was the trial
+     * call or if too many calls have failed in a row.
+     */
+    public synchronized void onFailure() {
+        failures++;
+        trialInFlight = false;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Checks whether a call would currently be let through, without making one.
+     * @return True if the breaker is closed, or open for long enough to try a call.
+     */
+    public synchronized boolean isCallPermitted() {
+        return state == State.CLOSED
+                || state == State.OPEN && System.nanoTime() - openedAt >= openNanos
+                || state == State.HALF_OPEN && !trialInFlight;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,133 @@
+package com.jam.service;
+
+import com.jam.model.User;
+import com.jam.model.UserType;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of user credentials so that
+ * authenticated requests do not have to look the user
+ * up in the database every time. Along with the credentials
+ * it keeps a detached copy of the user's details, which
+ * requests are authenticated as.
+ */
+@Component
+public class CredentialCache {
+    private final long ttlNanos;
+    private final Map<Long, Credentials> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CredentialCache(@Value("${auth.cache.max-size:10000}") int maxSize,
+                           @Value("${auth.cache.ttl:5m}") Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<Long, Credentials>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Credentials> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the cached credentials of a user.
+     * @param userid The id of the user.
+     * @return The credentials of the user, or null if they are not cached or have expired.
+     */
+    public synchronized Credentials get(Long userid) {
+        Credentials credentials = entries.get(userid);
+        if (credentials != null && credentials.expiresAt - System.nanoTime() <= 0) {
+            entries.remove(userid);
+            credentials = null;
+        }
+        if (credentials == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return credentials;
+    }
+
+    /**
+     * Caches the credentials and details of a user, evicting the
+     * least recently used user if the cache is full.
+     * @param user The user, as read from the repository.
+     */
+    public synchronized void put(User user) {
+        entries.put(user.getId(), new Credentials(user, System.nanoTime() + ttlNanos));
+    }
+
+    /**
+     * Removes the cached credentials of a user.
+     * @param userid The id of the user.
+     */
+    public synchronized void invalidate(Long userid) {
+        entries.remove(userid);
+    }
+
+    /**
+     * Removes all the cached credentials.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * The credentials and details of a user held by the cache.
+     */
+    @Getter
+    public static class Credentials {
+        private final String apikey;
+        private final UserType usertype;
+        private final long expiresAt;
+
+        /**
+         * The details of the user, without the password, detached from any persistence context.
+         */
+        private final User user;
+
+        private Credentials(User user, long expiresAt) {
+            this.apikey = user.getApikey();
+            this.usertype = user.getUsertype();
+            this.expiresAt = expiresAt;
+            this.user = copy(user);
+        }
+
+        /**
+         * Gets a copy of the details of the user, so that a request
+         * changing its user never changes the cached one.
+         * @return The user, detached from any persistence context.
+         */
+        public User getUser() {
+            return copy(user);
+        }
+
+        private static User copy(User user) {
+            User copy = new User(user.getName(), null, user.getEmail(), user.getUsertype());
+            copy.setId(user.getId());
+            copy.setNotify(user.isNotify());
+            copy.setApikey(user.getApikey());
+            copy.setDepartment(user.getDepartment());
+            return copy;
+        }
+    }
+}
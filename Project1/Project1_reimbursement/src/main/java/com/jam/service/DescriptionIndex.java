@@ -0,0 +1,123 @@
+package com.jam.service;
+
+import com.jam.model.ReimbursementTerm;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the inverted index of the reimbursement descriptions that keyword
+ * searches run on. Terms are written in the same transaction as the
+ * requests they belong to, so the index never drifts from the requests.
+ */
+@Slf4j
+@Service
+public class DescriptionIndex {
+    private static final String INSERT = "insert into reimbursement_terms (term, reimbursement_id) values (?, ?)";
+    private static final String INSERT_IGNORE = "insert ignore into reimbursement_terms (term, reimbursement_id) values (?, ?)";
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * The name of the build of this index in the index progress table.
+     */
+    private static final String NAME = "description";
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+
+    public DescriptionIndex(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Adds the terms of the descriptions of new reimbursement requests.
+     * @param descriptions The descriptions, by reimbursement request id.
+     */
+    @Transactional
+    public void index(Map<Long, String> descriptions) {
+        insert(INSERT, descriptions);
+    }
+
+    /**
+     * Builds the index from the existing reimbursement requests when the
+     * application starts for the first time with this feature, so that
+     * they can be searched. The requests are indexed in batches of ids, one
+     * transaction per batch, and the last id of each batch is recorded with
+     * it, so a build that stops part way carries on from there on the next
+     * start. Terms that are already indexed, such as those of requests
+     * submitted while the build runs, are skipped rather than failing the batch.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildIfIncomplete() {
+        jdbcTemplate.update("insert ignore into index_progress (name, lastid, complete) values (?, 0, false)", NAME);
+        Map<String, Object> progress = jdbcTemplate.queryForMap(
+                "select lastid, complete from index_progress where name = ?", NAME);
+        if ((Boolean) progress.get("complete")) {
+            return;
+        }
+        long after = ((Number) progress.get("lastid")).longValue();
+        if (after > 0) {
+            log.info("[SEARCH] Resuming the description index build after reimbursement " + after + ".");
+        }
+        long count = 0;
+        while (true) {
+            long from = after;
+            Map<Long, String> descriptions = new LinkedHashMap<>();
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.query("select id, description from reimbursements where id > ? order by id limit " + BATCH_SIZE,
+                        rs -> {
+                            descriptions.put(rs.getLong(1), rs.getString(2));
+                        },
+                        from);
+                if (!descriptions.isEmpty()) {
+                    insert(INSERT_IGNORE, descriptions);
+                    jdbcTemplate.update("update index_progress set lastid = ? where name = ?",
+                            Collections.max(descriptions.keySet()), NAME);
+                }
+            });
+            if (descriptions.isEmpty()) {
+                break;
+            }
+            count += descriptions.size();
+            after = Collections.max(descriptions.keySet());
+        }
+        jdbcTemplate.update("update index_progress set complete = true where name = ?", NAME);
+        log.info("[SEARCH] Indexed the descriptions of " + count + " reimbursements.");
+    }
+
+    /**
+     * Writes the terms of descriptions to the index.
+     * @param sql The insert statement of a term and its reimbursement request id.
+     * @param descriptions The descriptions, by reimbursement request id.
+     */
+    private void insert(String sql, Map<Long, String> descriptions) {
+        List<Map.Entry<String, Long>> terms = new ArrayList<>();
+        descriptions.forEach((id, description) -> {
+            if (id != null) {
+                for (String term : ReimbursementTerm.tokenize(description)) {
+                    terms.add(new AbstractMap.SimpleEntry<>(term, id));
+                }
+            }
+        });
+        if (terms.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(sql, terms, BATCH_SIZE, (ps, term) -> {
+            ps.setString(1, term.getKey());
+            ps.setLong(2, term.getValue());
+        });
+    }
+}
@@ -0,0 +1,164 @@
+package com.jam.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Represents the client of the email API used by
+ * the reimbursement API. Emails are posted to the email API over a pool
+ * of kept-alive connections without blocking the calling thread. At most
+ * a fixed number of emails are in flight at once, and a circuit breaker
+ * rejects emails while the email API keeps failing, so that callers can
+ * hold them back instead of waiting on a degraded API.
+ */
+@Slf4j
+@Service
+@ToString(onlyExplicitlyIncluded = true)
+public class EmailClient implements DisposableBean {
+    @ToString.Include
+    private String url;
+    private MeterRegistry meterRegistry;
+    private ConnectionProvider connectionProvider;
+    private WebClient webClient;
+    private int maxInFlight;
+    private Semaphore inFlight;
+    private CircuitBreaker circuitBreaker;
+
+    public EmailClient(WebClient.Builder webClientBuilder, MeterRegistry meterRegistry,
+                       @Value("${email-api.url:none}") String url,
+                       @Value("${email-api.connect-timeout:2s}") Duration connectTimeout,
+                       @Value("${email-api.response-timeout:5s}") Duration responseTimeout,
+                       @Value("${email-api.max-connections:20}") int maxConnections,
+                       @Value("${email-api.max-in-flight:10}") int maxInFlight,
+                       @Value("${email-api.breaker.failure-threshold:5}") int failureThreshold,
+                       @Value("${email-api.breaker.open-duration:30s}") Duration openDuration) {
+        this.url = url;
+        this.meterRegistry = meterRegistry;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, openDuration);
+        this.connectionProvider = ConnectionProvider.builder("email-api")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(connectTimeout.plus(responseTimeout))
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(responseTimeout);
+        this.webClient = webClientBuilder.clientConnector(new ReactorClientHttpConnector(httpClient)).build();
+        Gauge.builder("email.api.in.flight", inFlight, permits -> maxInFlight - permits.availablePermits())
+                .description("Emails being sent to the email API")
+                .register(meterRegistry);
+        Gauge.builder("email.api.breaker.open", circuitBreaker,
+                        breaker -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("Whether the circuit breaker of the email API is open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Sends an HTTP request to the email API
+     * with the contents of the email once the returned Mono is subscribed to.
+     * Each request is timed as email.api.send and each failure is counted in
+     * email.api.send.failures.
+     * @param recipient The recipient of the email.
+     * @param subject The subject of the email.
+     * @param body The body contents of the email.
+     * @return A Mono completing once the email API accepted the email, failing with an
+     * EmailUnavailableException if the email was not sent because the API is failing or
+     * busy, or with the error of the request if the API could not be reached or rejected the email.
+     */
+    public Mono<Void> sendEmail(String recipient, String subject, String body) {
+        if (url == null || url.equals("none")) {
+            log.info("[POST] Email was not sent because API url doesn't exist.");
+            return Mono.empty();
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("recipient", recipient);
+        map.put("subject", subject);
+        map.put("message", body);
+        return Mono.defer(() -> {
+            if (!inFlight.tryAcquire()) {
+                return reject("too many emails are in flight");
+            }
+            if (!circuitBreaker.tryAcquire()) {
+                inFlight.release();
+                return reject("the email API is failing");
+            }
+            log.info("[POST] Email request received to be sent to " + url);
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return webClient.post()
+                    .uri(url)
+                    .bodyValue(map)
+                    .retrieve()
+                    .toBodilessEntity()
+                    .doOnSuccess(response -> {
+                        circuitBreaker.onSuccess();
+                        sample.stop(meterRegistry.timer("email.api.send", "outcome", "success"));
+                        log.info("[POST] Email request sent out to email API " + url);
+                        log.info("[POST] Email recipient: " + recipient);
+                        log.info("[POST] Email subject: " + subject);
+                        log.info("[POST] Email body: " + body);
+                    })
+                    .doOnError(e -> {
+                        // The email API rejecting an email does not mean it is failing
+                        if (e instanceof WebClientResponseException
+                                && ((WebClientResponseException) e).getStatusCode().is4xxClientError()) {
+                            circuitBreaker.onSuccess();
+                        } else {
+                            circuitBreaker.onFailure();
+                        }
+                        sample.stop(meterRegistry.timer("email.api.send", "outcome", "failure"));
+                        meterRegistry.counter("email.api.send.failures", "exception", e.getClass().getSimpleName())
+                                .increment();
+                    })
+                    .doOnCancel(circuitBreaker::onFailure)
+                    .doFinally(signal -> inFlight.release())
+                    .then();
+        });
+    }
+
+    private Mono<Void> reject(String reason) {
+        meterRegistry.counter("email.api.send.rejected").increment();
+        return Mono.error(new EmailUnavailableException("Email was not sent because " + reason + "."));
+    }
+
+    /**
+     * Checks whether emails would currently be sent, that is
+     * whether the circuit breaker lets requests through.
+     * @return True if the email API is not known to be failing.
+     */
+    public boolean isAvailable() {
+        return circuitBreaker.isCallPermitted();
+    }
+
+    /**
+     * Gets the number of emails that can be in flight at once.
+     * @return The maximum number of emails in flight.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public void destroy() {
+        connectionProvider.dispose();
+    }
+}
@@ -0,0 +1,237 @@
+package com.jam.service;
+
+import com.jam.data.OutboxRepository;
+import com.jam.model.OutboxEmail;
+import com.jam.model.OutboxStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Background dispatcher that drains the email outbox in
+ * batches and sends the emails out to the email API,
+ * retrying failed emails with exponential backoff.
+ * Emails waiting for the same recipient are sent
+ * together as a single digest email. Each run claims
+ * the emails it sends for a lease, so that no other
+ * run, on this or another instance, sends them too.
+ */
+@Slf4j
+@Component
+public class EmailDispatcher {
+    private OutboxRepository outboxRepository;
+    private EmailClient emailClient;
+    private TransactionTemplate transactionTemplate;
+    private int batchSize;
+    private int digestSize;
+    private int maxAttempts;
+    private Duration backoff;
+    private Duration maxBackoff;
+    private Duration lease;
+
+    public EmailDispatcher(OutboxRepository outboxRepository, EmailClient emailClient,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${email-outbox.batch-size:50}") int batchSize,
+                           @Value("${email-outbox.digest-size:50}") int digestSize,
+                           @Value("${email-outbox.max-attempts:10}") int maxAttempts,
+                           @Value("${email-outbox.backoff:10s}") Duration backoff,
+                           @Value("${email-outbox.max-backoff:1h}") Duration maxBackoff,
+                           @Value("${email-outbox.lease:2m}") Duration lease) {
+        this.outboxRepository = outboxRepository;
+        this.emailClient = emailClient;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.digestSize = digestSize;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.lease = lease;
+    }
+
+    /**
+     * Sends out every email in the outbox that is due, one batch at a
+     * time, along with any other emails waiting for the same recipients,
+     * even those still inside their coalescing window. Emails waiting
+     * out the backoff of a failed attempt are left for a later run.
+     * The digests of a batch are sent concurrently. While the email API
+     * is failing the emails are held back in the outbox as they are,
+     * without using up any of their attempts.
+     */
+    @Scheduled(fixedDelayString = "${email-outbox.poll-interval:5000}")
+    public void dispatch() {
+        List<OutboxEmail> claimed;
+        do {
+            if (!emailClient.isAvailable()) {
+                log.info("[OUTBOX] Holding back emails while the email API is failing.");
+                return;
+            }
+            String claim = UUID.randomUUID().toString();
+            claimed = claim(claim);
+            Map<String, List<OutboxEmail>> digests = new LinkedHashMap<>();
+            for (OutboxEmail email : claimed) {
+                digests.computeIfAbsent(email.getRecipient(), k -> new ArrayList<>()).add(email);
+            }
+            List<Sent> sent = Flux.fromIterable(digests.entrySet())
+                    .flatMap(digest -> send(digest.getKey(), digest.getValue()), emailClient.getMaxInFlight())
+                    .collectList()
+                    .block();
+            boolean heldBack = false;
+            for (Sent result : sent) {
+                if (result.error == null) {
+                    int deleted = transactionTemplate.execute(status ->
+                            outboxRepository.deleteClaimed(ids(result.emails), claim));
+                    if (deleted < result.emails.size()) {
+                        log.warn("[OUTBOX] The claim on " + (result.emails.size() - deleted) + " emails to " +
+                                result.recipient + " ran out before they were sent.");
+                    }
+                } else if (result.error instanceof EmailUnavailableException) {
+                    transactionTemplate.executeWithoutResult(status ->
+                            outboxRepository.release(ids(result.emails), claim));
+                    heldBack = true;
+                } else {
+                    retry(result.recipient, result.emails, claim, result.error);
+                }
+            }
+            if (heldBack) {
+                log.info("[OUTBOX] Holding back emails while the email API is failing.");
+                return;
+            }
+        } while (claimed.size() >= batchSize);
+    }
+
+    /**
+     * Claims a batch of due emails for this run, along with the other emails
+     * waiting for their recipients, in one short transaction. Emails claimed
+     * by another run in the meantime are left to it.
+     * @param claim The token of this run.
+     * @return The emails claimed, oldest first.
+     */
+    private List<OutboxEmail> claim(String claim) {
+        return transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            outboxRepository.releaseExpired(now);
+            List<OutboxEmail> batch = outboxRepository.findByStatusAndNextattemptLessThanEqualOrderByIdAsc(
+                    OutboxStatus.PENDING, now, PageRequest.of(0, batchSize));
+            Set<String> recipients = new LinkedHashSet<>();
+            Set<Long> ids = new LinkedHashSet<>();
+            for (OutboxEmail email : batch) {
+                if (recipients.add(email.getRecipient())) {
+                    ids.addAll(ids(outboxRepository.findDigest(OutboxStatus.PENDING, email.getRecipient(), now,
+                            PageRequest.of(0, digestSize))));
+                }
+            }
+            if (ids.isEmpty() || outboxRepository.claim(ids, claim, now.plus(lease)) == 0) {
+                return new ArrayList<>();
+            }
+            return outboxRepository.findByClaimOrderByIdAsc(claim);
+        });
+    }
+
+    /**
+     * Sends out the emails waiting for a recipient, as a digest if there is more than one.
+     * @param recipient The recipient of the emails.
+     * @param emails The emails to send.
+     * @return A Mono of the emails and the error they failed with, if any.
+     */
+    private Mono<Sent> send(String recipient, List<OutboxEmail> emails) {
+        Mono<Void> request;
+        if (emails.size() == 1) {
+            OutboxEmail email = emails.get(0);
+            request = emailClient.sendEmail(recipient, email.getSubject(), email.getBody());
+        } else {
+            request = emailClient.sendEmail(recipient, emails.size() + " reimbursement updates", digest(emails));
+        }
+        return request.then(Mono.fromCallable(() -> new Sent(recipient, emails, null)))
+                .onErrorResume(e -> Mono.just(new Sent(recipient, emails, e)));
+    }
+
+    /**
+     * Schedules another attempt at sending emails that failed, giving
+     * up on those that have run out of attempts, and releases their claim.
+     * @param recipient The recipient of the emails.
+     * @param emails The emails that failed.
+     * @param claim The token of this run.
+     * @param e The error the emails failed with.
+     */
+    private void retry(String recipient, List<OutboxEmail> emails, String claim, Throwable e) {
+        log.info("[OUTBOX] Failed to send out " + emails.size() + " emails to " + recipient +
+                " due to error: " + e.getMessage());
+        String error = String.valueOf(e.getMessage());
+        transactionTemplate.executeWithoutResult(status -> {
+            for (OutboxEmail email : emails) {
+                email.setLasterror(error.length() > 255 ? error.substring(0, 255) : error);
+                email.setAttempts(email.getAttempts() + 1);
+                if (email.getAttempts() >= maxAttempts) {
+                    email.setStatus(OutboxStatus.FAILED);
+                    log.error("[OUTBOX] Giving up on email " + email.getId() + " after " + email.getAttempts() +
+                            " attempts.");
+                } else {
+                    email.setStatus(OutboxStatus.PENDING);
+                    email.setNextattempt(LocalDateTime.now().plus(backoffFor(email.getAttempts())));
+                }
+                outboxRepository.reschedule(email.getId(), claim, email.getStatus(), email.getAttempts(),
+                        email.getNextattempt(), email.getLasterror());
+            }
+        });
+    }
+
+    private static List<Long> ids(List<OutboxEmail> emails) {
+        return emails.stream().map(OutboxEmail::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * Combines several emails into the body of one digest email.
+     * @param emails The emails to combine.
+     * @return The body of the digest email.
+     */
+    private static String digest(List<OutboxEmail> emails) {
+        StringBuilder sb = new StringBuilder("You have " + emails.size() + " reimbursement updates.\n");
+        for (OutboxEmail email : emails) {
+            sb.append("\n").append(email.getSubject()).append("\n")
+                    .append(email.getBody()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the exponential backoff delay before the next attempt.
+     * @param attempts The number of failed attempts so far.
+     * @return The delay before the next attempt.
+     */
+    private Duration backoffFor(int attempts) {
+        Duration delay = backoff.multipliedBy(1L << Math.min(attempts - 1, 20));
+        return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+    }
+
+    /**
+     * The emails sent to a recipient and the error they failed with, or null if they were sent.
+     */
+    private static class Sent {
+        private final String recipient;
+        private final List<OutboxEmail> emails;
+        private final Throwable error;
+
+        private Sent(String recipient, List<OutboxEmail> emails, Throwable error) {
+            this.recipient = recipient;
+            this.emails = emails;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.jam.service;
+
+/**
+ * Thrown when an email is not sent to the email API because the API is
+ * failing or already has as many emails in flight as it is allowed. The
+ * email was never attempted, so it can be sent again later as it is.
+ */
+public class EmailUnavailableException extends RuntimeException {
+    public EmailUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,302 @@
+package com.jam.service;
+
+import com.jam.data.ExpenseSummaryRepository;
+import com.jam.model.ExpenseSummary;
+import com.jam.model.ReimbursementSummary;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the per-employee and company-wide totals of the reimbursement
+ * requests up to date. Every change is applied as an increment in the
+ * same transaction as the change to the requests themselves.
+ */
+@Slf4j
+@Service
+public class ExpenseSummaryService {
+    private ExpenseSummaryRepository expenseSummaryRepository;
+
+    public ExpenseSummaryService(ExpenseSummaryRepository expenseSummaryRepository) {
+        this.expenseSummaryRepository = expenseSummaryRepository;
+    }
+
+    /**
+     * Gets the totals of an employee or of the whole company.
+     * @param userid The id of the employee, or {@link ExpenseSummary#COMPANY} for the whole company.
+     * @return The totals, all zero if the employee has no reimbursement requests.
+     */
+    public ExpenseSummary getSummary(Long userid) {
+        return expenseSummaryRepository.findById(userid).orElseGet(() -> new ExpenseSummary(userid));
+    }
+
+    /**
+     * Counts a newly submitted reimbursement request as pending.
+     * @param userid The id of the owner of the request.
+     * @param amount The amount of the request.
+     */
+    @Transactional
+    public void submitted(Long userid, BigDecimal amount) {
+        Map<Long, Delta> deltas = new TreeMap<>();
+        delta(deltas, userid).pending(1, amount);
+        apply(deltas);
+    }
+
+    /**
+     * Moves an approved or denied reimbursement request out of the pending totals, or out
+     * of the approved totals if an approved request was denied, adding it to the approved
+     * totals if it was approved.
+     * @param userid The id of the owner of the request.
+     * @param amount The amount of the request.
+     * @param pending Whether the request was pending before it was approved or denied.
+     * @param approved Whether the request was approved.
+     */
+    @Transactional
+    public void resolved(Long userid, BigDecimal amount, boolean pending, boolean approved) {
+        Map<Long, Delta> deltas = new TreeMap<>();
+        resolve(deltas, userid, amount, pending, approved);
+        apply(deltas);
+    }
+
+    /**
+     * Moves a batch of approved or denied reimbursement requests out of the
+     * pending totals, adding them to the approved totals if they were approved.
+     * @param rs The reimbursement requests, which were all pending.
+     * @param approved Whether the requests were approved.
+     */
+    @Transactional
+    public void resolved(Collection<? extends ReimbursementSummary> rs, boolean approved) {
+        Map<Long, Delta> deltas = new TreeMap<>();
+        for (ReimbursementSummary r : rs) {
+            resolve(deltas, r.getUserid(), r.getAmount(), true, approved);
+        }
+        apply(deltas);
+    }
+
+    /**
+     * Counts imported reimbursement requests as pending or approved,
+     * as they were when they were exported. Denied requests are not counted.
+     * @param rs The imported reimbursement requests.
+     */
+    @Transactional
+    public void imported(Collection<? extends ReimbursementSummary> rs) {
+        Map<Long, Delta> deltas = new TreeMap<>();
+        for (ReimbursementSummary r : rs) {
+            if (r.isPending()) {
+                delta(deltas, r.getUserid()).pending(1, r.getAmount());
+            } else if (Boolean.TRUE.equals(r.getApproved())) {
+                delta(deltas, r.getUserid()).approved(1, r.getAmount());
+            }
+        }
+        apply(deltas);
+    }
+
+    /**
+     * Moves a reassigned reimbursement request from the totals
+     * of its previous owner to the totals of its new owner.
+     * @param olduserid The id of the previous owner.
+     * @param newuserid The id of the new owner.
+     * @param amount The amount of the request.
+     * @param pending Whether the request is pending.
+     * @param approved Whether the request is approved.
+     */
+    @Transactional
+    public void reassigned(Long olduserid, Long newuserid, BigDecimal amount, boolean pending, boolean approved) {
+        Map<Long, Delta> deltas = new TreeMap<>();
+        reassign(deltas, olduserid, newuserid, amount, pending, approved);
+        apply(deltas);
+    }
+
+    /**
+     * Moves a batch of reassigned reimbursement requests from the totals
+     * of their previous owners to the totals of their new owner.
+     * @param rs The reimbursement requests as they were before the reassignment.
+     * @param newuserid The id of the new owner.
+     */
+    @Transactional
+    public void reassigned(Collection<? extends ReimbursementSummary> rs, Long newuserid) {
+        Map<Long, Delta> deltas = new TreeMap<>();
+        for (ReimbursementSummary r : rs) {
+            reassign(deltas, r.getUserid(), newuserid, r.getAmount(),
+                    r.isPending(), Boolean.TRUE.equals(r.getApproved()));
+        }
+        apply(deltas);
+    }
+
+    /**
+     * Builds the totals from the reimbursement requests, archived ones included, when the application
+     * starts for the first time with this feature, so that existing requests are counted.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void rebuildIfEmpty() {
+        if (expenseSummaryRepository.count() > 0) {
+            return;
+        }
+        Map<Long, ExpenseSummary> summaries = new LinkedHashMap<>();
+        ExpenseSummary company = new ExpenseSummary(ExpenseSummary.COMPANY);
+        summaries.put(ExpenseSummary.COMPANY, company);
+        for (Object[] row : expenseSummaryRepository.sumPendingByUser()) {
+            long count = (Long) row[1];
+            BigDecimal sum = row[2] == null ? BigDecimal.ZERO : (BigDecimal) row[2];
+            company.setPendingcount(company.getPendingcount() + count);
+            company.setPendingsum(company.getPendingsum().add(sum));
+            if (row[0] != null) {
+                ExpenseSummary s = summaries.computeIfAbsent((Long) row[0], ExpenseSummary::new);
+                s.setPendingcount(count);
+                s.setPendingsum(sum);
+            }
+        }
+        List<Object[]> approved = new ArrayList<>(expenseSummaryRepository.sumApprovedByUser());
+        approved.addAll(expenseSummaryRepository.sumArchivedApprovedByUser());
+        for (Object[] row : approved) {
+            long count = (Long) row[1];
+            BigDecimal sum = row[2] == null ? BigDecimal.ZERO : (BigDecimal) row[2];
+            company.setApprovedcount(company.getApprovedcount() + count);
+            company.setApprovedsum(company.getApprovedsum().add(sum));
+            if (row[0] != null) {
+                ExpenseSummary s = summaries.computeIfAbsent((Long) row[0], ExpenseSummary::new);
+                s.setApprovedcount(s.getApprovedcount() + count);
+                s.setApprovedsum(s.getApprovedsum().add(sum));
+            }
+        }
+        expenseSummaryRepository.saveAll(summaries.values());
+        log.info("[SUMMARY] Built the expense summaries of " + (summaries.size() - 1) + " users.");
+    }
+
+    /**
+     * Adds the change of approving or denying a request to the changes.
+     * @param deltas The changes to the totals, by user id.
+     * @param userid The id of the owner of the request.
+     * @param amount The amount of the request.
+     * @param pending Whether the request was pending, rather than denied if it is
+     *                now approved or approved if it is now denied.
+     * @param approved Whether the request was approved.
+     */
+    private static void resolve(Map<Long, Delta> deltas, Long userid, BigDecimal amount,
+                                boolean pending, boolean approved) {
+        if (pending) {
+            delta(deltas, userid).pending(-1, amount);
+        } else if (!approved) {
+            delta(deltas, userid).approved(-1, amount);
+        }
+        if (approved) {
+            delta(deltas, userid).approved(1, amount);
+        }
+    }
+
+    /**
+     * Adds the change of reassigning a request to the changes.
+     * @param deltas The changes to the totals, by user id.
+     * @param olduserid The id of the previous owner.
+     * @param newuserid The id of the new owner.
+     * @param amount The amount of the request.
+     * @param pending Whether the request is pending.
+     * @param approved Whether the request is approved.
+     */
+    private static void reassign(Map<Long, Delta> deltas, Long olduserid, Long newuserid,
+                                 BigDecimal amount, boolean pending, boolean approved) {
+        if (newuserid.equals(olduserid)) {
+            return;
+        }
+        // The company totals net out to no change
+        if (pending) {
+            delta(deltas, olduserid).pending(-1, amount);
+            delta(deltas, newuserid).pending(1, amount);
+        } else if (approved) {
+            delta(deltas, olduserid).approved(-1, amount);
+            delta(deltas, newuserid).approved(1, amount);
+        }
+    }
+
+    /**
+     * Gets the change to the totals of a user, which is also
+     * counted towards the totals of the whole company.
+     * @param deltas The changes to the totals, by user id.
+     * @param userid The id of the user, or null for a request without an owner.
+     * @return The change to the totals of the user.
+     */
+    private static Delta delta(Map<Long, Delta> deltas, Long userid) {
+        Delta company = deltas.computeIfAbsent(ExpenseSummary.COMPANY, k -> new Delta(null));
+        if (userid == null) {
+            return company;
+        }
+        return deltas.computeIfAbsent(userid, k -> new Delta(company));
+    }
+
+    /**
+     * Adds the changes to their summaries, creating the summaries that do not exist yet
+     * in the same statement. The changes are applied in user id order, so that concurrent
+     * changes, such as reassignments in opposite directions, lock the rows in the same order.
+     * @param deltas The changes to the totals, sorted by user id.
+     */
+    private void apply(Map<Long, Delta> deltas) {
+        for (Map.Entry<Long, Delta> entry : deltas.entrySet()) {
+            Delta d = entry.getValue();
+            if (!d.isEmpty()) {
+                expenseSummaryRepository.adjust(entry.getKey(), d.pendingcount, d.pendingsum,
+                        d.approvedcount, d.approvedsum);
+            }
+        }
+    }
+
+    /**
+     * A change to the totals of one summary.
+     */
+    private static class Delta {
+        private final Delta company;
+        private long pendingcount;
+        private BigDecimal pendingsum = BigDecimal.ZERO;
+        private long approvedcount;
+        private BigDecimal approvedsum = BigDecimal.ZERO;
+
+        private Delta(Delta company) {
+            this.company = company;
+        }
+
+        /**
+         * Adds or removes requests from the pending totals.
+         * @param count The number of requests, negative to remove them.
+         * @param amount The amount of each request.
+         */
+        private void pending(long count, BigDecimal amount) {
+            pendingcount += count;
+            pendingsum = pendingsum.add(times(amount, count));
+            if (company != null) {
+                company.pending(count, amount);
+            }
+        }
+
+        /**
+         * Adds or removes requests from the approved totals.
+         * @param count The number of requests, negative to remove them.
+         * @param amount The amount of each request.
+         */
+        private void approved(long count, BigDecimal amount) {
+            approvedcount += count;
+            approvedsum = approvedsum.add(times(amount, count));
+            if (company != null) {
+                company.approved(count, amount);
+            }
+        }
+
+        private static BigDecimal times(BigDecimal amount, long count) {
+            return amount == null ? BigDecimal.ZERO : amount.multiply(BigDecimal.valueOf(count));
+        }
+
+        private boolean isEmpty() {
+            return pendingcount == 0 && approvedcount == 0
+                    && pendingsum.signum() == 0 && approvedsum.signum() == 0;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.jam.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.jam.data.ReimbursementRepository;
+import com.jam.model.ArchivedReimbursement;
+import com.jam.model.ExportFormat;
+import com.jam.model.Reimbursement;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Represents the export service of the API, which streams
+ * the whole reimbursement ledger out of the database.
+ */
+@Slf4j
+@Service
+public class ExportService {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+
+    private ReimbursementRepository reimbursementRepository;
+    private ObjectMapper mapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${export.fetch-size:1000}")
+    private int fetchSize;
+    @Value("${export.clear-interval:1000}")
+    private int clearInterval;
+
+    public ExportService(ReimbursementRepository reimbursementRepository, ObjectMapper mapper) {
+        this.reimbursementRepository = reimbursementRepository;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Writes every reimbursement request in the repository to the output
+     * stream, followed by the archived ones. Rows are read from a database
+     * cursor and the persistence context is cleared regularly, so memory
+     * use does not grow with the size of the table.
+     * @param format The format to write the reimbursement requests in.
+     * @param out The output stream to write to.
+     * @throws IOException If the output stream could not be written to.
+     */
+    @Transactional(readOnly = true)
+    public void exportReimbursements(ExportFormat format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        if (format == ExportFormat.CSV) {
+            writer.write("id,requestdate,description,amount,approved,resolvedate,userid\n");
+        }
+        long count = 0;
+        try (Stream<Reimbursement> rows = reimbursementRepository.streamAll(fetchSize)) {
+            count = write(writer, format, rows.iterator(), count);
+        }
+        try (Stream<ArchivedReimbursement> rows = reimbursementRepository.streamArchived(fetchSize)) {
+            count = write(writer, format, rows.map(ArchivedReimbursement::toReimbursement).iterator(), count);
+        }
+        writer.flush();
+        log.info("[GET] Exported " + count + " reimbursements as " + format + ".");
+    }
+
+    /**
+     * Writes reimbursement requests as they are read from the database.
+     * @param writer The writer to write to.
+     * @param format The format to write the reimbursement requests in.
+     * @param rows The reimbursement requests.
+     * @param count The number of reimbursement requests written so far.
+     * @return The number of reimbursement requests written.
+     * @throws IOException If the writer could not be written to.
+     */
+    private long write(Writer writer, ExportFormat format, Iterator<Reimbursement> rows, long count)
+            throws IOException {
+        while (rows.hasNext()) {
+            Reimbursement r = rows.next();
+            if (format == ExportFormat.CSV) {
+                writeCsv(writer, r);
+            } else {
+                writeJson(writer, r);
+            }
+            if (++count % clearInterval == 0) {
+                writer.flush();
+                entityManager.clear();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes a reimbursement request as a line of JSON.
+     * @param writer The writer to write to.
+     * @param r The reimbursement request.
+     * @throws IOException If the writer could not be written to.
+     */
+    private void writeJson(Writer writer, Reimbursement r) throws IOException {
+        ObjectNode node = mapper.valueToTree(r);
+        node.put("userid", r.getUser() == null ? null : r.getUser().getId());
+        writer.write(mapper.writeValueAsString(node));
+        writer.write('\n');
+    }
+
+    /**
+     * Writes a reimbursement request as a CSV record.
+     * @param writer The writer to write to.
+     * @param r The reimbursement request.
+     * @throws IOException If the writer could not be written to.
+     */
+    private void writeCsv(Writer writer, Reimbursement r) throws IOException {
+        writer.write(String.valueOf(r.getId()));
+        writer.write(',');
+        writer.write(r.getRequestdate() == null ? "" : DATE_FORMAT.format(r.getRequestdate()));
+        writer.write(',');
+        writer.write(csvField(r.getDescription()));
+        writer.write(',');
+        writer.write(r.getAmount() == null ? "" : r.getAmount().toPlainString());
+        writer.write(',');
+        writer.write(String.valueOf(r.isApproved()));
+        writer.write(',');
+        writer.write(r.getResolvedate() == null ? "" : DATE_FORMAT.format(r.getResolvedate()));
+        writer.write(',');
+        writer.write(r.getUser() == null ? "" : String.valueOf(r.getUser().getId()));
+        writer.write('\n');
+    }
+
+    /**
+     * Quotes a CSV field if it contains a separator, quote or line break.
+     * @param value The value of the field.
+     * @return The CSV field.
+     */
+    static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
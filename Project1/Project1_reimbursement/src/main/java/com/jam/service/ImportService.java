@@ -0,0 +1,416 @@
+package com.jam.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jam.model.ExportFormat;
+import com.jam.model.ImportResult;
+import com.jam.model.ReimbursementSummary;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Represents the import service of the API, which loads reimbursement
+ * requests in bulk, such as the history of a newly onboarded subsidiary,
+ * in the formats the export service writes.
+ */
+@Slf4j
+@Service
+public class ImportService {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+    private static final String INSERT = "insert into reimbursements"
+            + " (requestdate, description, amount, approved, resolvedate, version, user_id)"
+            + " values (?, ?, ?, ?, ?, 0, ?)";
+    private static final int MAX_DESCRIPTION = 255;
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private ObjectMapper mapper;
+    private ExpenseSummaryService expenseSummaryService;
+    private PendingIndex pendingIndex;
+    private ChangeVersions changeVersions;
+    private DescriptionIndex descriptionIndex;
+    private ReportService reportService;
+    private final int chunkSize;
+    private final int maxErrors;
+
+    public ImportService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                         ObjectMapper mapper, ExpenseSummaryService expenseSummaryService,
+                         PendingIndex pendingIndex, ChangeVersions changeVersions,
+                         DescriptionIndex descriptionIndex, ReportService reportService,
+                         @Value("${import.chunk-size:1000}") int chunkSize,
+                         @Value("${import.max-errors:1000}") int maxErrors) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.mapper = mapper;
+        this.expenseSummaryService = expenseSummaryService;
+        this.pendingIndex = pendingIndex;
+        this.changeVersions = changeVersions;
+        this.descriptionIndex = descriptionIndex;
+        this.reportService = reportService;
+        this.chunkSize = chunkSize;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * Imports the reimbursement requests read from the input stream. The
+     * input is parsed as it arrives and the rows are inserted with JDBC
+     * batches, each chunk of rows committing in its own transaction along
+     * with its description terms, so a failed chunk does not undo the
+     * chunks before it. Rows that cannot be parsed or whose owner does
+     * not exist are reported and skipped. No notifications are sent for
+     * imported requests.
+     * @param format The format of the input, with a header line if it is CSV.
+     * @param in The input stream to read from.
+     * @return The number of rows imported and the errors of the rows that were not.
+     * @throws IOException If the input stream could not be read.
+     * @throws IllegalArgumentException If the CSV header is missing a required column.
+     */
+    public ImportResult importReimbursements(ExportFormat format, InputStream in) throws IOException {
+        ImportResult result = new ImportResult(maxErrors);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        List<Row> chunk = new ArrayList<>(chunkSize);
+        boolean pending = false;
+        if (format == ExportFormat.CSV) {
+            CsvReader csv = new CsvReader(reader);
+            Map<String, Integer> columns = readHeader(csv.next());
+            List<String> record;
+            while ((record = nextRecord(csv, result)) != null) {
+                if (record.size() == 1 && record.get(0).isEmpty()) {
+                    continue;
+                }
+                try {
+                    chunk.add(new Row(csv.getLine(), field(record, columns, "requestdate"),
+                            field(record, columns, "description"), field(record, columns, "amount"),
+                            field(record, columns, "approved"), field(record, columns, "resolvedate"),
+                            field(record, columns, "userid")));
+                } catch (IllegalArgumentException e) {
+                    result.failed(csv.getLine(), e.getMessage());
+                }
+                if (chunk.size() == chunkSize) {
+                    pending |= flush(chunk, result);
+                }
+            }
+        } else {
+            String line;
+            long number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    JsonNode node = mapper.readTree(line);
+                    chunk.add(new Row(number, text(node, "requestdate"), text(node, "description"),
+                            text(node, "amount"), text(node, "approved"), text(node, "resolvedate"),
+                            text(node, "userid")));
+                } catch (JsonProcessingException e) {
+                    result.failed(number, "Malformed JSON: " + e.getOriginalMessage());
+                } catch (IllegalArgumentException e) {
+                    result.failed(number, e.getMessage());
+                }
+                if (chunk.size() == chunkSize) {
+                    pending |= flush(chunk, result);
+                }
+            }
+        }
+        pending |= flush(chunk, result);
+        if (pending) {
+            // Imported ids are only known to the database, so the index is read back
+            pendingIndex.rebuild();
+        }
+        log.info("[POST] Imported " + result.getImported() + " reimbursements from " + format + ", "
+                + result.getFailed() + " rows failed.");
+        return result;
+    }
+
+    /**
+     * Inserts a chunk of rows in one transaction, together with the change
+     * to the expense summaries, and empties the chunk.
+     * @param chunk The rows to insert.
+     * @param result The outcome of the import, updated with the outcome of the chunk.
+     * @return True if any pending request was inserted.
+     */
+    private boolean flush(List<Row> chunk, ImportResult result) {
+        if (chunk.isEmpty()) {
+            return false;
+        }
+        Set<Long> owners = existingUsers(chunk);
+        List<Row> rows = new ArrayList<>(chunk.size());
+        for (Row row : chunk) {
+            if (owners.contains(row.userid)) {
+                rows.add(row);
+            } else {
+                result.failed(row.line, "User " + row.userid + " does not exist");
+            }
+        }
+        chunk.clear();
+        if (rows.isEmpty()) {
+            return false;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<Long> ids = insert(rows);
+                if (ids.size() != rows.size()) {
+                    throw new IncorrectResultSizeDataAccessException("Missing generated ids", rows.size(), ids.size());
+                }
+                Map<Long, String> descriptions = new LinkedHashMap<>();
+                for (int i = 0; i < rows.size(); i++) {
+                    descriptions.put(ids.get(i), rows.get(i).description);
+                }
+                descriptionIndex.index(descriptions);
+                expenseSummaryService.imported(rows);
+                changeVersions.changed(owners);
+                reportService.changed(rows.stream().map(Row::getRequestdate).collect(Collectors.toList()));
+            });
+        } catch (DataAccessException e) {
+            log.warn("[POST] Could not import a chunk of " + rows.size() + " reimbursements: "
+                    + e.getMostSpecificCause().getMessage());
+            for (Row row : rows) {
+                result.failed(row.line, "Not imported: " + e.getMostSpecificCause().getMessage());
+            }
+            return false;
+        }
+        result.imported(rows.size());
+        return rows.stream().anyMatch(Row::isPending);
+    }
+
+    /**
+     * Inserts rows in one JDBC batch.
+     * @param rows The rows to insert.
+     * @return The ids the database gave the rows, in the order of the rows.
+     */
+    private List<Long> insert(List<Row> rows) {
+        return jdbcTemplate.execute((ConnectionCallback<List<Long>>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(INSERT, Statement.RETURN_GENERATED_KEYS)) {
+                for (Row row : rows) {
+                    ps.setDate(1, Date.valueOf(row.requestdate));
+                    ps.setString(2, row.description);
+                    ps.setBigDecimal(3, row.amount);
+                    ps.setBoolean(4, row.approved);
+                    if (row.resolvedate == null) {
+                        ps.setNull(5, Types.DATE);
+                    } else {
+                        ps.setDate(5, Date.valueOf(row.resolvedate));
+                    }
+                    ps.setLong(6, row.userid);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                List<Long> ids = new ArrayList<>(rows.size());
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        ids.add(keys.getLong(1));
+                    }
+                }
+                return ids;
+            }
+        });
+    }
+
+    /**
+     * Finds which of the owners of a chunk of rows exist, so that rows of
+     * unknown users are reported instead of failing the whole batch.
+     * @param chunk The rows.
+     * @return The ids of the owners that exist.
+     */
+    private Set<Long> existingUsers(List<Row> chunk) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Row row : chunk) {
+            ids.add(row.userid);
+        }
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        return new HashSet<>(jdbcTemplate.queryForList("select id from users where id in (" + placeholders + ")",
+                Long.class, ids.toArray()));
+    }
+
+    /**
+     * Reads the next CSV record, counting a record with an unclosed quote,
+     * which runs to the end of the input, as failed.
+     * @param csv The CSV reader.
+     * @param result The outcome of the import.
+     * @return The fields of the record, or null at the end of the input.
+     * @throws IOException If the input could not be read.
+     */
+    private static List<String> nextRecord(CsvReader csv, ImportResult result) throws IOException {
+        try {
+            return csv.next();
+        } catch (IllegalArgumentException e) {
+            result.failed(csv.getLine(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Finds the columns of a CSV import from its header.
+     * @param header The fields of the header line.
+     * @return The index of each column, by lower case name.
+     * @throws IllegalArgumentException If a required column is missing.
+     */
+    private static Map<String, Integer> readHeader(List<String> header) {
+        Map<String, Integer> columns = new HashMap<>();
+        if (header != null) {
+            for (int i = 0; i < header.size(); i++) {
+                columns.put(header.get(i).trim().toLowerCase(), i);
+            }
+        }
+        for (String column : new String[]{"requestdate", "description", "amount", "userid"}) {
+            if (!columns.containsKey(column)) {
+                throw new IllegalArgumentException("The CSV header has no " + column + " column");
+            }
+        }
+        return columns;
+    }
+
+    private static String field(List<String> record, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index == null || index >= record.size() ? null : record.get(index);
+    }
+
+    private static String text(JsonNode node, String name) {
+        JsonNode value = node.get(name);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * A reimbursement request read from an import, checked
+     * to fit the columns of the reimbursements table.
+     */
+    private static class Row implements ReimbursementSummary {
+        private final long line;
+        private final LocalDate requestdate;
+        private final String description;
+        private final BigDecimal amount;
+        private final boolean approved;
+        private final LocalDate resolvedate;
+        private final Long userid;
+
+        /**
+         * Reads a row from its fields as text.
+         * @throws IllegalArgumentException If a field is missing or not valid.
+         */
+        private Row(long line, String requestdate, String description, String amount,
+                    String approved, String resolvedate, String userid) {
+            this.line = line;
+            this.requestdate = date("requestdate", requestdate);
+            if (this.requestdate == null) {
+                throw new IllegalArgumentException("Missing requestdate");
+            }
+            if (description != null && description.length() > MAX_DESCRIPTION) {
+                throw new IllegalArgumentException("The description is longer than " + MAX_DESCRIPTION + " characters");
+            }
+            this.description = description;
+            if (isBlank(amount)) {
+                throw new IllegalArgumentException("Missing amount");
+            }
+            try {
+                this.amount = new BigDecimal(amount.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not an amount: " + amount);
+            }
+            if (this.amount.signum() < 0) {
+                throw new IllegalArgumentException("Negative amount: " + amount);
+            }
+            if (isBlank(approved) || approved.trim().equalsIgnoreCase("false")) {
+                this.approved = false;
+            } else if (approved.trim().equalsIgnoreCase("true")) {
+                this.approved = true;
+            } else {
+                throw new IllegalArgumentException("Not true or false: " + approved);
+            }
+            LocalDate resolved = date("resolvedate", resolvedate);
+            // Approved history without a resolve date is taken as resolved on the day it was requested
+            this.resolvedate = resolved == null && this.approved ? this.requestdate : resolved;
+            if (isBlank(userid)) {
+                throw new IllegalArgumentException("Missing userid");
+            }
+            try {
+                this.userid = Long.valueOf(userid.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a user id: " + userid);
+            }
+        }
+
+        private static LocalDate date(String name, String value) {
+            if (isBlank(value)) {
+                return null;
+            }
+            try {
+                return LocalDate.parse(value.trim(), DATE_FORMAT);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Not a MM/dd/yyyy " + name + ": " + value);
+            }
+        }
+
+        private static boolean isBlank(String value) {
+            return value == null || value.trim().isEmpty();
+        }
+
+        @Override
+        public Long getId() {
+            return null;
+        }
+
+        @Override
+        public Long getUserid() {
+            return userid;
+        }
+
+        @Override
+        public LocalDate getRequestdate() {
+            return requestdate;
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+
+        @Override
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        @Override
+        public Boolean getApproved() {
+            return approved;
+        }
+
+        @Override
+        public LocalDate getResolvedate() {
+            return resolvedate;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.jam.service;
+
+import com.jam.data.OutboxRepository;
+import com.jam.model.OutboxEmail;
+import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementSummary;
+import com.jam.model.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Represents the notification service of the API.
+ * Notifications are written to the email outbox in the
+ * same transaction as the change they describe, and are
+ * sent out later by the {@link EmailDispatcher}. Each email is
+ * held back for the coalescing window so that notifications sent
+ * to the same user in quick succession go out as one digest.
+ */
+@Slf4j
+@Service
+public class NotificationService {
+    private OutboxRepository outboxRepository;
+    private Duration coalesceWindow;
+
+    public NotificationService(OutboxRepository outboxRepository,
+                               @Value("${email-outbox.coalesce-window:30s}") Duration coalesceWindow) {
+        this.outboxRepository = outboxRepository;
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    /**
+     * Notifies an employee that their new reimbursement request has been created.
+     * @param user The employee who owns the reimbursement request.
+     */
+    @Transactional
+    public void reimbursementSubmitted(User user) {
+        notify(user, "New Reimbursement Request Created",
+                "Your new reimbursement request is under pending review.");
+    }
+
+    /**
+     * Notifies the owner of a reimbursement request that it has been approved.
+     * @param r The approved reimbursement request.
+     */
+    @Transactional
+    public void reimbursementApproved(Reimbursement r) {
+        notify(r.getUser(), "Reimbursement request approved",
+                "Your reimbursement request has been approved.\n" +
+                        "Details:\nID:" + r.getId() + "\nDescription: " + r.getDescription() +
+                        "\nAmount: $" + r.getAmount());
+    }
+
+    /**
+     * Notifies the owner of a reimbursement request that it has been denied.
+     * @param r The denied reimbursement request.
+     */
+    @Transactional
+    public void reimbursementDenied(Reimbursement r) {
+        notify(r.getUser(), "Reimbursement request denied",
+                "Your reimbursement request has been denied.\n" +
+                        "Details:\nID: " + r.getId() + "\nDescription" + r.getDescription() +
+                        "\nAmount: $" + r.getAmount());
+    }
+
+    /**
+     * Notifies the old and new owners of a reimbursement request that it has been reassigned.
+     * @param r The reassigned reimbursement request.
+     * @param old The previous owner of the reimbursement request.
+     * @param newUser The new owner of the reimbursement request.
+     */
+    @Transactional
+    public void reimbursementReassigned(Reimbursement r, User old, User newUser) {
+        notify(old, "Reimbursement request reassigned",
+                "Your reimbursement request has been reassigned to " + newUser.getName() +
+                        "\nDetails:\nID: " + r.getId() + "\nDescription: " + r.getDescription() +
+                        "\nAmount: $" + r.getAmount());
+        notify(newUser, "New reimbursement request reassigned to you",
+                "A new reimbursement request has been reassigned to you." +
+                        "\nDetails:\nID: " + r.getId() + "\nDescription: " + r.getDescription() +
+                        "\nAmount: $" + r.getAmount());
+    }
+
+    /**
+     * Notifies an employee that a batch of their reimbursement requests has been approved.
+     * @param user The employee who owns the reimbursement requests.
+     * @param rs The approved reimbursement requests.
+     */
+    @Transactional
+    public void reimbursementsApproved(User user, List<ReimbursementSummary> rs) {
+        notify(user, "Reimbursement requests approved",
+                "The following reimbursement requests have been approved:\n" + details(rs));
+    }
+
+    /**
+     * Notifies an employee that a batch of their reimbursement requests has been denied.
+     * @param user The employee who owns the reimbursement requests.
+     * @param rs The denied reimbursement requests.
+     */
+    @Transactional
+    public void reimbursementsDenied(User user, List<ReimbursementSummary> rs) {
+        notify(user, "Reimbursement requests denied",
+                "The following reimbursement requests have been denied:\n" + details(rs));
+    }
+
+    /**
+     * Notifies an employee that a batch of their reimbursement requests has been reassigned.
+     * @param old The previous owner of the reimbursement requests.
+     * @param newUser The new owner of the reimbursement requests.
+     * @param rs The reassigned reimbursement requests.
+     */
+    @Transactional
+    public void reimbursementsReassigned(User old, User newUser, List<ReimbursementSummary> rs) {
+        notify(old, "Reimbursement requests reassigned",
+                "The following reimbursement requests have been reassigned to " + newUser.getName() +
+                        ":\n" + details(rs));
+    }
+
+    /**
+     * Notifies an employee that a batch of reimbursement requests has been reassigned to them.
+     * @param newUser The new owner of the reimbursement requests.
+     * @param rs The reassigned reimbursement requests.
+     */
+    @Transactional
+    public void reimbursementsReassignedToYou(User newUser, List<ReimbursementSummary> rs) {
+        notify(newUser, "New reimbursement requests reassigned to you",
+                "The following reimbursement requests have been reassigned to you:\n" + details(rs));
+    }
+
+    /**
+     * Lists the details of reimbursement requests, one per line.
+     * @param rs The reimbursement requests.
+     * @return The details of the reimbursement requests.
+     */
+    private static String details(List<ReimbursementSummary> rs) {
+        StringBuilder sb = new StringBuilder();
+        for (ReimbursementSummary r : rs) {
+            sb.append("ID: ").append(r.getId())
+                    .append(", Description: ").append(r.getDescription())
+                    .append(", Amount: $").append(r.getAmount()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes an email to the outbox if the user is subscribed to notifications.
+     * @param user The user to notify.
+     * @param subject The subject of the email.
+     * @param body The body contents of the email.
+     */
+    private void notify(User user, String subject, String body) {
+        if (!user.isNotify()) {
+            return;
+        }
+        outboxRepository.save(new OutboxEmail(user.getEmail(), subject, body, coalesceWindow));
+        log.info("[OUTBOX] Email queued for " + user.getEmail() + ": " + subject);
+    }
+}
@@ -0,0 +1,241 @@
+package com.jam.service;
+
+import com.jam.data.ReimbursementRepository;
+import com.jam.model.PendingReimbursement;
+import com.jam.model.ReimbursementCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory index of the reimbursement requests waiting for review,
+ * ordered by request date and grouped by owner. It is loaded from the
+ * repository at startup and kept current by the reimbursement service,
+ * which applies each change once its transaction has committed.
+ */
+@Slf4j
+@Component
+public class PendingIndex {
+    private static final Comparator<LocalDate> DATES = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private ReimbursementRepository reimbursementRepository;
+    private volatile State state = new State();
+    private volatile boolean loaded;
+
+    public PendingIndex(ReimbursementRepository reimbursementRepository) {
+        this.reimbursementRepository = reimbursementRepository;
+    }
+
+    /**
+     * Checks whether the index has been loaded from the repository.
+     * @return True if the index can serve reads.
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        return state.byId.size();
+    }
+
+    /**
+     * Loads the index when the application starts.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        Map<String, Integer> result = rebuild();
+        log.info("[PENDING] Loaded " + result.get("indexed") + " pending reimbursements.");
+    }
+
+    /**
+     * Reloads the index from the repository and compares it with what
+     * was indexed before, so that drift can be spotted and repaired.
+     * @return The number of requests indexed, and how many were missing from
+     * or no longer pending in the previous index.
+     */
+    public synchronized Map<String, Integer> rebuild() {
+        // Changes committed while the repository is read wait for the lock and are applied to the new state
+        boolean wasLoaded = loaded;
+        State fresh = new State();
+        for (PendingReimbursement r : reimbursementRepository.findPending()) {
+            fresh.add(r);
+        }
+        State old = state;
+        int missing = 0;
+        for (Long id : fresh.byId.keySet()) {
+            if (!old.byId.containsKey(id)) {
+                missing++;
+            }
+        }
+        int stale = 0;
+        for (Long id : old.byId.keySet()) {
+            if (!fresh.byId.containsKey(id)) {
+                stale++;
+            }
+        }
+        state = fresh;
+        loaded = true;
+        Map<String, Integer> result = new LinkedHashMap<>();
+        result.put("indexed", fresh.byId.size());
+        result.put("missing", wasLoaded ? missing : 0);
+        result.put("stale", stale);
+        if (missing > 0 || stale > 0) {
+            log.warn("[PENDING] Rebuild found " + missing + " missing and " + stale + " stale reimbursements.");
+        }
+        return result;
+    }
+
+    /**
+     * Gets a page of the pending reimbursement requests, oldest first.
+     * @param owner The id of the owner to list, or null for every owner.
+     * @param after The position of the last request of the previous page, or null for the first page.
+     * @param limit The maximum number of requests to return.
+     * @return The page of pending reimbursement requests.
+     */
+    public List<PendingReimbursement> getPage(Long owner, ReimbursementCursor after, int limit) {
+        State current = state;
+        NavigableMap<Key, PendingReimbursement> entries = owner == null ? current.all : current.byOwner.get(owner);
+        List<PendingReimbursement> page = new ArrayList<>();
+        if (entries == null) {
+            return page;
+        }
+        if (after != null) {
+            entries = entries.tailMap(new Key(after.getRequestdate(), after.getId()), false);
+        }
+        for (PendingReimbursement r : entries.values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(r);
+        }
+        return page;
+    }
+
+    /**
+     * Checks whether any pending reimbursement request was made in a range of dates.
+     * @param from The first date of the range.
+     * @param to The first date after the range.
+     * @return True if a request made in the range is pending.
+     */
+    public boolean hasPendingBetween(LocalDate from, LocalDate to) {
+        return !state.all.subMap(new Key(from, Long.MIN_VALUE), new Key(to, Long.MIN_VALUE)).isEmpty();
+    }
+
+    /**
+     * Adds a newly submitted reimbursement request once the transaction commits.
+     * @param r The new reimbursement request.
+     */
+    public void added(PendingReimbursement r) {
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                state.add(r);
+            }
+        });
+    }
+
+    /**
+     * Removes approved or denied reimbursement requests once the transaction commits.
+     * @param ids The ids of the reimbursement requests.
+     */
+    public void removed(Collection<Long> ids) {
+        Set<Long> copy = new HashSet<>(ids);
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                for (Long id : copy) {
+                    state.remove(id);
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves reassigned reimbursement requests to their new owner once the
+     * transaction commits. Requests that are not pending are ignored.
+     * @param ids The ids of the reimbursement requests.
+     * @param newuserid The id of the new owner.
+     */
+    public void reassigned(Collection<Long> ids, Long newuserid) {
+        Set<Long> copy = new HashSet<>(ids);
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                for (Long id : copy) {
+                    PendingReimbursement r = state.remove(id);
+                    if (r != null) {
+                        state.add(r.withUserid(newuserid));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * The position of a reimbursement request in the index.
+     */
+    private static class Key implements Comparable<Key> {
+        private final LocalDate requestdate;
+        private final long id;
+
+        private Key(LocalDate requestdate, long id) {
+            this.requestdate = requestdate;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = DATES.compare(requestdate, o.requestdate);
+            return c != 0 ? c : Long.compare(id, o.id);
+        }
+    }
+
+    /**
+     * The contents of the index, replaced as a whole on rebuild.
+     */
+    private static class State {
+        private final ConcurrentSkipListMap<Key, PendingReimbursement> all = new ConcurrentSkipListMap<>();
+        private final Map<Long, ConcurrentSkipListMap<Key, PendingReimbursement>> byOwner = new ConcurrentHashMap<>();
+        private final Map<Long, PendingReimbursement> byId = new ConcurrentHashMap<>();
+
+        private void add(PendingReimbursement r) {
+            remove(r.getId());
+            Key key = new Key(r.getRequestdate(), r.getId());
+            byId.put(r.getId(), r);
+            all.put(key, r);
+            if (r.getUserid() != null) {
+                byOwner.computeIfAbsent(r.getUserid(), k -> new ConcurrentSkipListMap<>()).put(key, r);
+            }
+        }
+
+        private PendingReimbursement remove(Long id) {
+            PendingReimbursement r = byId.remove(id);
+            if (r == null) {
+                return null;
+            }
+            Key key = new Key(r.getRequestdate(), r.getId());
+            all.remove(key);
+            if (r.getUserid() != null) {
+                Map<Key, PendingReimbursement> owned = byOwner.get(r.getUserid());
+                if (owned != null) {
+                    owned.remove(key);
+                    if (owned.isEmpty()) {
+                        byOwner.remove(r.getUserid());
+                    }
+                }
+            }
+            return r;
+        }
+    }
+}
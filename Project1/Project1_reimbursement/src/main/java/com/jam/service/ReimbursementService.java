@@ -1,12 +1,41 @@
 package com.jam.service;
 
 import com.jam.data.ReimbursementRepository;
+import com.jam.data.UserRepository;
+import com.jam.model.ArchivedReimbursement;
+import com.jam.model.BatchAction;
+import com.jam.model.BatchRequest;
+import com.jam.model.BatchResult;
+import com.jam.model.PendingReimbursement;
 import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementCursor;
+import com.jam.model.ReimbursementFilter;
+import com.jam.model.ReimbursementPage;
+import com.jam.model.ReimbursementSort;
+import com.jam.model.ReimbursementSummary;
+import com.jam.model.ReimbursementView;
 import com.jam.model.User;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityNotFoundException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Represents the reimbursement services
@@ -16,9 +45,38 @@ import java.util.List;
 @Slf4j
 public class ReimbursementService {
     private ReimbursementRepository reimbursementRepository;
+    private UserRepository userRepository;
+    private NotificationService notificationService;
+    private ExpenseSummaryService expenseSummaryService;
+    private PendingIndex pendingIndex;
+    private ChangeVersions changeVersions;
+    private DescriptionIndex descriptionIndex;
+    private ArchiveService archiveService;
+    private ReportService reportService;
 
-    public ReimbursementService(ReimbursementRepository reimbursementRepository) {
+    @Value("${reimbursement.page.max-size:200}")
+    private int maxPageSize;
+    @Value("${reimbursement.batch.max-size:500}")
+    private int maxBatchSize;
+
+    public ReimbursementService(ReimbursementRepository reimbursementRepository,
+                                UserRepository userRepository,
+                                NotificationService notificationService,
+                                ExpenseSummaryService expenseSummaryService,
+                                PendingIndex pendingIndex,
+                                ChangeVersions changeVersions,
+                                DescriptionIndex descriptionIndex,
+                                ArchiveService archiveService,
+                                ReportService reportService) {
         this.reimbursementRepository = reimbursementRepository;
+        this.userRepository = userRepository;
+        this.notificationService = notificationService;
+        this.expenseSummaryService = expenseSummaryService;
+        this.pendingIndex = pendingIndex;
+        this.changeVersions = changeVersions;
+        this.descriptionIndex = descriptionIndex;
+        this.archiveService = archiveService;
+        this.reportService = reportService;
     }
 
     /**
@@ -32,75 +90,361 @@ public class ReimbursementService {
     }
 
     /**
-     * Gets the list of reimbursement requests that a user has.
+     * Gets a page of the reimbursement requests that a user has, newest first,
+     * followed by the user's archived requests, both read from the same snapshot.
+     * @param requester The user who requested the information.
+     * @param page The number of the page, starting from 0.
+     * @param size The requested number of reimbursement requests, capped at the maximum page size.
+     * @return The page of reimbursement requests that requester has.
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public List<ReimbursementView> getUserReimbursements(User requester, int page, int size) {
+        log.info("[GET] User " + requester.getId() + " took a look at his reimbursements.");
+        int limit = Math.max(1, Math.min(size, maxPageSize));
+        int number = Math.max(page, 0);
+        List<ReimbursementView> views = reimbursementRepository.findViewsByUserId(requester.getId(),
+                PageRequest.of(number, limit));
+        if (views.size() == limit || !archiveService.mayHold(null)) {
+            return views;
+        }
+        // Archived requests are old and settled, so they are listed after the ones still in the table
+        long offset = (long) number * limit;
+        long live = views.isEmpty() ? reimbursementRepository.countByUserId(requester.getId()) : offset + views.size();
+        List<ReimbursementView> combined = new ArrayList<>(views);
+        combined.addAll(reimbursementRepository.findArchivedViewsByUserId(requester.getId(),
+                Math.max(0, offset - live), limit - views.size()));
+        return combined;
+    }
+
+    /**
+     * Gets a page of the reimbursement requests in the repository
+     * that match the filter, including archived requests. The table and
+     * the archive are read from the same snapshot, so a request archived
+     * between the two reads is not listed twice.
      * @param requester The user who requested the information.
-     * @return The list of reimbursement requests that requester has.
+     * @param filter The filters and order of the listing.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param size The requested number of reimbursement requests, capped at the maximum page size.
+     * @return The page of reimbursement requests and the cursor of the next page, if any.
      */
-    public List<Reimbursement> getUserReimbursements(User requester) {
-        log.info("[GET] User " + requester.getName() + " took a look at all his reimbursements.");
-        return requester.getReimbursements();
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public ReimbursementPage<Reimbursement> getAllReimbursements(User requester, ReimbursementFilter filter,
+                                                  String after, int size) {
+        ReimbursementCursor cursor = after == null ? null : ReimbursementCursor.decode(after);
+        if (cursor != null && filter.getSort() == ReimbursementSort.REQUESTDATE && cursor.getRequestdate() == null) {
+            throw new IllegalArgumentException("Cursor does not belong to a request date listing.");
+        }
+        int limit = Math.max(1, Math.min(size, maxPageSize));
+        List<Reimbursement> page = reimbursementRepository.findPage(filter, cursor, limit + 1);
+        if (archiveService.mayHold(filter.getFrom())) {
+            page = withArchived(page, filter, cursor, limit + 1);
+        }
+        String next = null;
+        if (page.size() > limit) {
+            page = page.subList(0, limit);
+            Reimbursement last = page.get(limit - 1);
+            next = new ReimbursementCursor(last.getId(), last.getRequestdate()).encode();
+        }
+        log.info("[GET] Manager " + requester.getId() + " grabbed a page of " + page.size() + " reimbursements.");
+        return new ReimbursementPage<>(page, next);
     }
 
     /**
-     * Gets all the reimbursement requests in the repository.
+     * Merges the matching archived requests into a page of the requests in the
+     * table. Both are read after the same cursor in the same order, so the
+     * first requests of the two together make up the page. Requests already
+     * on the page are skipped, in case a database does not give both reads
+     * the same snapshot.
+     * @param page The page of requests in the table.
+     * @param filter The filters and order of the listing.
+     * @param cursor The cursor of the previous page, or null for the first page.
+     * @param limit The maximum number of reimbursement requests to return.
+     * @return The merged page.
+     */
+    private List<Reimbursement> withArchived(List<Reimbursement> page, ReimbursementFilter filter,
+                                             ReimbursementCursor cursor, int limit) {
+        List<Reimbursement> merged = new ArrayList<>(page);
+        Set<Long> ids = new HashSet<>();
+        for (Reimbursement r : page) {
+            ids.add(r.getId());
+        }
+        for (ArchivedReimbursement a : reimbursementRepository.findArchivedPage(filter, cursor, limit)) {
+            if (ids.add(a.getId())) {
+                merged.add(a.toReimbursement());
+            }
+        }
+        Comparator<Reimbursement> order = Comparator.comparing(Reimbursement::getId);
+        if (filter.getSort() == ReimbursementSort.REQUESTDATE) {
+            order = Comparator.comparing(Reimbursement::getRequestdate).thenComparing(order);
+        }
+        merged.sort(order);
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
+    /**
+     * Gets a page of the reimbursement requests waiting for review, oldest
+     * first, from the in-memory pending index without querying the repository.
      * @param requester The user who requested the information.
-     * @return The list of all reimbursement requests in the repository.
+     * @param owner The id of the owner to list, or null for every owner.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param size The requested number of reimbursement requests, capped at the maximum page size.
+     * @return The page of pending reimbursement requests and the cursor of the next page, if any.
+     * @throws IllegalStateException If the pending index has not been loaded yet.
      */
-    public List<Reimbursement> getAllReimbursements(User requester) {
-        log.info("[GET] Manager " + requester.getName() + " grabbed all reimbursements.");
-        return reimbursementRepository.findAll();
+    public ReimbursementPage<PendingReimbursement> getPendingReimbursements(User requester, Long owner,
+                                                                         String after, int size) {
+        if (!pendingIndex.isLoaded()) {
+            throw new IllegalStateException("The pending index has not been loaded yet.");
+        }
+        ReimbursementCursor cursor = after == null ? null : ReimbursementCursor.decode(after);
+        int limit = Math.max(1, Math.min(size, maxPageSize));
+        List<PendingReimbursement> page = pendingIndex.getPage(owner, cursor, limit + 1);
+        String next = null;
+        if (page.size() > limit) {
+            page = page.subList(0, limit);
+            PendingReimbursement last = page.get(limit - 1);
+            next = new ReimbursementCursor(last.getId(), last.getRequestdate()).encode();
+        }
+        log.info("[GET] Manager " + requester.getId() + " grabbed " + page.size() + " pending reimbursements.");
+        return new ReimbursementPage<>(page, next);
     }
 
     /**
-     * Saves a new reimbursement request into the repository.
+     * Saves a new reimbursement request into the repository, counts
+     * it in the expense summaries and queues the notification email
+     * for its owner.
      * @param user The user who owns the reimbursement request.
      * @param reimbursement The information of the reimbursement request.
      * @return The reimbursement request with its unique ID given by the repository.
      */
+    @Transactional
     public Reimbursement submitReimbursementRequest(User user, Reimbursement reimbursement) {
-        user.getReimbursements().add(reimbursement);
-        reimbursement.setUser(user);
+        // The authenticated user is detached, the request only needs a reference for its owner
+        reimbursement.setUser(userRepository.getById(user.getId()));
         log.info("[POST] User " + user.getName() + " has a new reimbursement request.");
-        return reimbursementRepository.save(reimbursement);
+        Reimbursement saved = reimbursementRepository.save(reimbursement);
+        expenseSummaryService.submitted(user.getId(), saved.getAmount());
+        descriptionIndex.index(Collections.singletonMap(saved.getId(), saved.getDescription()));
+        pendingIndex.added(new PendingReimbursement(saved.getId(), user.getId(), saved.getRequestdate(),
+                saved.getDescription(), saved.getAmount()));
+        changeVersions.changed(Collections.singleton(user.getId()));
+        reportService.changed(Collections.singleton(saved.getRequestdate()));
+        notificationService.reimbursementSubmitted(user);
+        return saved;
     }
 
     /**
-     * Approve a reimbursement request.
+     * Approve a pending or denied reimbursement request in one conditional
+     * update and queue the notification email for its owner.
      * @param r_id The unique ID of the reimbursement request.
      * @param manager The manager who issued the approval.
+     * @param version The version of the request the manager saw, or null to skip the version check.
      * @return The new information of the reimbursement request.
+     * @throws EntityNotFoundException If the reimbursement request does not exist.
+     * @throws OptimisticLockingFailureException If the request is already approved or no longer at the version.
      */
-    public Reimbursement approveReimbursement(Long r_id, User manager) {
-        Reimbursement r = reimbursementRepository.getById(r_id);
-        r.setApproved(true);
-        log.info("[PUT] Manager " + manager.getName() + " has approved reimbursement with id " + r_id);
-        return reimbursementRepository.save(r);
+    @Transactional
+    public Reimbursement approveReimbursement(Long r_id, User manager, Long version) {
+        Reimbursement r = resolve(r_id, true, version);
+        log.info("[PUT] Manager " + manager.getId() + " has approved reimbursement with id " + r_id);
+        notificationService.reimbursementApproved(r);
+        return r;
     }
 
     /**
-     * Deny a reimbursement request.
+     * Deny a pending or approved reimbursement request in one conditional
+     * update and queue the notification email for its owner.
      * @param r_id The unique ID of the reimbursement request.
      * @param manager The manager who issued the denial.
+     * @param version The version of the request the manager saw, or null to skip the version check.
      * @return The new information of the reimbursement request.
+     * @throws EntityNotFoundException If the reimbursement request does not exist.
+     * @throws OptimisticLockingFailureException If the request is already denied or no longer at the version.
      */
-    public Reimbursement denyReimbursement(Long r_id, User manager) {
-        Reimbursement r = reimbursementRepository.getById(r_id);
-        r.setApproved(false);
-        log.info("[PUT] Manager " + manager.getName() + " has denied reimbursement with id " + r_id);
-        return reimbursementRepository.save(r);
+    @Transactional
+    public Reimbursement denyReimbursement(Long r_id, User manager, Long version) {
+        Reimbursement r = resolve(r_id, false, version);
+        log.info("[PUT] Manager " + manager.getId() + " has denied reimbursement with id " + r_id);
+        notificationService.reimbursementDenied(r);
+        return r;
     }
 
     /**
-     * Reassign a reimbursement request to a new user.
+     * Reassign a reimbursement request to a new user in one conditional update,
+     * move it between the expense summaries of the old and new owners and
+     * queue the notification emails for them. The request is read for its old
+     * owner, amount and status, which the summaries need, and the new owner is
+     * read for its address; the update is guarded by the version that was read.
      * @param r_id The unique ID of the reimbursement request.
      * @param manager The manager who issued the reassignment.
-     * @param newUser The new user to reassign the reimbursement to.
+     * @param newuserid The ID of the new user to reassign the reimbursement to.
+     * @param version The version of the request the manager saw, or null to use the current version.
      * @return The new information of the reimbursement request.
+     * @throws EntityNotFoundException If the reimbursement request or the new user does not exist.
+     * @throws OptimisticLockingFailureException If the request is no longer at the version.
      */
-    public Reimbursement reassignReimbursement(Long r_id, User manager, User newUser) {
-        Reimbursement r = reimbursementRepository.getById(r_id);
+    @Transactional
+    public Reimbursement reassignReimbursement(Long r_id, User manager, Long newuserid, Long version) {
+        Reimbursement r = reimbursementRepository.findWithUserById(r_id)
+                .orElseThrow(() -> new EntityNotFoundException("No reimbursement with id " + r_id));
+        User newUser = userRepository.findById(newuserid)
+                .orElseThrow(() -> new EntityNotFoundException("No user with id " + newuserid));
+        long seen = version != null ? version : r.getVersion();
+        if (reimbursementRepository.reassign(r_id, newUser, seen) == 0) {
+            throw new OptimisticLockingFailureException("Reimbursement " + r_id + " is no longer at version " + seen);
+        }
+        User old = r.getUser();
+        expenseSummaryService.reassigned(old != null ? old.getId() : null, newUser.getId(), r.getAmount(),
+                r.isPending(), r.isApproved());
+        if (r.isPending()) {
+            pendingIndex.reassigned(Collections.singleton(r_id), newUser.getId());
+        }
+        changeVersions.changed(Arrays.asList(old != null ? old.getId() : null, newUser.getId()));
+        reportService.changed(Collections.singleton(r.getRequestdate()));
         r.setUser(newUser);
-        log.info("[PUT] Manager " + manager.getName() + " has reassigned reimbursement with id " + r_id);
-        return reimbursementRepository.save(r);
+        r.setVersion(seen + 1);
+        log.info("[PUT] Manager " + manager.getId() + " has reassigned reimbursement with id " + r_id);
+        notificationService.reimbursementReassigned(r, old, newUser);
+        return r;
+    }
+
+    /**
+     * Approves or denies a reimbursement request. It is read once, for the
+     * amount and owner that the summaries and the notification need, and then
+     * updated with a single statement guarded by the version that was read.
+     * As before, a denied request can still be approved and an approved one
+     * denied, but approving an approved or denying a denied request conflicts.
+     * @param r_id The unique ID of the reimbursement request.
+     * @param approved Whether the reimbursement request is approved.
+     * @param version The version of the request the manager saw, or null to skip the version check.
+     * @return The new information of the reimbursement request.
+     */
+    private Reimbursement resolve(Long r_id, boolean approved, Long version) {
+        Reimbursement r = reimbursementRepository.findWithUserById(r_id)
+                .orElseThrow(() -> new EntityNotFoundException("No reimbursement with id " + r_id));
+        boolean pending = r.isPending();
+        boolean denied = !r.isApproved() && !pending;
+        if (version != null && version != r.getVersion()) {
+            throw new OptimisticLockingFailureException("Reimbursement " + r_id + " is no longer at version " + version);
+        }
+        if (approved ? r.isApproved() : denied) {
+            throw new OptimisticLockingFailureException("Reimbursement " + r_id + " is already "
+                    + (approved ? "approved" : "denied"));
+        }
+        LocalDate resolvedate = LocalDate.now();
+        if (reimbursementRepository.resolve(r_id, approved, resolvedate, r.getVersion()) == 0) {
+            throw new OptimisticLockingFailureException("Reimbursement " + r_id + " changed while it was resolved");
+        }
+        Long userid = r.getUser() != null ? r.getUser().getId() : null;
+        expenseSummaryService.resolved(userid, r.getAmount(), pending, approved);
+        if (pending) {
+            pendingIndex.removed(Collections.singleton(r_id));
+        }
+        changeVersions.changed(Collections.singleton(userid));
+        reportService.changed(Collections.singleton(r.getRequestdate()));
+        r.setApproved(approved);
+        r.setResolvedate(resolvedate);
+        r.setVersion(r.getVersion() + 1);
+        return r;
+    }
+
+    /**
+     * Applies an action to a batch of reimbursement requests in one
+     * transaction, using one bulk update for the whole batch and
+     * queueing one summary notification per affected employee.
+     * @param manager The manager who issued the batch.
+     * @param batch The action and the ids of the reimbursement requests.
+     * @return The outcome of the action for each reimbursement request, in the order of the batch.
+     * @throws IllegalArgumentException If the batch is empty, too large or names an unknown new owner.
+     * @throws OptimisticLockingFailureException If a request was resolved by someone else during the batch.
+     */
+    @Transactional
+    public List<BatchResult> applyBatch(User manager, BatchRequest batch) {
+        Set<Long> ids = new LinkedHashSet<>(batch.getIds());
+        ids.remove(null);
+        if (batch.getAction() == null || ids.isEmpty() || ids.size() > maxBatchSize) {
+            throw new IllegalArgumentException("A batch needs an action and between 1 and "
+                    + maxBatchSize + " reimbursement ids.");
+        }
+        User newUser = null;
+        if (batch.getAction() == BatchAction.REASSIGN) {
+            newUser = batch.getUserid() == null ? null : userRepository.findById(batch.getUserid()).orElse(null);
+            if (newUser == null) {
+                throw new IllegalArgumentException("A reassignment needs an existing user id.");
+            }
+        }
+
+        // Only pending requests can be approved or denied, any request can be reassigned
+        boolean resolving = batch.getAction() != BatchAction.REASSIGN;
+        List<ReimbursementSummary> found = reimbursementRepository.findSummariesByIdIn(ids);
+        List<ReimbursementSummary> updated = new ArrayList<>();
+        Set<Long> foundIds = new HashSet<>();
+        Set<Long> updatedIds = new HashSet<>();
+        Map<Long, List<ReimbursementSummary>> byOwner = new LinkedHashMap<>();
+        for (ReimbursementSummary r : found) {
+            foundIds.add(r.getId());
+            if (resolving && !r.isPending()) {
+                continue;
+            }
+            updated.add(r);
+            updatedIds.add(r.getId());
+            if (r.getUserid() != null) {
+                byOwner.computeIfAbsent(r.getUserid(), k -> new ArrayList<>()).add(r);
+            }
+        }
+        if (!updatedIds.isEmpty()) {
+            int count;
+            if (resolving) {
+                count = reimbursementRepository.resolveByIdIn(updatedIds,
+                        batch.getAction() == BatchAction.APPROVE, LocalDate.now());
+            } else {
+                count = reimbursementRepository.updateUserByIdIn(updatedIds, newUser);
+            }
+            if (count != updatedIds.size()) {
+                throw new OptimisticLockingFailureException("Reimbursements changed while the batch was applied.");
+            }
+            if (resolving) {
+                expenseSummaryService.resolved(updated, batch.getAction() == BatchAction.APPROVE);
+                pendingIndex.removed(updatedIds);
+            } else {
+                expenseSummaryService.reassigned(updated, newUser.getId());
+                pendingIndex.reassigned(updatedIds, newUser.getId());
+            }
+            Set<Long> changed = new HashSet<>(byOwner.keySet());
+            if (newUser != null) {
+                changed.add(newUser.getId());
+            }
+            changeVersions.changed(changed);
+            reportService.changed(updated.stream().map(ReimbursementSummary::getRequestdate)
+                    .collect(Collectors.toList()));
+        }
+
+        for (User owner : userRepository.findAllById(byOwner.keySet())) {
+            List<ReimbursementSummary> owned = byOwner.get(owner.getId());
+            switch (batch.getAction()) {
+                case APPROVE:
+                    notificationService.reimbursementsApproved(owner, owned);
+                    break;
+                case DENY:
+                    notificationService.reimbursementsDenied(owner, owned);
+                    break;
+                case REASSIGN:
+                    notificationService.reimbursementsReassigned(owner, newUser, owned);
+                    break;
+            }
+        }
+        if (newUser != null && !updated.isEmpty()) {
+            notificationService.reimbursementsReassignedToYou(newUser, updated);
+        }
+
+        List<BatchResult> results = new ArrayList<>();
+        for (Long id : ids) {
+            String status = updatedIds.contains(id) ? BatchResult.UPDATED
+                    : foundIds.contains(id) ? BatchResult.CONFLICT : BatchResult.NOT_FOUND;
+            results.add(new BatchResult(id, status));
+        }
+        log.info("[POST] Manager " + manager.getId() + " applied " + batch.getAction() + " to "
+                + updatedIds.size() + " of " + ids.size() + " reimbursements.");
+        return results;
     }
 }
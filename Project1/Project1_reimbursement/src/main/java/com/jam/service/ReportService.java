@@ -0,0 +1,410 @@
+package com.jam.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds the monthly expense reports of each employee and department.
+ * The requests of a month, archived ones included, are read as plain
+ * columns sorted by owner and split into chunks of whole owners, which
+ * are summed in parallel on a fork/join pool in cents held in longs.
+ * Reports of closed months, which are over and have no pending requests
+ * left, are cached as the CSV they were written as, together with the
+ * version of the month in the report_versions table that they were built
+ * at. Every change to the requests of a month that is over bumps its version
+ * in the same transaction, so a cached report is only served while no
+ * instance of the API has changed the month since.
+ */
+@Slf4j
+@Service
+public class ReportService implements DisposableBean {
+    private static final String HEADER = "type,department,userid,name,requests,amount,"
+            + "approved,approvedamount,pending,pendingamount,denied,deniedamount\n";
+    private static final String ROWS = "select user_id, round(amount * 100), approved, resolvedate"
+            + " from reimbursements where requestdate >= ? and requestdate < ?"
+            + " union all select user_id, round(amount * 100), approved, resolvedate"
+            + " from reimbursements_archive where requestdate >= ? and requestdate < ? order by 1";
+    private static final String BUMP = "insert into report_versions (reportmonth, version) values (?, 1)"
+            + " on duplicate key update version = version + 1";
+    private static final int USER_BATCH = 1000;
+
+    /**
+     * The user id the requests without an owner are summed under.
+     */
+    private static final long NO_OWNER = Long.MIN_VALUE;
+    private static final byte PENDING = 0;
+    private static final byte APPROVED = 1;
+    private static final byte DENIED = 2;
+
+    private JdbcTemplate jdbcTemplate;
+    private PendingIndex pendingIndex;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final Map<YearMonth, Cached> cache;
+
+    public ReportService(JdbcTemplate jdbcTemplate, PendingIndex pendingIndex,
+                         @Value("${report.parallelism:0}") int parallelism,
+                         @Value("${report.chunk-size:10000}") int chunkSize,
+                         @Value("${report.cache-size:120}") int cacheSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.pendingIndex = pendingIndex;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.chunkSize = Math.max(1, chunkSize);
+        this.cache = new LinkedHashMap<YearMonth, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<YearMonth, Cached> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Writes the expense report of a month as CSV: a line for each employee,
+     * one for the requests without an owner, then one for each department and
+     * one for the whole company. The report of a closed month is served from
+     * the cache until the version of the month changes.
+     * @param month The month of the report.
+     * @param out The output stream to write to.
+     * @throws IOException If the output stream could not be written to.
+     */
+    public void writeMonthlyReport(YearMonth month, OutputStream out) throws IOException {
+        if (!isClosed(month)) {
+            write(build(month), out);
+            return;
+        }
+        // Read before the report is built, so a change committed while it is built makes it stale
+        long version = version(month);
+        synchronized (cache) {
+            Cached cached = cache.get(month);
+            if (cached != null && cached.version == version) {
+                out.write(cached.report);
+                return;
+            }
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        write(build(month), buffer);
+        byte[] report = buffer.toByteArray();
+        synchronized (cache) {
+            cache.put(month, new Cached(report, version));
+        }
+        out.write(report);
+    }
+
+    /**
+     * Bumps the versions of the months reimbursement requests were made in,
+     * in the current transaction, so that their cached reports go stale on
+     * every instance when it commits. Months that are not over yet are never
+     * cached, so their requests are changed without touching a version row.
+     * @param requestdates The request dates of the changed reimbursement requests, null dates are ignored.
+     */
+    public void changed(Collection<LocalDate> requestdates) {
+        YearMonth now = YearMonth.now();
+        Set<String> months = new TreeSet<>();
+        for (LocalDate requestdate : requestdates) {
+            if (requestdate != null && YearMonth.from(requestdate).isBefore(now)) {
+                months.add(YearMonth.from(requestdate).toString());
+            }
+        }
+        // In month order, so that concurrent changes lock the rows in the same order
+        for (String month : months) {
+            jdbcTemplate.update(BUMP, month);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdown();
+    }
+
+    /**
+     * Checks whether a month is over and none of its requests are pending,
+     * so that its report can no longer change through approvals or denials.
+     * A month only counts as over from the second day of the next one, so
+     * a change that started before the month ended, without bumping its
+     * version, has committed before the report can be cached.
+     * @param month The month.
+     * @return True if the report of the month can be cached.
+     */
+    private boolean isClosed(YearMonth month) {
+        return !LocalDate.now().isBefore(month.plusMonths(1).atDay(2)) && pendingIndex.isLoaded()
+                && !pendingIndex.hasPendingBetween(month.atDay(1), month.plusMonths(1).atDay(1));
+    }
+
+    /**
+     * Reads the version of a month.
+     * @param month The month.
+     * @return The version of the month, 0 if it was never bumped.
+     */
+    private long version(YearMonth month) {
+        List<Long> version = jdbcTemplate.queryForList("select version from report_versions where reportmonth = ?",
+                Long.class, month.toString());
+        return version.isEmpty() ? 0 : version.get(0);
+    }
+
+    /**
+     * Builds the report of a month.
+     * @param month The month of the report.
+     * @return The totals of each employee, sorted by user id, first those of the requests without an owner.
+     */
+    private List<Totals> build(YearMonth month) {
+        Rows rows = new Rows();
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        jdbcTemplate.query(ROWS, rs -> {
+            long userid = rs.getLong(1);
+            if (rs.wasNull()) {
+                userid = NO_OWNER;
+            }
+            boolean approved = rs.getBoolean(3);
+            rows.add(userid, rs.getLong(2), approved ? APPROVED : rs.getDate(4) == null ? PENDING : DENIED);
+        }, from, to, from, to);
+        List<Totals> employees = rows.size == 0
+                ? new ArrayList<>()
+                : pool.invoke(new Aggregate(rows, 0, rows.size, chunkSize));
+        log.info("[REPORT] Built the " + month + " report of " + employees.size() + " users from "
+                + rows.size + " reimbursements.");
+        return employees;
+    }
+
+    /**
+     * Writes the totals of the employees, of the requests without an owner,
+     * of the departments and of the company as CSV.
+     * @param employees The totals of each employee.
+     * @param out The output stream to write to.
+     * @throws IOException If the output stream could not be written to.
+     */
+    private void write(List<Totals> employees, OutputStream out) throws IOException {
+        Map<Long, String[]> users = findUsers(employees);
+        Map<String, Totals> departments = new TreeMap<>();
+        Totals company = new Totals(0);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        writer.write(HEADER);
+        Totals unassigned = null;
+        for (Totals t : employees) {
+            if (t.userid == NO_OWNER) {
+                unassigned = t;
+                company.add(t);
+                continue;
+            }
+            String[] user = users.getOrDefault(t.userid, new String[]{null, null});
+            String department = user[1] == null ? "" : user[1];
+            writer.write("employee," + ExportService.csvField(department) + ',' + t.userid + ','
+                    + ExportService.csvField(user[0]) + ',' + t + '\n');
+            departments.computeIfAbsent(department, k -> new Totals(0)).add(t);
+            company.add(t);
+        }
+        if (unassigned != null) {
+            writer.write("unassigned,,,," + unassigned + '\n');
+        }
+        for (Map.Entry<String, Totals> d : departments.entrySet()) {
+            writer.write("department," + ExportService.csvField(d.getKey()) + ",,," + d.getValue() + '\n');
+        }
+        writer.write("company,,,," + company + '\n');
+        writer.flush();
+    }
+
+    /**
+     * Finds the names and departments of the employees of a report.
+     * @param employees The totals of each employee.
+     * @return The name and department of each user, by id.
+     */
+    private Map<Long, String[]> findUsers(List<Totals> employees) {
+        Map<Long, String[]> users = new HashMap<>();
+        for (int i = 0; i < employees.size(); i += USER_BATCH) {
+            List<Totals> batch = employees.subList(i, Math.min(i + USER_BATCH, employees.size()));
+            Object[] ids = batch.stream().filter(t -> t.userid != NO_OWNER).map(t -> t.userid).toArray();
+            if (ids.length == 0) {
+                continue;
+            }
+            String placeholders = String.join(",", Collections.nCopies(ids.length, "?"));
+            jdbcTemplate.query("select id, name, department from users where id in (" + placeholders + ")", rs -> {
+                users.put(rs.getLong(1), new String[]{rs.getString(2), rs.getString(3)});
+            }, ids);
+        }
+        return users;
+    }
+
+    /**
+     * A cached report and the version of its month it was built at.
+     */
+    private static class Cached {
+        private final byte[] report;
+        private final long version;
+
+        private Cached(byte[] report, long version) {
+            this.report = report;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The owner, amount in cents and state of the requests of a month,
+     * sorted by owner, in primitive arrays.
+     */
+    private static class Rows {
+        private long[] users = new long[1024];
+        private long[] cents = new long[1024];
+        private byte[] states = new byte[1024];
+        private int size;
+
+        private void add(long userid, long amount, byte state) {
+            if (size == users.length) {
+                users = Arrays.copyOf(users, size * 2);
+                cents = Arrays.copyOf(cents, size * 2);
+                states = Arrays.copyOf(states, size * 2);
+            }
+            users[size] = userid;
+            cents[size] = amount;
+            states[size] = state;
+            size++;
+        }
+    }
+
+    /**
+     * Sums a range of the rows, splitting it in two between owners
+     * while it is larger than a chunk and summing the halves in parallel.
+     */
+    private static class Aggregate extends RecursiveTask<List<Totals>> {
+        private final Rows rows;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        private Aggregate(Rows rows, int from, int to, int chunkSize) {
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected List<Totals> compute() {
+            int mid = to - from > chunkSize ? split() : from;
+            if (mid == from) {
+                return sum();
+            }
+            Aggregate left = new Aggregate(rows, from, mid, chunkSize);
+            left.fork();
+            List<Totals> right = new Aggregate(rows, mid, to, chunkSize).compute();
+            List<Totals> totals = left.join();
+            totals.addAll(right);
+            return totals;
+        }
+
+        /**
+         * Finds the boundary between two owners closest above the middle of
+         * the range, or below it when one owner fills the upper half.
+         * @return The index of the first row of an owner, or from if one owner fills the range.
+         */
+        private int split() {
+            long[] users = rows.users;
+            int mid = (from + to) >>> 1;
+            int up = mid;
+            while (up < to && users[up] == users[up - 1]) {
+                up++;
+            }
+            if (up < to) {
+                return up;
+            }
+            while (mid > from && users[mid] == users[mid - 1]) {
+                mid--;
+            }
+            return mid;
+        }
+
+        private List<Totals> sum() {
+            List<Totals> totals = new ArrayList<>();
+            Totals current = null;
+            for (int i = from; i < to; i++) {
+                if (current == null || current.userid != rows.users[i]) {
+                    current = new Totals(rows.users[i]);
+                    totals.add(current);
+                }
+                current.add(rows.cents[i], rows.states[i]);
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * The counts and amounts in cents of the requests of a user, department or the company.
+     */
+    private static class Totals {
+        private final long userid;
+        private long requests;
+        private long amount;
+        private long approved;
+        private long approvedamount;
+        private long pending;
+        private long pendingamount;
+        private long denied;
+        private long deniedamount;
+
+        private Totals(long userid) {
+            this.userid = userid;
+        }
+
+        private void add(long cents, byte state) {
+            requests++;
+            amount += cents;
+            if (state == APPROVED) {
+                approved++;
+                approvedamount += cents;
+            } else if (state == PENDING) {
+                pending++;
+                pendingamount += cents;
+            } else {
+                denied++;
+                deniedamount += cents;
+            }
+        }
+
+        private void add(Totals t) {
+            requests += t.requests;
+            amount += t.amount;
+            approved += t.approved;
+            approvedamount += t.approvedamount;
+            pending += t.pending;
+            pendingamount += t.pendingamount;
+            denied += t.denied;
+            deniedamount += t.deniedamount;
+        }
+
+        private static String money(long cents) {
+            return BigDecimal.valueOf(cents, 2).toPlainString();
+        }
+
+        @Override
+        public String toString() {
+            return requests + "," + money(amount) + "," + approved + "," + money(approvedamount) + ","
+                    + pending + "," + money(pendingamount) + "," + denied + "," + money(deniedamount);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.jam.service;
+
+import com.jam.model.User;
+import com.jam.model.UserType;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies signed API tokens. A token carries the id of its
+ * user, when it expires, a random token id and the name of the user's type,
+ * signed with HMAC-SHA256, so it is verified in memory without looking the
+ * user up. The type is named rather than numbered, so reordering or adding
+ * user types never changes what an issued token means. Revoked tokens are
+ * remembered until they would have expired anyway.
+ */
+@Slf4j
+@Service
+public class TokenService {
+    private static final String ALGORITHM = "HmacSHA256";
+    /**
+     * The length of the payload before the name of the user type.
+     */
+    private static final int FIXED_LENGTH = 8 + 8 + 8;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final Duration ttl;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * The expiry, in epoch seconds, of each revoked token by token id.
+     */
+    private final Map<Long, Long> revoked = new ConcurrentHashMap<>();
+
+    public TokenService(@Value("${auth.token.secret:}") String secret,
+                        @Value("${auth.token.ttl:1h}") Duration ttl) {
+        byte[] bytes;
+        if (secret.isEmpty()) {
+            bytes = new byte[32];
+            random.nextBytes(bytes);
+            log.warn("[AUTH] No token secret is configured, tokens will not survive a restart.");
+        } else {
+            bytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(bytes, ALGORITHM);
+        this.ttl = ttl;
+    }
+
+    /**
+     * Issues a token for a user.
+     * @param user The authenticated user.
+     * @return The new token.
+     */
+    public Token issue(User user) {
+        long expires = Instant.now().plus(ttl).getEpochSecond();
+        byte[] type = user.getUsertype().name().getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer payload = ByteBuffer.allocate(FIXED_LENGTH + type.length)
+                .putLong(user.getId())
+                .putLong(expires)
+                .putLong(random.nextLong())
+                .put(type);
+        String encoded = ENCODER.encodeToString(payload.array());
+        return new Token(encoded + "." + ENCODER.encodeToString(sign(payload.array())), expires);
+    }
+
+    /**
+     * Verifies a token: its signature, that it has not expired and that it was not revoked.
+     * @param token The token.
+     * @return The claims of the token, or null if it is not valid.
+     */
+    public Claims verify(String token) {
+        Claims claims = decode(token);
+        if (claims == null || claims.expires <= Instant.now().getEpochSecond() || revoked.containsKey(claims.id)) {
+            return null;
+        }
+        return claims;
+    }
+
+    /**
+     * Revokes a valid token until it expires, and forgets the revoked tokens that have expired since.
+     * @param token The token.
+     * @return True if the token was valid and is now revoked.
+     */
+    public boolean revoke(String token) {
+        Claims claims = verify(token);
+        if (claims == null) {
+            return false;
+        }
+        long now = Instant.now().getEpochSecond();
+        revoked.values().removeIf(expires -> expires <= now);
+        revoked.put(claims.id, claims.expires);
+        log.info("[AUTH] User " + claims.userid + " has revoked a token.");
+        return true;
+    }
+
+    /**
+     * Checks the signature of a token and reads its claims.
+     * @param token The token.
+     * @return The claims of the token, or null if it is malformed or its signature does not match.
+     */
+    private Claims decode(String token) {
+        int dot = token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            payload = DECODER.decode(token.substring(0, dot));
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (payload.length <= FIXED_LENGTH || !MessageDigest.isEqual(sign(payload), signature)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        long userid = buffer.getLong();
+        long expires = buffer.getLong();
+        long id = buffer.getLong();
+        UserType type;
+        try {
+            type = UserType.valueOf(new String(payload, FIXED_LENGTH, payload.length - FIXED_LENGTH,
+                    StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            // A type that no longer exists
+            return null;
+        }
+        return new Claims(userid, type, expires, id);
+    }
+
+    private byte[] sign(byte[] payload) {
+        try {
+            // Macs are not thread safe and cheap to create from a ready key
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not sign a token", e);
+        }
+    }
+
+    /**
+     * A newly issued token.
+     */
+    @Getter
+    public static class Token {
+        private final String token;
+        private final long expires;
+
+        private Token(String token, long expires) {
+            this.token = token;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * What a valid token says about its user.
+     */
+    @Getter
+    public static class Claims {
+        private final long userid;
+        private final UserType usertype;
+        private final long expires;
+        private final long id;
+
+        private Claims(long userid, UserType usertype, long expires, long id) {
+            this.userid = userid;
+            this.usertype = usertype;
+            this.expires = expires;
+            this.id = id;
+        }
+    }
+}
@@ -2,9 +2,15 @@ package com.jam.service;
 
 import com.jam.data.UserRepository;
 import com.jam.model.User;
+import com.jam.model.UserCursor;
+import com.jam.model.UserPage;
+import com.jam.model.UserSummary;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
 
@@ -16,9 +22,14 @@ import java.util.List;
 @Service
 public class UserService {
     private UserRepository userRepository;
+    private CredentialCache credentialCache;
 
-    public UserService(UserRepository userRepository) {
+    @Value("${user.page.max-size:200}")
+    private int maxPageSize;
+
+    public UserService(UserRepository userRepository, CredentialCache credentialCache) {
         this.userRepository = userRepository;
+        this.credentialCache = credentialCache;
     }
 
     /**
@@ -31,11 +42,59 @@ public class UserService {
     }
 
     /**
-     * Gets all the users in the user repository.
-     * @return The list of all the users in the repository.
+     * Gets a page of the user directory, reading only the public details of
+     * the users. Without a prefix the directory is listed by id and the cursor
+     * is the id of the last user. A prefix search lists the users whose name
+     * starts with it by name, then those whose email does by email, each read
+     * as a range of the index on its column, and the cursor is opaque.
+     * @param prefix The prefix the name or email of the users starts with, or null for every user.
+     * @param after The cursor of the previous page, or null for the first page.
+     * @param size The number of users per page, capped at the maximum page size.
+     * @return The page of users and the cursor the next page starts after, if any.
+     * @throws IllegalArgumentException If the cursor is malformed.
      */
-    public List<User> getAllUsers() {
-        return userRepository.findAll();
+    public UserPage getUsers(String prefix, String after, int size) {
+        int limit = Math.max(1, Math.min(size, maxPageSize));
+        PageRequest page = PageRequest.of(0, limit + 1);
+        if (prefix == null || prefix.isEmpty()) {
+            long start;
+            try {
+                start = after == null ? 0 : Long.parseLong(after);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed cursor: " + after, e);
+            }
+            List<UserSummary> users = userRepository.findSummariesAfter(start, page);
+            String next = null;
+            if (users.size() > limit) {
+                users = users.subList(0, limit);
+                next = users.get(limit - 1).getId().toString();
+            }
+            return new UserPage(users, next);
+        }
+
+        String escaped = prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+        UserCursor cursor = after == null ? new UserCursor(false, "", 0L) : UserCursor.decode(after);
+        List<UserSummary> users = new ArrayList<>();
+        int byName = 0;
+        if (!cursor.isEmail()) {
+            users.addAll(userRepository.findSummariesByNamePrefixAfter(escaped, cursor.getValue(), cursor.getId(),
+                    page));
+            byName = users.size();
+        }
+        if (users.size() <= limit) {
+            boolean continued = cursor.isEmail();
+            users.addAll(userRepository.findSummariesByEmailPrefixAfter(escaped,
+                    continued ? cursor.getValue() : "", continued ? cursor.getId() : 0L,
+                    PageRequest.of(0, limit + 1 - users.size())));
+        }
+        String next = null;
+        if (users.size() > limit) {
+            users = users.subList(0, limit);
+            UserSummary last = users.get(limit - 1);
+            next = (limit <= byName ? new UserCursor(false, last.getName(), last.getId())
+                    : new UserCursor(true, last.getEmail(), last.getId())).encode();
+        }
+        return new UserPage(users, next);
     }
 
     /**
@@ -48,7 +107,9 @@ public class UserService {
         String encodedString = Base64.getEncoder().encodeToString(originalInput.getBytes());
         newUser.setApikey(encodedString);
         log.info("[POST] User " + newUser.getName() + " has been added into the system.");
-        return userRepository.save(newUser);
+        User saved = userRepository.save(newUser);
+        credentialCache.invalidate(saved.getId());
+        return saved;
     }
 
     /**
@@ -60,6 +121,7 @@ public class UserService {
         User u = userRepository.findById(id).get();
         u.setNotify(true);
         userRepository.save(u);
+        credentialCache.invalidate(id);
         log.info("[PATCH] User " + u.getName() + " has subscribed from notifications." );
         return u;
     }
@@ -73,6 +135,7 @@ public class UserService {
         User u = userRepository.findById(id).get();
         u.setNotify(false);
         userRepository.save(u);
+        credentialCache.invalidate(id);
         log.info("[PATCH] User " + u.getName() + " has unsubscribed from notifications." );
         return u;
     }
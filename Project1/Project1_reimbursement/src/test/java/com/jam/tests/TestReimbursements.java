@@ -1,49 +1,150 @@
 package com.jam.tests;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.jam.config.StatementCounter;
+import com.jam.data.ExpenseSummaryRepository;
+import com.jam.data.OutboxRepository;
 import com.jam.data.ReimbursementRepository;
+import com.jam.data.ReimbursementRepositoryImpl;
 import com.jam.data.UserRepository;
+import com.jam.model.ArchivedReimbursement;
+import com.jam.model.BatchResult;
+import com.jam.model.ExpenseSummary;
+import com.jam.model.ExportFormat;
+import com.jam.model.ImportResult;
+import com.jam.model.OutboxEmail;
+import com.jam.model.OutboxStatus;
+import com.jam.model.PendingReimbursement;
 import com.jam.model.Reimbursement;
+import com.jam.model.ReimbursementCursor;
+import com.jam.model.ReimbursementFilter;
+import com.jam.model.ReimbursementSort;
+import com.jam.model.ReimbursementSummary;
+import com.jam.model.ReimbursementView;
 import com.jam.model.User;
+import com.jam.model.UserCursor;
+import com.jam.model.UserSummary;
 import com.jam.model.UserType;
+import com.jam.service.ArchiveService;
 import com.jam.service.AuthService;
+import com.jam.service.ChangeVersions;
+import com.jam.service.CredentialCache;
+import com.jam.service.DescriptionIndex;
+import com.jam.service.EmailClient;
+import com.jam.service.EmailDispatcher;
+import com.jam.service.EmailUnavailableException;
+import com.jam.service.ExpenseSummaryService;
+import com.jam.service.ImportService;
+import com.jam.service.NotificationService;
+import com.jam.service.PendingIndex;
 import com.jam.service.ReimbursementService;
-import com.jam.service.UserService;
+import com.jam.service.ReportService;
+import com.jam.service.TokenService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
 
+import javax.persistence.EntityManager;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
 @AutoConfigureMockMvc
+@AutoConfigureMetrics
 public class TestReimbursements {
     @Autowired
     private MockMvc mockMvc;
     private ReimbursementService reimbursementService;
+    @Autowired
     private AuthService authService;
-    private UserService userService;
     @MockBean
     private UserRepository userRepository;
     @MockBean
     private ReimbursementRepository reimbursementRepository;
+    @MockBean
+    private OutboxRepository outboxRepository;
+    @MockBean
+    private ExpenseSummaryRepository expenseSummaryRepository;
     @Autowired
     private ObjectMapper mapper;
+    @Autowired
+    private CredentialCache credentialCache;
+    @Autowired
+    private NotificationService notificationService;
+    @Autowired
+    private PendingIndex pendingIndex;
+    @Autowired
+    private ImportService importService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private PrometheusMeterRegistry prometheusMeterRegistry;
 
     User u1 = new User("John Smith", "password1", "test1@gmail.com", UserType.EMPLOYEE);
     User u2 = new User("William Lam", "password2", "test2@gmail.com", UserType.MANAGER);
@@ -54,9 +155,13 @@ public class TestReimbursements {
      */
     @BeforeEach
     public void init() {
-        userService = new UserService(userRepository);
-        authService = new AuthService(userRepository);
-        reimbursementService = new ReimbursementService(reimbursementRepository);
+        credentialCache.invalidateAll();
+        reimbursementService = new ReimbursementService(reimbursementRepository, userRepository, notificationService,
+                new ExpenseSummaryService(expenseSummaryRepository), new PendingIndex(reimbursementRepository),
+                Mockito.mock(ChangeVersions.class),
+                new DescriptionIndex(Mockito.mock(JdbcTemplate.class), Mockito.mock(PlatformTransactionManager.class)),
+                new ArchiveService(reimbursementRepository, Mockito.mock(PlatformTransactionManager.class),
+                        Mockito.mock(ChangeVersions.class), 12, 1000, 100), Mockito.mock(ReportService.class));
         u1.setId(1L);
         u2.setId(2L);
         u1.setApikey("Sm9obiBTbWl0aDpwYXNzd29yZDE=");
@@ -67,6 +172,81 @@ public class TestReimbursements {
         Mockito.when(userRepository.findAll()).thenReturn(Arrays.asList(u1, u2));
     }
 
+    /**
+     * Authenticates the same user twice and checks that the second
+     * authentication is served by the credential cache, as a detached
+     * copy of the user without any lookup in the repository.
+     */
+    @Test
+    public void shouldAuthenticateFromCredentialCache() {
+        Assertions.assertThat(authService.authenticateUser(1L, u1.getApikey()).getBody()).isEqualTo(u1);
+        User cached = authService.authenticateUser(1L, u1.getApikey()).getBody();
+        Assertions.assertThat(cached).isNotSameAs(u1)
+                .extracting(User::getId, User::getEmail, User::getUsertype, User::getPassword)
+                .containsExactly(1L, u1.getEmail(), UserType.EMPLOYEE, null);
+        Assertions.assertThat(authService.authenticateUser(1L, "wrong").getStatusCodeValue()).isEqualTo(401);
+        Assertions.assertThat(authService.authenticateManager(1L, u1.getApikey()).getStatusCodeValue()).isEqualTo(401);
+        Mockito.verify(userRepository, Mockito.times(1)).findById(1L);
+        Mockito.verify(userRepository, Mockito.never()).getById(Mockito.anyLong());
+        Mockito.verify(userRepository, Mockito.never()).existsById(Mockito.anyLong());
+        Assertions.assertThat(credentialCache.getHits()).isPositive();
+    }
+
+    /**
+     * Performs HTTP requests for the credential cache statistics and
+     * checks that only a manager can see them.
+     */
+    @Test
+    public void shouldRequireManagerForCacheStats() throws Exception {
+        Mockito.when(userRepository.findById(2L)).thenReturn(Optional.of(u2));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/auth/cache/1")
+                        .header("Authorization", u1.getApikey()))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/auth/cache/2")
+                        .header("Authorization", u2.getApikey()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits").exists());
+    }
+
+    /**
+     * Issues a signed token naming the type of its user and checks that it
+     * authenticates its user with a single lookup, after which the user is
+     * served by the credential cache, and stops once tampered with, expired or revoked.
+     */
+    @Test
+    public void shouldAuthenticateWithSignedToken() {
+        TokenService tokenService = new TokenService("secret", Duration.ofHours(1));
+        AuthService tokenAuth = new AuthService(userRepository, new CredentialCache(100, Duration.ofMinutes(5)),
+                tokenService);
+        Mockito.when(userRepository.findById(2L)).thenReturn(Optional.of(u2));
+        String token = tokenService.issue(u2).getToken();
+        byte[] payload = Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.')));
+        Assertions.assertThat(new String(payload, StandardCharsets.US_ASCII)).endsWith("MANAGER");
+
+        Assertions.assertThat(tokenAuth.authenticateManager(2L, "Bearer " + token).getBody()).isEqualTo(u2);
+        Assertions.assertThat(tokenAuth.authenticateUser(2L, "Bearer " + token).getBody())
+                .extracting(User::getId, User::getEmail).containsExactly(2L, u2.getEmail());
+        Assertions.assertThat(tokenAuth.authenticateUser(1L, "Bearer " + token).getStatusCodeValue()).isEqualTo(401);
+        String tampered = token.substring(0, 5) + (token.charAt(5) == 'A' ? 'B' : 'A') + token.substring(6);
+        Assertions.assertThat(tokenAuth.authenticateUser(2L, "Bearer " + tampered).getStatusCodeValue())
+                .isEqualTo(401);
+        String forged = new TokenService("other", Duration.ofHours(1)).issue(u2).getToken();
+        Assertions.assertThat(tokenAuth.authenticateUser(2L, "Bearer " + forged).getStatusCodeValue()).isEqualTo(401);
+        String expired = new TokenService("secret", Duration.ofSeconds(-1)).issue(u2).getToken();
+        Assertions.assertThat(tokenAuth.authenticateUser(2L, "Bearer " + expired).getStatusCodeValue()).isEqualTo(401);
+        String employee = tokenService.issue(u1).getToken();
+        Assertions.assertThat(tokenAuth.authenticateManager(1L, "Bearer " + employee).getStatusCodeValue())
+                .isEqualTo(401);
+
+        Assertions.assertThat(tokenService.revoke(token)).isTrue();
+        Assertions.assertThat(tokenAuth.authenticateManager(2L, "Bearer " + token).getStatusCodeValue())
+                .isEqualTo(401);
+        Assertions.assertThat(tokenService.revoke(token)).isFalse();
+        Mockito.verify(userRepository, Mockito.times(1)).findById(Mockito.anyLong());
+        Mockito.verify(userRepository, Mockito.never()).getById(Mockito.anyLong());
+    }
+
     /**
      * Performs an HTTP request to add a user to the user repository.
      */
@@ -86,16 +266,67 @@ public class TestReimbursements {
     }
 
     /**
-     * Performs an HTTP request to get all the users in the user repository.
+     * Performs HTTP requests to get a page of the user directory, checking
+     * that only the public details are sent along with the cursor of the
+     * next page, and that a prefix search has its wildcards escaped and lists
+     * the users found by name before those found by email.
      */
     @Test
     public void shouldGetUsers() throws Exception {
-        mockMvc.perform(MockMvcRequestBuilders.get("/api/user"))
+        SpelAwareProxyProjectionFactory projections = new SpelAwareProxyProjectionFactory();
+        List<UserSummary> users = new ArrayList<>();
+        for (User u : Arrays.asList(u1, u2)) {
+            users.add(projections.createProjection(UserSummary.class, new HashMap<String, Object>() {{
+                put("id", u.getId());
+                put("name", u.getName());
+                put("email", u.getEmail());
+                put("usertype", u.getUsertype());
+                put("department", null);
+            }}));
+        }
+        Mockito.when(userRepository.findSummariesAfter(0L, PageRequest.of(0, 2))).thenReturn(users);
+        Mockito.when(userRepository.findSummariesByNamePrefixAfter("Wil!_%", "", 0L, PageRequest.of(0, 2)))
+                .thenReturn(users.subList(1, 2));
+        Mockito.when(userRepository.findSummariesByEmailPrefixAfter("Wil!_%", "", 0L, PageRequest.of(0, 1)))
+                .thenReturn(users.subList(0, 1));
+        Mockito.when(userRepository.findSummariesByEmailPrefixAfter("Wil!_%", "", 0L, PageRequest.of(0, 2)))
+                .thenReturn(users.subList(0, 1));
+        String cursor = new UserCursor(false, u2.getName(), 2L).encode();
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/user").param("size", "1"))
                 .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "1"))
                 .andDo(response -> {
-                    Assertions.assertThat(response.getResponse().getContentAsString())
-                            .isEqualTo(mapper.writeValueAsString(Arrays.asList(u1, u2)));
+                    JsonNode body = mapper.readTree(response.getResponse().getContentAsString());
+                    Assertions.assertThat(body).hasSize(1);
+                    Assertions.assertThat(body.get(0).get("name").asText()).isEqualTo("John Smith");
+                    Assertions.assertThat(body.get(0).get("usertype").asText()).isEqualTo("EMPLOYEE");
+                    Assertions.assertThat(body.get(0).has("password")).isFalse();
+                    Assertions.assertThat(body.get(0).has("apikey")).isFalse();
+                });
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/user").param("q", "Wil_").param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", cursor))
+                .andDo(response -> {
+                    JsonNode body = mapper.readTree(response.getResponse().getContentAsString());
+                    Assertions.assertThat(body).hasSize(1);
+                    Assertions.assertThat(body.get(0).get("email").asText()).isEqualTo("test2@gmail.com");
                 });
+        // The names are used up, so the search carries on with the emails from the start
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/user").param("q", "Wil_").param("after", cursor)
+                        .param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andDo(response -> {
+                    JsonNode body = mapper.readTree(response.getResponse().getContentAsString());
+                    Assertions.assertThat(body).hasSize(1);
+                    Assertions.assertThat(body.get(0).get("email").asText()).isEqualTo("test1@gmail.com");
+                });
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/user").param("q", "Wil_").param("after", "1"))
+                .andExpect(status().isBadRequest());
+        Mockito.verify(userRepository).findSummariesByNamePrefixAfter("Wil!_%", u2.getName(), 2L,
+                PageRequest.of(0, 2));
+        Mockito.verify(userRepository, Mockito.never()).findAll();
     }
 
     /**
@@ -130,8 +361,9 @@ public class TestReimbursements {
     public void shouldApproveReimbursement() throws Exception {
         Reimbursement mockR = new Reimbursement(LocalDate.now(), "For eating", BigDecimal.valueOf(50.20), u1);
         mockR.setId(1L);
-        Mockito.when(reimbursementRepository.save(Mockito.any())).thenReturn(mockR);
-        Mockito.when(reimbursementRepository.getById(Mockito.anyLong())).thenReturn(mockR);
+        Mockito.when(reimbursementRepository.resolve(Mockito.eq(1L), Mockito.eq(true), Mockito.any(), Mockito.eq(0L)))
+                .thenReturn(1);
+        Mockito.when(reimbursementRepository.findWithUserById(Mockito.anyLong())).thenReturn(Optional.of(mockR));
         Mockito.when(userRepository.findById(Mockito.anyLong())).thenReturn(Optional.of(u2));
 
         Map<String, Object> m = new HashMap<>();
@@ -145,6 +377,1065 @@ public class TestReimbursements {
                         .header("Authorization", u2.getApikey()))
                 .andExpect(status().isNoContent());
 
+        ArgumentCaptor<OutboxEmail> email = ArgumentCaptor.forClass(OutboxEmail.class);
+        Mockito.verify(outboxRepository).save(email.capture());
+        Assertions.assertThat(email.getValue().getRecipient()).isEqualTo(u1.getEmail());
+        Assertions.assertThat(email.getValue().getSubject()).isEqualTo("Reimbursement request approved");
+        Mockito.verify(reimbursementRepository, Mockito.never()).save(Mockito.any());
+    }
+
+    /**
+     * Performs an HTTP request to approve a reimbursement request at a
+     * version it is no longer at and checks that the conflict is reported.
+     */
+    @Test
+    public void shouldRejectStaleApproval() throws Exception {
+        Reimbursement mockR = new Reimbursement(LocalDate.now(), "For eating", BigDecimal.valueOf(50.20), u1);
+        mockR.setId(1L);
+        mockR.setVersion(4L);
+        Mockito.when(reimbursementRepository.findWithUserById(Mockito.anyLong())).thenReturn(Optional.of(mockR));
+        Mockito.when(userRepository.findById(Mockito.anyLong())).thenReturn(Optional.of(u2));
+
+        Map<String, Object> m = new HashMap<>();
+        m.put("managerid", 2);
+        m.put("status", "deny");
+        m.put("version", 3);
+
+        mockMvc.perform(MockMvcRequestBuilders.put("/api/reimbursement/1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(m))
+                        .header("Authorization", u2.getApikey()))
+                .andExpect(status().isConflict());
+        Mockito.verify(reimbursementRepository, Mockito.never()).resolve(Mockito.anyLong(), Mockito.anyBoolean(),
+                Mockito.any(), Mockito.anyLong());
+        Mockito.verify(outboxRepository, Mockito.never()).save(Mockito.any());
+    }
+
+    /**
+     * Performs an HTTP request to get the first page of the reimbursement
+     * requests sorted by request date using user 2 (The sample manager user)
+     * and checks that the cursor of the next page is returned.
+     */
+    @Test
+    public void shouldGetPageOfReimbursements() throws Exception {
+        Reimbursement r1 = new Reimbursement(LocalDate.of(2022, 5, 1), "For eating", BigDecimal.valueOf(50.20), u1);
+        Reimbursement r2 = new Reimbursement(LocalDate.of(2022, 5, 2), "For parking", BigDecimal.valueOf(12), u1);
+        r1.setId(1L);
+        r2.setId(2L);
+        Mockito.when(userRepository.findById(Mockito.anyLong())).thenReturn(Optional.of(u2));
+        Mockito.when(reimbursementRepository.findPage(Mockito.any(), Mockito.isNull(), Mockito.eq(2)))
+                .thenReturn(Arrays.asList(r1, r2));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/reimbursement/all/2")
+                        .param("sort", "REQUESTDATE")
+                        .param("approved", "false")
+                        .param("size", "1")
+                        .header("Authorization", u2.getApikey()))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor",
+                        new ReimbursementCursor(1L, LocalDate.of(2022, 5, 1)).encode()))
+                .andDo(response -> {
+                    Assertions.assertThat(response.getResponse().getContentAsString())
+                            .isEqualTo(mapper.writeValueAsString(Arrays.asList(r1)));
+                });
+
+        ArgumentCaptor<ReimbursementFilter> filter = ArgumentCaptor.forClass(ReimbursementFilter.class);
+        Mockito.verify(reimbursementRepository).findPage(filter.capture(), Mockito.isNull(), Mockito.eq(2));
+        Assertions.assertThat(filter.getValue().getSort()).isEqualTo(ReimbursementSort.REQUESTDATE);
+        Assertions.assertThat(filter.getValue().getApproved()).isFalse();
+        Mockito.verify(reimbursementRepository, Mockito.never()).findAll();
+    }
+
+    /**
+     * Loads the pending index and performs an HTTP request to get the
+     * oldest pending reimbursement request using user 2 (The sample manager user).
+     */
+    @Test
+    public void shouldGetPendingReimbursementsFromIndex() throws Exception {
+        PendingReimbursement p1 = new PendingReimbursement(3L, 1L, LocalDate.of(2022, 5, 3), "For lodging", BigDecimal.TEN);
+        PendingReimbursement p2 = new PendingReimbursement(1L, 1L, LocalDate.of(2022, 5, 1), "For eating", BigDecimal.ONE);
+        Mockito.when(userRepository.findById(Mockito.anyLong())).thenReturn(Optional.of(u2));
+        Mockito.when(reimbursementRepository.findPending()).thenReturn(Arrays.asList(p1, p2));
+        pendingIndex.rebuild();
+        Mockito.clearInvocations(reimbursementRepository);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/reimbursement/pending/2")
+                        .param("owner", "1")
+                        .param("size", "1")
+                        .header("Authorization", u2.getApikey()))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor",
+                        new ReimbursementCursor(1L, LocalDate.of(2022, 5, 1)).encode()))
+                .andDo(response -> {
+                    Assertions.assertThat(response.getResponse().getContentAsString())
+                            .isEqualTo(mapper.writeValueAsString(Arrays.asList(p2)));
+                });
+        Mockito.verifyNoInteractions(reimbursementRepository);
+    }
+
+    /**
+     * Performs an HTTP request to export all the reimbursement requests
+     * as CSV using user 2 (The sample manager user).
+     */
+    @Test
+    public void shouldExportReimbursementsAsCsv() throws Exception {
+        Reimbursement r1 = new Reimbursement(LocalDate.of(2022, 5, 1), "Lunch, with \"client\"", BigDecimal.valueOf(50.20), u1);
+        r1.setId(1L);
+        Mockito.when(userRepository.findById(Mockito.anyLong())).thenReturn(Optional.of(u2));
+        Mockito.when(reimbursementRepository.streamAll(Mockito.anyInt())).thenReturn(Stream.of(r1));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/reimbursement/export/2")
+                        .param("format", "csv")
+                        .header("Authorization", u2.getApikey()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string("id,requestdate,description,amount,approved,resolvedate,userid\n" +
+                        "1,05/01/2022,\"Lunch, with \"\"client\"\"\",50.2,false,,1\n"));
+        Mockito.verify(reimbursementRepository, Mockito.never()).findAll();
+    }
+
+    /**
+     * Exports a pending, a denied and an approved reimbursement request as CSV and
+     * imports the export back, checking that the denied request keeps its resolve
+     * date and so is counted as neither pending nor approved.
+     */
+    @Test
+    public void shouldImportExportedCsvWithDeniedReimbursement() throws Exception {
+        Reimbursement pending = new Reimbursement(LocalDate.of(2022, 5, 1), "Lunch", BigDecimal.valueOf(10), u1);
+        Reimbursement denied = new Reimbursement(LocalDate.of(2022, 5, 2), "Taxi", BigDecimal.valueOf(20), u1);
+        Reimbursement approved = new Reimbursement(LocalDate.of(2022, 5, 3), "Hotel", BigDecimal.valueOf(40), u1);
+        pending.setId(1L);
+        denied.setId(2L);
+        denied.setResolvedate(LocalDate.of(2022, 5, 4));
+        approved.setId(3L);
+        approved.setApproved(true);
+        approved.setResolvedate(LocalDate.of(2022, 5, 5));
+        Mockito.when(userRepository.findById(Mockito.anyLong())).thenReturn(Optional.of(u2));
+        Mockito.when(reimbursementRepository.streamAll(Mockito.anyInt()))
+                .thenReturn(Stream.of(pending, denied, approved));
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/api/reimbursement/export/2")
+                        .param("format", "csv")
+                        .header("Authorization", u2.getApikey()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] csv = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JdbcTemplate mockJdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        Mockito.when(mockJdbcTemplate.queryForList(Mockito.anyString(), Mockito.eq(Long.class), Mockito.<Object>any()))
+                .thenReturn(Collections.singletonList(u1.getId()));
+        Mockito.when(mockJdbcTemplate.execute(Mockito.<ConnectionCallback<List<Long>>>any()))
+                .thenReturn(Arrays.asList(10L, 11L, 12L));
+        Mockito.when(expenseSummaryRepository.adjust(Mockito.anyLong(), Mockito.anyLong(), Mockito.any(),
+                Mockito.anyLong(), Mockito.any())).thenReturn(1);
+        ImportService importService = new ImportService(mockJdbcTemplate, Mockito.mock(PlatformTransactionManager.class),
+                mapper, new ExpenseSummaryService(expenseSummaryRepository), new PendingIndex(reimbursementRepository),
+                Mockito.mock(ChangeVersions.class), Mockito.mock(DescriptionIndex.class), Mockito.mock(ReportService.class), 10, 10);
+
+        ImportResult imported = importService.importReimbursements(ExportFormat.CSV, new ByteArrayInputStream(csv));
+
+        Assertions.assertThat(imported.getImported()).isEqualTo(3);
+        Assertions.assertThat(imported.getFailed()).isZero();
+        for (Long userid : Arrays.asList(u1.getId(), ExpenseSummary.COMPANY)) {
+            Mockito.verify(expenseSummaryRepository).adjust(Mockito.eq(userid), Mockito.eq(1L),
+                    Mockito.argThat(sum -> sum.compareTo(BigDecimal.valueOf(10)) == 0), Mockito.eq(1L),
+                    Mockito.argThat(sum -> sum.compareTo(BigDecimal.valueOf(40)) == 0));
+        }
+    }
+
+    /**
+     * Imports reimbursement requests from CSV in chunks of two and checks that
+     * valid rows are inserted in one batch, indexed and counted in the expense
+     * summaries, while rows that cannot be parsed or belong to an unknown user
+     * are reported.
+     */
+    @Test
+    public void shouldImportReimbursementsFromCsv() throws Exception {
+        JdbcTemplate mockJdbcTemplate = Mockito.mock(JdbcTemplate.class);
+        Mockito.when(mockJdbcTemplate.queryForList(Mockito.anyString(), Mockito.eq(Long.class), Mockito.<Object>any()))
+                .thenReturn(Collections.singletonList(u1.getId()));
+        Mockito.when(expenseSummaryRepository.adjust(Mockito.anyLong(), Mockito.anyLong(), Mockito.any(),
+                Mockito.anyLong(), Mockito.any())).thenReturn(1);
+        Mockito.when(mockJdbcTemplate.execute(Mockito.<ConnectionCallback<List<Long>>>any()))
+                .thenReturn(Arrays.asList(10L, 11L));
+        DescriptionIndex descriptionIndex = Mockito.mock(DescriptionIndex.class);
+        ImportService importService = new ImportService(mockJdbcTemplate, Mockito.mock(PlatformTransactionManager.class),
+                mapper, new ExpenseSummaryService(expenseSummaryRepository), new PendingIndex(reimbursementRepository),
+                Mockito.mock(ChangeVersions.class), descriptionIndex, Mockito.mock(ReportService.class), 2, 10);
+        String csv = "id,requestdate,description,amount,approved,userid\n" +
+                "1,05/01/2022,\"Lunch, with \"\"client\"\"\nand team\",50.20,false,1\n" +
+                "2,05/02/2022,Taxi,abc,false,1\n" +
+                "3,05/03/2022,Hotel,120,true,1\n" +
+                "4,05/04/2022,Train,30,false,9\n";
+
+        ImportResult result = importService.importReimbursements(ExportFormat.CSV,
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        Assertions.assertThat(result.getImported()).isEqualTo(2);
+        Assertions.assertThat(result.getFailed()).isEqualTo(2);
+        Assertions.assertThat(result.getErrors()).extracting(ImportResult.RowError::getLine).containsExactly(4L, 6L);
+        Mockito.verify(mockJdbcTemplate).execute(Mockito.<ConnectionCallback<List<Long>>>any());
+        Map<Long, String> descriptions = new HashMap<>();
+        descriptions.put(10L, "Lunch, with \"client\"\nand team");
+        descriptions.put(11L, "Hotel");
+        Mockito.verify(descriptionIndex).index(descriptions);
+        for (Long userid : Arrays.asList(u1.getId(), ExpenseSummary.COMPANY)) {
+            Mockito.verify(expenseSummaryRepository).adjust(Mockito.eq(userid), Mockito.eq(1L),
+                    Mockito.argThat(sum -> sum.compareTo(BigDecimal.valueOf(50.20)) == 0), Mockito.eq(1L),
+                    Mockito.argThat(sum -> sum.compareTo(BigDecimal.valueOf(120)) == 0));
+        }
+        Mockito.verify(reimbursementRepository).findPending();
+    }
+
+    /**
+     * Seeds the database with 20000 reimbursement requests and searches them by
+     * keywords together with the other filters, checking the page that comes
+     * back and that the keywords are looked up in the term index.
+     */
+    @Test
+    public void shouldSearchReimbursementsByKeywords() throws Exception {
+        jdbcTemplate.update("insert into users (name, password, email, usertype, notify)"
+                + " values ('Search Test', 'password', 'search@test.com', 'EMPLOYEE', true)");
+        Long userid = jdbcTemplate.queryForObject("select id from users where email = 'search@test.com'", Long.class);
+        try {
+            String[] descriptions = {"Lunch with client", "Hotel in Boston", "Taxi to the airport", "Conference ticket"};
+            StringBuilder ndjson = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                ndjson.append(String.format("{\"requestdate\":\"%s\",\"description\":\"%s %d\",\"amount\":%d,"
+                                + "\"approved\":%b,\"userid\":%d}%n",
+                        LocalDate.of(2020, 1, 1).plusDays(i % 1000).format(DateTimeFormatter.ofPattern("MM/dd/yyyy")),
+                        descriptions[i % descriptions.length], i, i % 500, i % 3 == 0, userid));
+            }
+            ImportResult imported = importService.importReimbursements(ExportFormat.NDJSON,
+                    new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+            Assertions.assertThat(imported.getImported()).isEqualTo(20000);
+
+            ReimbursementRepositoryImpl search = new ReimbursementRepositoryImpl();
+            ReflectionTestUtils.setField(search, "entityManager", entityManager);
+            ReimbursementFilter filter = new ReimbursementFilter();
+            filter.setKeywords("hotel BOST");
+            filter.setOwner(userid);
+            filter.setApproved(false);
+            filter.setMin(BigDecimal.valueOf(100));
+            filter.setMax(BigDecimal.valueOf(200));
+            filter.setSort(ReimbursementSort.REQUESTDATE);
+            List<Reimbursement> page = new ArrayList<>();
+            String plan = explainIssued("reimbursement_terms", 20, () -> page.addAll(search.findPage(filter, null, 20)));
+            Assertions.assertThat(page).hasSize(20).allSatisfy(r -> {
+                Assertions.assertThat(r.getDescription()).startsWith("Hotel in Boston");
+                Assertions.assertThat(r.getAmount()).isBetween(BigDecimal.valueOf(100), BigDecimal.valueOf(200));
+                Assertions.assertThat(r.isApproved()).isFalse();
+            });
+            Assertions.assertThat(page).extracting(Reimbursement::getRequestdate).isSorted();
+            Assertions.assertThat(plan).contains("idx_reimbursement_terms_term");
+        } finally {
+            jdbcTemplate.update("delete from reimbursement_terms where reimbursement_id in"
+                    + " (select id from reimbursements where user_id = ?)", userid);
+            jdbcTemplate.update("delete from reimbursements where user_id = ?", userid);
+            jdbcTemplate.update("delete from users where id = ?", userid);
+        }
+    }
+
+    /**
+     * Runs a query through Hibernate and explains the statement it issued on a
+     * table, bound with the values Hibernate logged binding it and with the
+     * page limit for the parameters it binds without logging.
+     * @param table The table the statement reads.
+     * @param limit The page limit of the query.
+     * @param query The query.
+     * @return The query plan, in lower case.
+     */
+    private String explainIssued(String table, int limit, Runnable query) {
+        Logger binder = (Logger) LoggerFactory.getLogger("org.hibernate.type.descriptor.sql.BasicBinder");
+        ListAppender<ILoggingEvent> binds = new ListAppender<>();
+        binds.start();
+        binder.addAppender(binds);
+        binder.setLevel(Level.TRACE);
+        StatementCounter.record();
+        List<String> statements;
+        try {
+            query.run();
+        } finally {
+            statements = StatementCounter.recorded();
+            binder.setLevel(null);
+            binder.detachAppender(binds);
+        }
+        Assertions.assertThat(statements).hasSize(1);
+        String sql = statements.get(0);
+        Assertions.assertThat(sql).contains(table);
+        List<Object> values = new ArrayList<>();
+        for (ILoggingEvent event : binds.list) {
+            Matcher bound = Pattern.compile("binding parameter \\[\\d+\\] as \\[(\\w+)\\] - \\[(.*)\\]")
+                    .matcher(event.getFormattedMessage());
+            if (bound.matches()) {
+                String type = bound.group(1);
+                String value = bound.group(2);
+                values.add(type.equals("VARCHAR") ? value : type.equals("BOOLEAN") || type.equals("BIT")
+                        ? (Object) Boolean.valueOf(value) : new BigDecimal(value));
+            }
+        }
+        while (values.size() < sql.length() - sql.replace("?", "").length()) {
+            values.add(limit);
+        }
+        return jdbcTemplate.queryForList("explain " + sql, values.toArray()).toString().toLowerCase();
+    }
+
+    /**
+     * Seeds the database with users and searches them by a prefix of their name
+     * and of their email, checking the pages that come back and that each
+     * search is read as a range of the index on its column.
+     */
+    @Test
+    public void shouldSearchUsersByPrefixOnIndexRanges() {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            rows.add(new Object[]{(i % 2 == 0 ? "prefixed " : "other ") + i, "pw",
+                    (i % 3 == 0 ? "prefixed." : "other.") + i + "@prefix.test"});
+        }
+        jdbcTemplate.batchUpdate("insert into users (name, password, email, usertype, notify)"
+                + " values (?, ?, ?, 'EMPLOYEE', true)", rows);
+        try {
+            UserRepository users = new JpaRepositoryFactory(entityManager).getRepository(UserRepository.class);
+            List<UserSummary> byName = new ArrayList<>();
+            Long after = jdbcTemplate.queryForObject("select id from users where name = 'prefixed 10'", Long.class);
+            String namePlan = explainIssued("users", 11, () -> byName.addAll(
+                    users.findSummariesByNamePrefixAfter("prefixed%", "prefixed 10", after, PageRequest.of(0, 11))));
+            Assertions.assertThat(byName).hasSize(11).allSatisfy(u ->
+                    Assertions.assertThat(u.getName()).startsWith("prefixed "));
+            Assertions.assertThat(byName.get(0).getName()).isEqualTo("prefixed 100");
+            Assertions.assertThat(namePlan).contains("idx_users_name");
+
+            List<UserSummary> byEmail = new ArrayList<>();
+            String emailPlan = explainIssued("users", 11, () -> byEmail.addAll(
+                    users.findSummariesByEmailPrefixAfter("prefixed%", "", 0L, PageRequest.of(0, 11))));
+            Assertions.assertThat(byEmail).hasSize(11).allSatisfy(u -> {
+                Assertions.assertThat(u.getEmail()).startsWith("prefixed.");
+                Assertions.assertThat(u.getName()).startsWith("other ");
+            });
+            Assertions.assertThat(emailPlan).contains("idx_users_email");
+        } finally {
+            jdbcTemplate.update("delete from users where email like '%@prefix.test'");
+        }
+    }
+
+    /**
+     * Builds the description index over existing reimbursement requests, one of
+     * which already has a term indexed, and checks that every request is
+     * indexed, that the build is marked complete and that it does not run again.
+     */
+    @Test
+    public void shouldBuildDescriptionIndexOnce() {
+        jdbcTemplate.update("insert into users (name, password, email, usertype, notify)"
+                + " values ('Index Test', 'password', 'index@test.com', 'EMPLOYEE', true)");
+        Long userid = jdbcTemplate.queryForObject("select id from users where email = 'index@test.com'", Long.class);
+        String insert = "insert into reimbursements (requestdate, description, amount, approved, user_id, version)"
+                + " values ('2021-05-01', ?, 10, false, ?, 0)";
+        String terms = "select term from reimbursement_terms where reimbursement_id in"
+                + " (select id from reimbursements where user_id = ?) order by term";
+        try {
+            jdbcTemplate.update(insert, "Parking garage", userid);
+            jdbcTemplate.update(insert, "Train fare", userid);
+            Long parking = jdbcTemplate.queryForObject("select id from reimbursements where user_id = ?"
+                    + " and description = 'Parking garage'", Long.class, userid);
+            // A request submitted while the build runs is indexed already
+            jdbcTemplate.update("insert into reimbursement_terms (term, reimbursement_id) values ('parking', ?)", parking);
+            jdbcTemplate.update("delete from index_progress where name = 'description'");
+
+            DescriptionIndex descriptionIndex = new DescriptionIndex(jdbcTemplate, transactionManager);
+            descriptionIndex.buildIfIncomplete();
+            Assertions.assertThat(jdbcTemplate.queryForList(terms, String.class, userid))
+                    .containsExactly("fare", "garage", "parking", "train");
+            Assertions.assertThat(jdbcTemplate.queryForObject(
+                    "select complete from index_progress where name = 'description'", Boolean.class)).isTrue();
+
+            jdbcTemplate.update(insert, "Hotel breakfast", userid);
+            descriptionIndex.buildIfIncomplete();
+            Assertions.assertThat(jdbcTemplate.queryForList(terms, String.class, userid))
+                    .containsExactly("fare", "garage", "parking", "train");
+        } finally {
+            jdbcTemplate.update("delete from reimbursement_terms where reimbursement_id in"
+                    + " (select id from reimbursements where user_id = ?)", userid);
+            jdbcTemplate.update("delete from reimbursements where user_id = ?", userid);
+            jdbcTemplate.update("delete from users where id = ?", userid);
+        }
+    }
+
+    /**
+     * Archives settled reimbursement requests in batches of two and checks that
+     * the listing of all requests merges the archived ones back in order, but
+     * leaves the archive alone when the filter starts after its newest request,
+     * and that an instance that did not archive the requests lists them too.
+     */
+    @Test
+    public void shouldArchiveSettledReimbursements() {
+        ArchiveService archiveService = new ArchiveService(reimbursementRepository,
+                Mockito.mock(PlatformTransactionManager.class), Mockito.mock(ChangeVersions.class), 12, 2, 100);
+        Mockito.when(reimbursementRepository.findSettledBefore(Mockito.any(), Mockito.any()))
+                .thenReturn(Arrays.asList(1L, 2L), Collections.singletonList(3L));
+        Mockito.when(reimbursementRepository.findNewestArchivedRequestdate()).thenReturn(LocalDate.of(2020, 6, 1));
+
+        archiveService.archiveSettled();
+
+        Mockito.verify(reimbursementRepository, Mockito.times(2))
+                .findSettledBefore(Mockito.eq(LocalDate.now().minusMonths(12)), Mockito.any());
+        Mockito.verify(reimbursementRepository).archiveByIdIn(Arrays.asList(1L, 2L));
+        Mockito.verify(reimbursementRepository).deleteByIdIn(Arrays.asList(1L, 2L));
+        Mockito.verify(reimbursementRepository).archiveByIdIn(Collections.singletonList(3L));
+        Mockito.verify(reimbursementRepository).deleteByIdIn(Collections.singletonList(3L));
+
+        Reimbursement live = new Reimbursement(LocalDate.of(2022, 5, 1), "Taxi", BigDecimal.valueOf(10), u1);
+        live.setId(5L);
+        Reimbursement settled = new Reimbursement(LocalDate.of(2020, 6, 1), "Hotel", BigDecimal.valueOf(120), u1);
+        settled.setId(3L);
+        settled.setApproved(true);
+        settled.setResolvedate(LocalDate.of(2020, 6, 2));
+        Mockito.when(reimbursementRepository.findPage(Mockito.any(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(Collections.singletonList(live));
+        Mockito.when(reimbursementRepository.findArchivedPage(Mockito.any(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(Collections.singletonList(new ArchivedReimbursement(settled)));
+        ReimbursementService service = new ReimbursementService(reimbursementRepository, userRepository,
+                notificationService, new ExpenseSummaryService(expenseSummaryRepository),
+                new PendingIndex(reimbursementRepository), Mockito.mock(ChangeVersions.class),
+                new DescriptionIndex(Mockito.mock(JdbcTemplate.class), Mockito.mock(PlatformTransactionManager.class)),
+                archiveService,
+                Mockito.mock(ReportService.class));
+        ReflectionTestUtils.setField(service, "maxPageSize", 200);
+
+        ReimbursementFilter filter = new ReimbursementFilter();
+        Assertions.assertThat(service.getAllReimbursements(u2, filter, null, 10).getReimbursements())
+                .extracting(Reimbursement::getId).containsExactly(3L, 5L);
+        filter.setFrom(LocalDate.of(2021, 1, 1));
+        Assertions.assertThat(service.getAllReimbursements(u2, filter, null, 10).getReimbursements())
+                .extracting(Reimbursement::getId).containsExactly(5L);
+        Mockito.verify(reimbursementRepository, Mockito.times(1))
+                .findArchivedPage(Mockito.any(), Mockito.any(), Mockito.anyInt());
+
+        // A request archived between the two reads is only listed once
+        Mockito.when(reimbursementRepository.findArchivedPage(Mockito.any(), Mockito.any(), Mockito.anyInt()))
+                .thenReturn(Arrays.asList(new ArchivedReimbursement(settled), new ArchivedReimbursement(live)));
+        filter.setFrom(null);
+        Assertions.assertThat(service.getAllReimbursements(u2, filter, null, 10).getReimbursements())
+                .extracting(Reimbursement::getId).containsExactly(3L, 5L);
+
+        ArchiveService other = new ArchiveService(reimbursementRepository,
+                Mockito.mock(PlatformTransactionManager.class), Mockito.mock(ChangeVersions.class), 12, 2, 100);
+        Mockito.when(reimbursementRepository.findNewestArchivedRequestdate()).thenReturn(LocalDate.of(2021, 6, 1));
+        Assertions.assertThat(other.mayHold(LocalDate.of(2021, 1, 1))).isTrue();
+        Assertions.assertThat(archiveService.mayHold(LocalDate.of(2021, 1, 1))).isTrue();
+    }
+
+    /**
+     * Builds the expense report of a closed month from live and archived
+     * reimbursement requests in chunks of two, with the requests without an
+     * owner on their own line, and checks that the report is served from the
+     * cache until another instance changes the month.
+     */
+    @Test
+    public void shouldBuildMonthlyReport() throws Exception {
+        jdbcTemplate.update("insert into users (name, password, email, usertype, notify, department)"
+                + " values ('Report A', 'password', 'report.a@test.com', 'EMPLOYEE', true, 'Sales')");
+        jdbcTemplate.update("insert into users (name, password, email, usertype, notify, department)"
+                + " values ('Report B', 'password', 'report.b@test.com', 'EMPLOYEE', true, 'Engineering')");
+        Long a = jdbcTemplate.queryForObject("select id from users where email = 'report.a@test.com'", Long.class);
+        Long b = jdbcTemplate.queryForObject("select id from users where email = 'report.b@test.com'", Long.class);
+        String insert = "insert into reimbursements (requestdate, description, amount, approved, resolvedate, user_id,"
+                + " version) values (?, 'Report', ?, ?, ?, ?, 0)";
+        try {
+            jdbcTemplate.update(insert, LocalDate.of(2019, 3, 1), new BigDecimal("10.10"), true,
+                    LocalDate.of(2019, 3, 2), a);
+            jdbcTemplate.update(insert, LocalDate.of(2019, 3, 31), new BigDecimal("5.05"), false,
+                    LocalDate.of(2019, 4, 2), a);
+            jdbcTemplate.update(insert, LocalDate.of(2019, 3, 15), new BigDecimal("20"), true,
+                    LocalDate.of(2019, 3, 16), b);
+            jdbcTemplate.update(insert, LocalDate.of(2019, 4, 1), new BigDecimal("99"), true,
+                    LocalDate.of(2019, 4, 2), a);
+            jdbcTemplate.update(insert, LocalDate.of(2019, 3, 20), new BigDecimal("7"), false,
+                    LocalDate.of(2019, 3, 21), null);
+            jdbcTemplate.update("insert into reimbursements_archive (id, requestdate, description, amount, approved,"
+                    + " resolvedate, user_id, version) values (900001, ?, 'Report', 100, true, ?, ?, 0)",
+                    LocalDate.of(2019, 3, 10), LocalDate.of(2019, 3, 11), a);
+            PendingIndex pendingIndex = new PendingIndex(reimbursementRepository);
+            pendingIndex.rebuild();
+            ReportService reportService = new ReportService(jdbcTemplate, pendingIndex, 4, 2, 10);
+            ReportService other = new ReportService(jdbcTemplate, pendingIndex, 4, 2, 10);
+            String expected = "type,department,userid,name,requests,amount,approved,approvedamount,"
+                    + "pending,pendingamount,denied,deniedamount\n"
+                    + "employee,Sales," + a + ",Report A,3,115.15,2,110.10,0,0.00,1,5.05\n"
+                    + "employee,Engineering," + b + ",Report B,1,20.00,1,20.00,0,0.00,0,0.00\n"
+                    + "unassigned,,,,1,7.00,0,0.00,0,0.00,1,7.00\n"
+                    + "department,Engineering,,,1,20.00,1,20.00,0,0.00,0,0.00\n"
+                    + "department,Sales,,,3,115.15,2,110.10,0,0.00,1,5.05\n"
+                    + "company,,,,5,142.15,3,130.10,0,0.00,2,12.05\n";
+            try {
+                Assertions.assertThat(report(reportService, YearMonth.of(2019, 3))).isEqualTo(expected);
+
+                jdbcTemplate.update("delete from reimbursements where user_id = ?", b);
+                Assertions.assertThat(report(reportService, YearMonth.of(2019, 3))).isEqualTo(expected);
+
+                // A change to another month leaves the report cached
+                other.changed(Collections.singleton(LocalDate.of(2019, 4, 1)));
+                Assertions.assertThat(report(reportService, YearMonth.of(2019, 3))).isEqualTo(expected);
+
+                other.changed(Collections.singleton(LocalDate.of(2019, 3, 15)));
+                Assertions.assertThat(report(reportService, YearMonth.of(2019, 3)))
+                        .doesNotContain("employee,Engineering")
+                        .endsWith("company,,,,4,122.15,2,110.10,0,0.00,2,12.05\n");
+
+                jdbcTemplate.update("delete from reimbursements where user_id is null and description = 'Report'");
+                other.changed(Collections.singleton(LocalDate.of(2019, 3, 20)));
+                Assertions.assertThat(report(reportService, YearMonth.of(2019, 3)))
+                        .doesNotContain("unassigned")
+                        .endsWith("company,,,,3,115.15,2,110.10,0,0.00,1,5.05\n");
+            } finally {
+                reportService.destroy();
+                other.destroy();
+            }
+        } finally {
+            jdbcTemplate.update("delete from report_versions");
+            jdbcTemplate.update("delete from reimbursements where user_id is null and description = 'Report'");
+            jdbcTemplate.update("delete from reimbursements_archive where user_id = ?", a);
+            jdbcTemplate.update("delete from reimbursements where user_id in (?, ?)", a, b);
+            jdbcTemplate.update("delete from users where id in (?, ?)", a, b);
+        }
+    }
+
+    private static String report(ReportService reportService, YearMonth month) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reportService.writeMonthlyReport(month, out);
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Performs an HTTP request to get the reimbursement requests of
+     * user 1 (The sample employee user) and checks that the views
+     * serialize the same way as the reimbursement requests.
+     */
+    @Test
+    public void shouldGetUserReimbursements() throws Exception {
+        Reimbursement r1 = new Reimbursement(LocalDate.of(2022, 5, 1), "For eating", BigDecimal.valueOf(50.20), u1);
+        r1.setId(1L);
+        ReimbursementView view = new ReimbursementView(r1.getId(), r1.getRequestdate(), r1.getDescription(),
+                r1.getAmount(), r1.isApproved(), r1.getResolvedate(), r1.getVersion());
+        Mockito.when(reimbursementRepository.findViewsByUserId(Mockito.eq(1L), Mockito.any()))
+                .thenReturn(Arrays.asList(view));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/reimbursement/1")
+                        .header("Authorization", u1.getApikey()))
+                .andExpect(status().isOk())
+                .andDo(response -> {
+                    Assertions.assertThat(response.getResponse().getContentAsString())
+                            .isEqualTo(mapper.writeValueAsString(Arrays.asList(r1)));
+                });
+    }
+
+    /**
+     * Performs HTTP requests for the reimbursement requests of user 1 as Smile
+     * and as CBOR, and checks that both carry the same fields as the JSON.
+     */
+    @Test
+    public void shouldGetUserReimbursementsInBinaryFormats() throws Exception {
+        ReimbursementView view = new ReimbursementView(1L, LocalDate.of(2022, 5, 1), "For eating",
+                new BigDecimal("50.20"), false, null, 0);
+        Mockito.when(reimbursementRepository.findViewsByUserId(Mockito.eq(1L), Mockito.any()))
+                .thenReturn(Arrays.asList(view));
+        Map<MediaType, ObjectMapper> formats = new LinkedHashMap<>();
+        formats.put(MediaType.parseMediaType("application/x-jackson-smile"), new ObjectMapper(new SmileFactory()));
+        formats.put(MediaType.parseMediaType("application/cbor"), new ObjectMapper(new CBORFactory()));
+
+        for (Map.Entry<MediaType, ObjectMapper> format : formats.entrySet()) {
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/reimbursement/1")
+                            .accept(format.getKey())
+                            .header("Authorization", u1.getApikey()))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(format.getKey()))
+                    .andDo(response -> {
+                        JsonNode body = format.getValue().readTree(response.getResponse().getContentAsByteArray());
+                        Assertions.assertThat(body).hasSize(1);
+                        Assertions.assertThat(body.get(0).get("id").asLong()).isEqualTo(1L);
+                        Assertions.assertThat(body.get(0).get("requestdate").asText()).isEqualTo("05/01/2022");
+                        Assertions.assertThat(body.get(0).get("description").asText()).isEqualTo("For eating");
+                        Assertions.assertThat(body.get(0).get("amount").decimalValue())
+                                .isEqualByComparingTo(new BigDecimal("50.20"));
+                        Assertions.assertThat(body.get(0).get("resolvedate").isNull()).isTrue();
+                    });
+        }
+    }
+
+    /**
+     * Performs HTTP requests for the user directory as Smile and as CBOR,
+     * and checks that both carry the same fields as the JSON.
+     */
+    @Test
+    public void shouldGetUsersInBinaryFormats() throws Exception {
+        SpelAwareProxyProjectionFactory projections = new SpelAwareProxyProjectionFactory();
+        List<UserSummary> users = new ArrayList<>();
+        for (User u : Arrays.asList(u1, u2)) {
+            users.add(projections.createProjection(UserSummary.class, new HashMap<String, Object>() {{
+                put("id", u.getId());
+                put("name", u.getName());
+                put("email", u.getEmail());
+                put("usertype", u.getUsertype());
+                put("department", null);
+            }}));
+        }
+        Mockito.when(userRepository.findSummariesAfter(0L, PageRequest.of(0, 51))).thenReturn(users);
+        Map<MediaType, ObjectMapper> formats = new LinkedHashMap<>();
+        formats.put(MediaType.parseMediaType("application/x-jackson-smile"), new ObjectMapper(new SmileFactory()));
+        formats.put(MediaType.parseMediaType("application/cbor"), new ObjectMapper(new CBORFactory()));
+
+        for (Map.Entry<MediaType, ObjectMapper> format : formats.entrySet()) {
+            mockMvc.perform(MockMvcRequestBuilders.get("/api/user").accept(format.getKey()))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(format.getKey()))
+                    .andExpect(header().doesNotExist("X-Next-Cursor"))
+                    .andDo(response -> {
+                        JsonNode body = format.getValue().readTree(response.getResponse().getContentAsByteArray());
+                        Assertions.assertThat(body).hasSize(2);
+                        Assertions.assertThat(body.get(0).get("id").asLong()).isEqualTo(1L);
+                        Assertions.assertThat(body.get(0).get("name").asText()).isEqualTo("John Smith");
+                        Assertions.assertThat(body.get(0).get("email").asText()).isEqualTo("test1@gmail.com");
+                        Assertions.assertThat(body.get(0).get("usertype").asText()).isEqualTo("EMPLOYEE");
+                        Assertions.assertThat(body.get(0).get("department").isNull()).isTrue();
+                        Assertions.assertThat(body.get(1).get("name").asText()).isEqualTo("William Lam");
+                        Assertions.assertThat(body.get(1).get("usertype").asText()).isEqualTo("MANAGER");
+                        Assertions.assertThat(body.get(1).has("password")).isFalse();
+                        Assertions.assertThat(body.get(1).has("apikey")).isFalse();
+                    });
+        }
+    }
+
+    /**
+     * Performs the same HTTP request for the reimbursements of user 1 twice and
+     * checks that the second one is answered from the ETag without a query.
+     */
+    @Test
+    public void shouldReturnNotModifiedForUnchangedReimbursements() throws Exception {
+        Mockito.when(reimbursementRepository.findViewsByUserId(Mockito.eq(1L), Mockito.any()))
+                .thenReturn(Collections.emptyList());
+
+        String etag = mockMvc.perform(MockMvcRequestBuilders.get("/api/reimbursement/1")
+                        .header("Authorization", u1.getApikey()))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/reimbursement/1")
+                        .header("Authorization", u1.getApikey())
+                        .header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        Mockito.verify(reimbursementRepository, Mockito.times(1)).findViewsByUserId(Mockito.eq(1L), Mockito.any());
+    }
+
+    /**
+     * Changes the reimbursement requests of a user through one instance of the
+     * version counter and checks that another instance, sharing only the
+     * database, tags the lists of the user and of the company differently.
+     */
+    @Test
+    public void shouldShareChangeVersionsBetweenInstances() {
+        ChangeVersions changing = new ChangeVersions(jdbcTemplate);
+        ChangeVersions polled = new ChangeVersions(jdbcTemplate);
+        long userid = 434343L;
+        long other = 434344L;
+        try {
+            String userTag = polled.userTag(userid);
+            String otherTag = polled.userTag(other);
+            String globalTag = polled.globalTag();
+
+            new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                    changing.changed(Arrays.asList(userid, null)));
+
+            Assertions.assertThat(polled.userTag(userid)).isNotEqualTo(userTag);
+            Assertions.assertThat(polled.globalTag()).isNotEqualTo(globalTag);
+            Assertions.assertThat(polled.userTag(other)).isEqualTo(otherTag);
+        } finally {
+            jdbcTemplate.update("delete from list_versions where userid in (?, ?)", userid, other);
+        }
+    }
+
+    /**
+     * Performs an HTTP request to approve a batch of reimbursement requests
+     * using user 2 (The sample manager user) and checks that unknown ids
+     * are reported and one summary notification is queued per employee.
+     */
+    @Test
+    public void shouldApproveBatchOfReimbursements() throws Exception {
+        ReimbursementSummary found = new SpelAwareProxyProjectionFactory()
+                .createProjection(ReimbursementSummary.class, new HashMap<String, Object>() {{
+                    put("id", 1L);
+                    put("userid", 1L);
+                    put("description", "For eating");
+                    put("amount", BigDecimal.valueOf(50.20));
+                }});
+        Mockito.when(userRepository.findById(Mockito.anyLong())).thenReturn(Optional.of(u2));
+        Mockito.when(userRepository.findAllById(Mockito.any())).thenReturn(Arrays.asList(u1));
+        Mockito.when(reimbursementRepository.findSummariesByIdIn(Mockito.any())).thenReturn(Arrays.asList(found));
+        Mockito.when(reimbursementRepository.resolveByIdIn(Mockito.any(), Mockito.eq(true), Mockito.any())).thenReturn(1);
+
+        Map<String, Object> batch = new HashMap<>();
+        batch.put("action", "approve");
+        batch.put("ids", Arrays.asList(1, 3));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/reimbursement/batch/2")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mapper.writeValueAsString(batch))
+                        .header("Authorization", u2.getApikey()))
+                .andExpect(status().isOk())
+                .andDo(response -> {
+                    Assertions.assertThat(response.getResponse().getContentAsString()).isEqualTo(
+                            mapper.writeValueAsString(Arrays.asList(new BatchResult(1L, BatchResult.UPDATED),
+                                    new BatchResult(3L, BatchResult.NOT_FOUND))));
+                });
+
+        Mockito.verify(reimbursementRepository).resolveByIdIn(Mockito.eq(Collections.singleton(1L)),
+                Mockito.eq(true), Mockito.any());
+        Mockito.verify(outboxRepository, Mockito.times(1)).save(Mockito.any());
+    }
+
+    /**
+     * Dispatches several notifications waiting for the same employee
+     * and checks that they are sent out as a single digest email.
+     */
+    @Test
+    public void shouldSendDigestOfNotifications() {
+        EmailClient emailClient = Mockito.mock(EmailClient.class);
+        Mockito.when(emailClient.isAvailable()).thenReturn(true);
+        Mockito.when(emailClient.getMaxInFlight()).thenReturn(10);
+        Mockito.when(emailClient.sendEmail(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(Mono.empty());
+        EmailDispatcher dispatcher = new EmailDispatcher(outboxRepository, emailClient,
+                Mockito.mock(PlatformTransactionManager.class),
+                50, 50, 10, Duration.ofSeconds(10), Duration.ofHours(1), Duration.ofMinutes(2));
+        List<OutboxEmail> emails = Arrays.asList(
+                new OutboxEmail(u1.getEmail(), "Reimbursement request approved", "First", Duration.ZERO),
+                new OutboxEmail(u1.getEmail(), "Reimbursement request denied", "Second", Duration.ZERO),
+                new OutboxEmail(u1.getEmail(), "Reimbursement request approved", "Third", Duration.ZERO));
+        for (int i = 0; i < emails.size(); i++) {
+            emails.get(i).setId(i + 1L);
+        }
+        Mockito.when(outboxRepository.findByStatusAndNextattemptLessThanEqualOrderByIdAsc(
+                        Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Collections.singletonList(emails.get(0)));
+        Mockito.when(outboxRepository.findDigest(
+                        Mockito.any(), Mockito.eq(u1.getEmail()), Mockito.any(), Mockito.any()))
+                .thenReturn(emails);
+        Mockito.when(outboxRepository.claim(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(3);
+        Mockito.when(outboxRepository.findByClaimOrderByIdAsc(Mockito.any())).thenReturn(emails);
+        Mockito.when(outboxRepository.deleteClaimed(Mockito.any(), Mockito.any())).thenReturn(3);
+
+        dispatcher.dispatch();
+
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(emailClient, Mockito.times(1)).sendEmail(Mockito.eq(u1.getEmail()),
+                Mockito.eq("3 reimbursement updates"), body.capture());
+        Assertions.assertThat(body.getValue()).contains("First", "Second", "Third");
+        ArgumentCaptor<String> claim = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(outboxRepository).claim(Mockito.eq(new LinkedHashSet<>(Arrays.asList(1L, 2L, 3L))),
+                claim.capture(), Mockito.any());
+        Mockito.verify(outboxRepository).deleteClaimed(Arrays.asList(1L, 2L, 3L), claim.getValue());
+    }
+
+    /**
+     * Finds the notifications waiting for an employee, one of which is still inside
+     * its coalescing window and one of which is waiting out its backoff, and checks
+     * that only the one in backoff is left out of the digest.
+     */
+    @Test
+    public void shouldLeaveNotificationsInBackoffOutOfDigest() {
+        OutboxRepository outbox = new JpaRepositoryFactory(entityManager).getRepository(OutboxRepository.class);
+        LocalDateTime now = LocalDateTime.now();
+        String insert = "insert into email_outbox (recipient, subject, body, status, attempts, createdate, nextattempt)"
+                + " values ('backoff@test.com', ?, 'Body', 'PENDING', ?, ?, ?)";
+        jdbcTemplate.update(insert, "Due", 0, Timestamp.valueOf(now), Timestamp.valueOf(now.minusMinutes(1)));
+        jdbcTemplate.update(insert, "Backoff", 1, Timestamp.valueOf(now), Timestamp.valueOf(now.plusMinutes(10)));
+        jdbcTemplate.update(insert, "Window", 0, Timestamp.valueOf(now), Timestamp.valueOf(now.plusSeconds(30)));
+        try {
+            List<OutboxEmail> digest = outbox.findDigest(
+                    OutboxStatus.PENDING, "backoff@test.com", now, PageRequest.of(0, 50));
+            Assertions.assertThat(digest).extracting(OutboxEmail::getSubject).containsExactly("Due", "Window");
+        } finally {
+            jdbcTemplate.update("delete from email_outbox where recipient = 'backoff@test.com'");
+        }
+    }
+
+    /**
+     * Queues two notifications for the same employee one poll apart, so that the
+     * first is due while the second is still inside its coalescing window, and
+     * checks that dispatching sends them out together as one digest email.
+     */
+    @Test
+    public void shouldSendNotificationsInsideCoalescingWindowAsOneDigest() {
+        OutboxRepository outbox = new JpaRepositoryFactory(entityManager).getRepository(OutboxRepository.class);
+        EmailClient emailClient = Mockito.mock(EmailClient.class);
+        Mockito.when(emailClient.isAvailable()).thenReturn(true);
+        Mockito.when(emailClient.getMaxInFlight()).thenReturn(10);
+        Mockito.when(emailClient.sendEmail(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(Mono.empty());
+        EmailDispatcher dispatcher = new EmailDispatcher(outbox, emailClient, transactionManager,
+                50, 50, 10, Duration.ofSeconds(10), Duration.ofHours(1), Duration.ofMinutes(2));
+        Duration window = Duration.ofSeconds(30);
+        LocalDateTime first = LocalDateTime.now().minus(window).minusSeconds(1);
+        LocalDateTime second = first.plusSeconds(5);
+        String insert = "insert into email_outbox (recipient, subject, body, status, attempts, createdate, nextattempt)"
+                + " values ('window@test.com', ?, ?, 'PENDING', 0, ?, ?)";
+        jdbcTemplate.update(insert, "Reimbursement request approved", "First",
+                Timestamp.valueOf(first), Timestamp.valueOf(first.plus(window)));
+        jdbcTemplate.update(insert, "Reimbursement request denied", "Second",
+                Timestamp.valueOf(second), Timestamp.valueOf(second.plus(window)));
+        try {
+            dispatcher.dispatch();
+
+            ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+            Mockito.verify(emailClient, Mockito.times(1)).sendEmail(Mockito.any(), Mockito.any(), Mockito.any());
+            Mockito.verify(emailClient).sendEmail(Mockito.eq("window@test.com"),
+                    Mockito.eq("2 reimbursement updates"), body.capture());
+            Assertions.assertThat(body.getValue()).contains("First", "Second");
+            Assertions.assertThat(jdbcTemplate.queryForObject(
+                    "select count(*) from email_outbox where recipient = 'window@test.com'", Long.class)).isZero();
+        } finally {
+            jdbcTemplate.update("delete from email_outbox where recipient = 'window@test.com'");
+        }
+    }
+
+    /**
+     * Dispatches a notification while the email API is failing and checks
+     * that it is held back in the outbox without using up an attempt.
+     */
+    @Test
+    public void shouldHoldBackNotificationsWhileEmailApiIsFailing() {
+        EmailClient emailClient = Mockito.mock(EmailClient.class);
+        Mockito.when(emailClient.isAvailable()).thenReturn(true);
+        Mockito.when(emailClient.getMaxInFlight()).thenReturn(10);
+        Mockito.when(emailClient.sendEmail(Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(Mono.error(new EmailUnavailableException("Email API is failing")));
+        EmailDispatcher dispatcher = new EmailDispatcher(outboxRepository, emailClient,
+                Mockito.mock(PlatformTransactionManager.class),
+                1, 50, 10, Duration.ofSeconds(10), Duration.ofHours(1), Duration.ofMinutes(2));
+        OutboxEmail email = new OutboxEmail(u1.getEmail(), "Reimbursement request approved", "First", Duration.ZERO);
+        email.setId(1L);
+        List<OutboxEmail> emails = Collections.singletonList(email);
+        Mockito.when(outboxRepository.findByStatusAndNextattemptLessThanEqualOrderByIdAsc(
+                        Mockito.any(), Mockito.any(), Mockito.any()))
+                .thenReturn(emails);
+        Mockito.when(outboxRepository.findDigest(
+                        Mockito.any(), Mockito.eq(u1.getEmail()), Mockito.any(), Mockito.any()))
+                .thenReturn(emails);
+        Mockito.when(outboxRepository.claim(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(1);
+        Mockito.when(outboxRepository.findByClaimOrderByIdAsc(Mockito.any())).thenReturn(emails);
+
+        dispatcher.dispatch();
+
+        Assertions.assertThat(email.getAttempts()).isZero();
+        Mockito.verify(emailClient, Mockito.times(1)).sendEmail(Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(outboxRepository).release(Mockito.eq(Collections.singletonList(1L)), Mockito.any());
+        Mockito.verify(outboxRepository, Mockito.never()).deleteClaimed(Mockito.any(), Mockito.any());
+        Mockito.verify(outboxRepository, Mockito.never()).reschedule(Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.anyInt(), Mockito.any(), Mockito.any());
+    }
+
+    /**
+     * Dispatches the outbox while another run of the dispatcher starts in the middle
+     * of sending, as a slow send overlapping the next run or a second instance would,
+     * and checks that each email is only sent once. An email whose claim ran out,
+     * as when the run holding it died, is sent by the next run.
+     */
+    @Test
+    public void shouldClaimNotificationsBeforeSendingThem() {
+        OutboxRepository outbox = new JpaRepositoryFactory(entityManager).getRepository(OutboxRepository.class);
+        EmailClient emailClient = Mockito.mock(EmailClient.class);
+        Mockito.when(emailClient.isAvailable()).thenReturn(true);
+        Mockito.when(emailClient.getMaxInFlight()).thenReturn(10);
+        EmailDispatcher first = new EmailDispatcher(outbox, emailClient, transactionManager,
+                50, 50, 10, Duration.ofSeconds(10), Duration.ofHours(1), Duration.ofMinutes(2));
+        EmailDispatcher second = new EmailDispatcher(outbox, emailClient, transactionManager,
+                50, 50, 10, Duration.ofSeconds(10), Duration.ofHours(1), Duration.ofMinutes(2));
+        List<String> sent = new ArrayList<>();
+        Mockito.when(emailClient.sendEmail(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+            sent.add(invocation.getArgument(0));
+            if (sent.size() == 1) {
+                second.dispatch();
+            }
+            return Mono.empty();
+        });
+        LocalDateTime now = LocalDateTime.now();
+        String insert = "insert into email_outbox (recipient, subject, body, status, attempts, createdate,"
+                + " nextattempt, claim, leaseuntil) values (?, 'Subject', 'Body', ?, 0, ?, ?, ?, ?)";
+        jdbcTemplate.update(insert, "claim.a@test.com", "PENDING", Timestamp.valueOf(now),
+                Timestamp.valueOf(now.minusMinutes(1)), null, null);
+        jdbcTemplate.update(insert, "claim.b@test.com", "PENDING", Timestamp.valueOf(now),
+                Timestamp.valueOf(now.minusMinutes(1)), null, null);
+        jdbcTemplate.update(insert, "claim.c@test.com", "SENDING", Timestamp.valueOf(now.minusMinutes(10)),
+                Timestamp.valueOf(now.minusMinutes(10)), "dead", Timestamp.valueOf(now.minusMinutes(1)));
+        try {
+            first.dispatch();
+
+            Assertions.assertThat(sent).containsExactlyInAnyOrder("claim.a@test.com", "claim.b@test.com",
+                    "claim.c@test.com");
+            Assertions.assertThat(jdbcTemplate.queryForObject(
+                    "select count(*) from email_outbox where recipient like 'claim.%@test.com'", Long.class)).isZero();
+        } finally {
+            jdbcTemplate.update("delete from email_outbox where recipient like 'claim.%@test.com'");
+        }
+    }
+
+    /**
+     * Sends emails to an email API that cannot be reached and checks that
+     * the circuit breaker opens and rejects emails after enough failures.
+     */
+    @Test
+    public void shouldOpenCircuitBreakerWhenEmailApiFails() {
+        EmailClient emailClient = new EmailClient(WebClient.builder(), new SimpleMeterRegistry(),
+                "http://127.0.0.1:1/api/email", Duration.ofSeconds(1), Duration.ofSeconds(1), 2, 10,
+                2, Duration.ofMinutes(1));
+        try {
+            for (int i = 0; i < 2; i++) {
+                Assertions.assertThatThrownBy(() -> emailClient.sendEmail(u1.getEmail(), "Subject", "Body").block())
+                        .isInstanceOf(WebClientRequestException.class);
+            }
+            Assertions.assertThat(emailClient.isAvailable()).isFalse();
+            Assertions.assertThatThrownBy(() -> emailClient.sendEmail(u1.getEmail(), "Subject", "Body").block())
+                    .isInstanceOf(EmailUnavailableException.class);
+        } finally {
+            emailClient.destroy();
+        }
+    }
+
+    /**
+     * Approves a reimbursement request and checks that it is moved from the pending
+     * to the approved totals of both its owner and the whole company.
+     */
+    @Test
+    public void shouldUpdateExpenseSummaryOnApproval() {
+        Reimbursement mockR = new Reimbursement(LocalDate.now(), "For eating", BigDecimal.valueOf(50.20), u1);
+        mockR.setId(1L);
+        Mockito.when(reimbursementRepository.resolve(Mockito.eq(1L), Mockito.eq(true), Mockito.any(), Mockito.eq(0L)))
+                .thenReturn(1);
+        Mockito.when(reimbursementRepository.findWithUserById(1L)).thenReturn(Optional.of(mockR));
+        Mockito.when(expenseSummaryRepository.adjust(Mockito.anyLong(), Mockito.anyLong(), Mockito.any(),
+                Mockito.anyLong(), Mockito.any())).thenReturn(1);
+
+        reimbursementService.approveReimbursement(1L, u2, null);
+
+        for (Long userid : Arrays.asList(u1.getId(), ExpenseSummary.COMPANY)) {
+            Mockito.verify(expenseSummaryRepository).adjust(Mockito.eq(userid), Mockito.eq(-1L),
+                    Mockito.argThat(sum -> sum.compareTo(BigDecimal.valueOf(-50.20)) == 0), Mockito.eq(1L),
+                    Mockito.argThat(sum -> sum.compareTo(BigDecimal.valueOf(50.20)) == 0));
+        }
+        Mockito.verify(expenseSummaryRepository, Mockito.never()).save(Mockito.any());
+    }
+
+    /**
+     * Moves a pending reimbursement request to an employee with a lower id than
+     * its owner and checks that the summaries are changed in id order, the order
+     * a reassignment the other way round locks them in too.
+     */
+    @Test
+    public void shouldAdjustExpenseSummariesInIdOrder() {
+        Mockito.when(expenseSummaryRepository.adjust(Mockito.anyLong(), Mockito.anyLong(), Mockito.any(),
+                Mockito.anyLong(), Mockito.any())).thenReturn(1);
+
+        new ExpenseSummaryService(expenseSummaryRepository).reassigned(2L, 1L, BigDecimal.TEN, true, false);
+
+        InOrder inOrder = Mockito.inOrder(expenseSummaryRepository);
+        inOrder.verify(expenseSummaryRepository).adjust(Mockito.eq(1L), Mockito.eq(1L), Mockito.any(),
+                Mockito.eq(0L), Mockito.any());
+        inOrder.verify(expenseSummaryRepository).adjust(Mockito.eq(2L), Mockito.eq(-1L), Mockito.any(),
+                Mockito.eq(0L), Mockito.any());
+        Mockito.verify(expenseSummaryRepository, Mockito.never()).adjust(Mockito.eq(ExpenseSummary.COMPANY),
+                Mockito.anyLong(), Mockito.any(), Mockito.anyLong(), Mockito.any());
+    }
+
+    /**
+     * Adds to the summary of an employee who has none yet, twice, as two concurrent
+     * first submissions would, and checks that the first change creates the summary
+     * and the second adds to it rather than failing on the existing row.
+     */
+    @Test
+    public void shouldCreateMissingExpenseSummaryInOneStatement() {
+        ExpenseSummaryRepository summaries = new JpaRepositoryFactory(entityManager)
+                .getRepository(ExpenseSummaryRepository.class);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        long userid = 424242L;
+        try {
+            for (int i = 0; i < 2; i++) {
+                transaction.executeWithoutResult(status -> summaries.adjust(userid, 1, BigDecimal.valueOf(12.5),
+                        0, BigDecimal.ZERO));
+            }
+            Map<String, Object> row = jdbcTemplate.queryForMap(
+                    "select pendingcount, pendingsum from expense_summaries where userid = ?", userid);
+            Assertions.assertThat(((Number) row.get("pendingcount")).longValue()).isEqualTo(2);
+            Assertions.assertThat((BigDecimal) row.get("pendingsum")).isEqualByComparingTo("25.00");
+        } finally {
+            jdbcTemplate.update("delete from expense_summaries where userid = ?", userid);
+        }
+    }
+
+    /**
+     * Submits the first reimbursement request of an employee, whose summary does not
+     * exist yet so the first change reports no updated row, and checks that the summary
+     * is still only changed through the upsert rather than a separate insert.
+     */
+    @Test
+    public void shouldNotInsertExpenseSummaryWhenFirstChangeUpdatesNothing() {
+        Mockito.when(expenseSummaryRepository.adjust(Mockito.anyLong(), Mockito.anyLong(), Mockito.any(),
+                Mockito.anyLong(), Mockito.any())).thenReturn(0);
+
+        new ExpenseSummaryService(expenseSummaryRepository).submitted(u1.getId(), BigDecimal.valueOf(50.20));
+
+        for (Long userid : Arrays.asList(u1.getId(), ExpenseSummary.COMPANY)) {
+            Mockito.verify(expenseSummaryRepository).adjust(Mockito.eq(userid), Mockito.eq(1L),
+                    Mockito.argThat(sum -> sum.compareTo(BigDecimal.valueOf(50.20)) == 0), Mockito.eq(0L),
+                    Mockito.argThat(sum -> sum.signum() == 0));
+        }
+        Mockito.verify(expenseSummaryRepository, Mockito.never()).save(Mockito.any());
+    }
+
+    /**
+     * Approves a reimbursement request that was denied, as managers could before requests
+     * had a resolve date, and checks that only the approved totals change.
+     */
+    @Test
+    public void shouldApproveDeniedReimbursement() {
+        Reimbursement mockR = new Reimbursement(LocalDate.now(), "For eating", BigDecimal.valueOf(50.20), u1);
+        mockR.setId(1L);
+        mockR.setResolvedate(LocalDate.now().minusDays(1));
+        mockR.setVersion(2L);
+        Mockito.when(reimbursementRepository.findWithUserById(1L)).thenReturn(Optional.of(mockR));
+        Mockito.when(reimbursementRepository.resolve(Mockito.eq(1L), Mockito.eq(true), Mockito.any(), Mockito.eq(2L)))
+                .thenReturn(1);
+        Mockito.when(expenseSummaryRepository.adjust(Mockito.anyLong(), Mockito.anyLong(), Mockito.any(),
+                Mockito.anyLong(), Mockito.any())).thenReturn(1);
+
+        Reimbursement r = reimbursementService.approveReimbursement(1L, u2, 2L);
+
+        Assertions.assertThat(r.isApproved()).isTrue();
+        Assertions.assertThat(r.getVersion()).isEqualTo(3L);
+        for (Long userid : Arrays.asList(u1.getId(), ExpenseSummary.COMPANY)) {
+            Mockito.verify(expenseSummaryRepository).adjust(Mockito.eq(userid), Mockito.eq(0L),
+                    Mockito.argThat(sum -> sum.signum() == 0), Mockito.eq(1L),
+                    Mockito.argThat(sum -> sum.compareTo(BigDecimal.valueOf(50.20)) == 0));
+        }
+        Assertions.assertThatThrownBy(() -> reimbursementService.denyReimbursement(1L, u2, 2L))
+                .isInstanceOf(OptimisticLockingFailureException.class);
+    }
+
+    /**
+     * Lists the users and checks that the request is timed and its SQL
+     * statements are counted in the Prometheus metrics, next to the
+     * connection pool gauges, and that the metrics are not served on
+     * the port of the API.
+     */
+    @Test
+    public void shouldExposePrometheusMetrics() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/user")).andExpect(status().isOk());
 
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"))
+                .andExpect(status().isNotFound());
+        Assertions.assertThat(prometheusMeterRegistry.scrape())
+                .contains("http_server_requests_seconds_count{application=\"reimbursement\"")
+                .contains("uri=\"/api/user\"")
+                .contains("http_server_requests_statements_count")
+                .contains("hikaricp_connections_active");
     }
 }